@@ -1,7 +1,14 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.prefs.Preferences;
+
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
 import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
 import javax.sound.sampled.SourceDataLine;
 
 /**
@@ -12,7 +19,30 @@ import javax.sound.sampled.SourceDataLine;
 public class Channel {
 
 	/** Definitions */
-	public static final AudioFormat PlayerFormat = new AudioFormat(48000, 8, 1, true, true);
+	public static final int[] SampleRates = {
+		22050, 32000, 44100, 48000, 96000
+	};
+	public static final int[] SampleBits = {
+		8, 16
+	};
+	public static final int DEFAULT_SAMPLE_RATE = 48000;
+	public static final int DEFAULT_SAMPLE_BITS = 8;
+	public static final int MIN_LATENCY_MS = 20;
+	public static final int MAX_LATENCY_MS = 250;
+	public static final int DEFAULT_LATENCY_MS = 60;
+	private static final int SHRINK_AFTER_CLEAN_WRITES = 400;
+	private static final String MIXER_KEY = "mixer";
+	private static final String LATENCY_KEY = "latency";
+	private static final String SAMPLE_RATE_KEY = "sampleRate";
+	private static final String SAMPLE_BITS_KEY = "sampleBits";
+
+	/** Output settings shared by all Channels */
+	private static Preferences prefs = Preferences.userNodeForPackage(Channel.class);
+	private static String mixerName = prefs.get(MIXER_KEY, null);
+	private static int preferredLatencyMS = prefs.getInt(LATENCY_KEY, DEFAULT_LATENCY_MS);
+	private static volatile AudioFormat playerFormat = createFormat(prefs.getInt(SAMPLE_RATE_KEY, DEFAULT_SAMPLE_RATE),
+			prefs.getInt(SAMPLE_BITS_KEY, DEFAULT_SAMPLE_BITS));
+	private static List<Channel> openChannels = new ArrayList<>();
 
 	/** The SourceDataLine used for playing sounds */
 	public SourceDataLine line;
@@ -20,17 +50,326 @@ public class Channel {
 	/** Whether or not sweeping is allowed on this channel */
 	public boolean hasSweep;
 
+	/** Incremented on every write, so that an older write stops early */
+	private AtomicInteger generation = new AtomicInteger();
+
+	/** Samples widened for a 16-bit line */
+	private byte[] wide = new byte[0];
+
+	/** Adaptive buffer sizing state */
+	private int latencyMS; // The latency the line is open with
+	private int nextLatencyMS; // The latency it is opened with next
+	private int cleanWrites = 0;
+	private boolean reopen = true; // The line is first opened by begin
+	private long streamed = 0;
+
 	/**
-	 * Construct a new Channel object
+	 * Construct a new Channel object. Its line isn't opened until the Channel
+	 * first plays, so Channels cost nothing at startup.
 	 */
 	public Channel() {
-		DataLine.Info info = new DataLine.Info(SourceDataLine.class, PlayerFormat);
+		latencyMS = nextLatencyMS = preferredLatencyMS;
+		synchronized(openChannels) {
+			openChannels.add(this);
+		}
+	}
+
+	/**
+	 * Create a mono signed big-endian output format, falling back to the
+	 * defaults for a rate or depth that isn't offered
+	 * @param rate The sample rate in Hz
+	 * @param bits The bits per sample
+	 * @return The format
+	 */
+	private static AudioFormat createFormat(int rate, int bits) {
+		if(Arrays.binarySearch(SampleRates, rate) < 0) {
+			rate = DEFAULT_SAMPLE_RATE;
+		}
+		if(Arrays.binarySearch(SampleBits, bits) < 0) {
+			bits = DEFAULT_SAMPLE_BITS;
+		}
+		return new AudioFormat(rate, bits, 1, true, true);
+	}
+
+	/**
+	 * Get the format the Channels play. Notes are rendered at its rate, and
+	 * its depth is also the depth of exported WAV files.
+	 * @return The format
+	 */
+	public static AudioFormat getPlayerFormat() {
+		return playerFormat;
+	}
+
+	/**
+	 * Get the output sample rate
+	 * @return The rate in Hz
+	 */
+	public static int getSampleRate() {
+		return (int) playerFormat.getSampleRate();
+	}
+
+	/**
+	 * Get the output depth
+	 * @return The bits per sample
+	 */
+	public static int getSampleBits() {
+		return playerFormat.getSampleSizeInBits();
+	}
+
+	/**
+	 * Change the output rate and depth for this session, reopening all
+	 * Channels with them. Notes are rendered again at the new rate the next
+	 * time they are played.
+	 * @param rate The sample rate in Hz, one of SampleRates
+	 * @param bits The bits per sample, one of SampleBits
+	 */
+	public static void setFormat(int rate, int bits) {
+		playerFormat = createFormat(rate, bits);
+		synchronized(openChannels) {
+			for(Channel ch : openChannels) {
+				ch.reopen = true;
+			}
+		}
+	}
+
+	/**
+	 * Get the names of the mixers that can play the player format
+	 * @return The mixer names
+	 */
+	public static List<String> getMixerNames() {
+		List<String> names = new ArrayList<>();
+		DataLine.Info info = new DataLine.Info(SourceDataLine.class, playerFormat);
+		for(Mixer.Info mi : AudioSystem.getMixerInfo()) {
+			if(AudioSystem.getMixer(mi).isLineSupported(info)) {
+				names.add(mi.getName());
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Get the name of the chosen mixer
+	 * @return The mixer name, or null for the system default
+	 */
+	public static String getMixerName() {
+		return mixerName;
+	}
+
+	/**
+	 * Get the chosen output latency
+	 * @return The latency in ms
+	 */
+	public static int getPreferredLatency() {
+		return preferredLatencyMS;
+	}
+
+	/**
+	 * Convert a latency into a line buffer size
+	 * @param ms The latency in ms
+	 * @return The buffer size in bytes
+	 */
+	public static int latencyToBufferSize(int ms) {
+		AudioFormat format = playerFormat;
+		return (int) (format.getFrameRate() * ms / 1000) * format.getFrameSize();
+	}
+
+	/**
+	 * Choose the output device, latency, rate and depth, and reopen all Channels with them
+	 * @param mixer The mixer name, or null for the system default
+	 * @param ms The latency in ms
+	 * @param rate The sample rate in Hz, one of SampleRates
+	 * @param bits The bits per sample, one of SampleBits
+	 */
+	public static void setOutput(String mixer, int ms, int rate, int bits) {
+		setFormat(rate, bits);
+		prefs.putInt(SAMPLE_RATE_KEY, getSampleRate());
+		prefs.putInt(SAMPLE_BITS_KEY, getSampleBits());
+		mixerName = mixer;
+		preferredLatencyMS = Math.max(MIN_LATENCY_MS, Math.min(MAX_LATENCY_MS, ms));
+		if(mixer == null) {
+			prefs.remove(MIXER_KEY);
+		} else {
+			prefs.put(MIXER_KEY, mixer);
+		}
+		prefs.putInt(LATENCY_KEY, preferredLatencyMS);
+		synchronized(openChannels) {
+			for(Channel ch : openChannels) {
+				ch.nextLatencyMS = preferredLatencyMS;
+				ch.reopen = true;
+			}
+		}
+	}
+
+	/**
+	 * Open the line on the chosen mixer with the next buffer size
+	 */
+	private void open() {
+		AudioFormat format = playerFormat;
+		DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
 		try {
-			line = (SourceDataLine) AudioSystem.getLine(info);
-			line.open(PlayerFormat);
-		} catch (LineUnavailableException e) {
+			line = null;
+			if(mixerName != null) {
+				for(Mixer.Info mi : AudioSystem.getMixerInfo()) {
+					if(mi.getName().equals(mixerName) && AudioSystem.getMixer(mi).isLineSupported(info)) {
+						line = (SourceDataLine) AudioSystem.getMixer(mi).getLine(info);
+						break;
+					}
+				}
+			}
+			if(line == null) {
+				line = (SourceDataLine) AudioSystem.getLine(info);
+			}
+			latencyMS = nextLatencyMS;
+			line.open(format, latencyToBufferSize(latencyMS));
+			line.start();
+			TrackerMetrics.get().recordAudioLatency(latencyMS);
+		} catch (LineUnavailableException | IllegalArgumentException e) {
 			e.printStackTrace();
+			line = null;
+		}
+	}
+
+	/**
+	 * Close the line and open it again with the next buffer size
+	 */
+	private void reopen() {
+		reopen = false;
+		if(line != null) {
+			line.close();
+		}
+		open();
+		streamed = 0;
+	}
+
+	/**
+	 * Choose a larger buffer after an underrun, or a smaller one back towards
+	 * the chosen latency after a long run without underruns. A smaller buffer
+	 * waits for the next stream, as the line must be empty to be reopened.
+	 * @param underrun Whether the line ran dry before the next write
+	 * @return True if the line should be reopened now with a larger buffer
+	 */
+	private boolean adapt(boolean underrun) {
+		if(underrun) {
+			cleanWrites = 0;
+			if(latencyMS < MAX_LATENCY_MS) {
+				nextLatencyMS = Math.min(Math.max(latencyMS, nextLatencyMS) * 3 / 2, MAX_LATENCY_MS);
+				return true;
+			}
+			System.err.println("Audio underrun at maximum latency of " + latencyMS + " ms");
+		} else if(++cleanWrites >= SHRINK_AFTER_CLEAN_WRITES && nextLatencyMS > preferredLatencyMS) {
+			cleanWrites = 0;
+			nextLatencyMS = Math.max(nextLatencyMS * 2 / 3, preferredLatencyMS);
+			reopen = true;
+		}
+		return false;
+	}
+
+	/**
+	 * Replace whatever is playing on this Channel with a new buffer
+	 * @param buf The samples to play
+	 */
+	public void write(byte[] buf) {
+		append(begin(), buf, 0, buf.length);
+	}
+
+	/**
+	 * Stop whatever is playing on this Channel, and start a new stream of
+	 * samples to be played with append
+	 * @return The token identifying the new stream
+	 */
+	public int begin() {
+		int gen = cancel();
+		synchronized(this) {
+
+			// Open the line, or resize it between notes where nothing is lost by it
+			if(reopen) {
+				reopen();
+			}
+			if(line != null) {
+				line.flush();
+			}
+			streamed = 0;
+		}
+		return gen;
+	}
+
+	/**
+	 * Stop whatever is playing on this Channel
+	 * @return The token of the stream that is now current
+	 */
+	public int cancel() {
+		int gen = generation.incrementAndGet();
+		SourceDataLine current = line;
+		if(current != null) {
+			current.flush();
+		}
+		return gen;
+	}
+
+	/**
+	 * Get the number of samples written to the line that haven't been played yet
+	 * @return The sample count, 0 if the line isn't open
+	 */
+	public int getQueuedSamples() {
+		SourceDataLine current = line;
+		if(current == null) {
+			return 0;
+		}
+		return (current.getBufferSize() - current.available()) / current.getFormat().getFrameSize();
+	}
+
+	/**
+	 * Continue a stream of samples started by begin. The samples are written
+	 * in chunks so that the line's fill level can be checked, and so that a
+	 * newer stream can take over the line. An underrun reopens the line with a
+	 * larger buffer then and there, as it has nothing left to lose. Notes are
+	 * rendered with 8 bits, so for a 16-bit line each chunk is widened as it
+	 * is written.
+	 * @param gen The token returned by begin
+	 * @param buf The buffer holding the samples
+	 * @param off The offset of the first sample to play
+	 * @param len The number of samples to play
+	 * @return False if the stream was replaced by a newer one
+	 */
+	public boolean append(int gen, byte[] buf, int off, int len) {
+		synchronized(this) {
+			TrackerMetrics metrics = TrackerMetrics.get();
+			for(int end = off + len; off < end && line != null; ) {
+				if(gen != generation.get()) {
+					return false;
+				}
+				int bufferSize = line.getBufferSize();
+				int available = line.available();
+				boolean underrun = streamed > 0 && available >= bufferSize;
+				if(underrun) {
+					// The line ran dry while there was still data to play
+					metrics.recordUnderrun();
+				}
+				if(adapt(underrun)) {
+					reopen();
+					System.err.println("Audio underrun; increased latency to " + latencyMS + " ms");
+					continue;
+				}
+				int frameSize = line.getFormat().getFrameSize();
+				int chunk = Math.max(bufferSize / frameSize >> 2, 1);
+				if(frameSize > 1 && wide.length < chunk * frameSize) {
+					wide = new byte[chunk * frameSize];
+				}
+				long start = System.nanoTime();
+				int n = Math.min(chunk, end - off);
+				if(frameSize > 1) {
+					for(int i = 0; i < n; ++i) {
+						wide[2 * i] = buf[off + i];
+						wide[2 * i + 1] = 0;
+					}
+					streamed += line.write(wide, 0, 2 * n);
+				} else {
+					streamed += line.write(buf, off, n);
+				}
+				metrics.recordAudioWrite(100 * (bufferSize - available) / bufferSize, System.nanoTime() - start);
+				off += n;
+			}
+			return gen == generation.get();
 		}
-		line.start();
 	}
 }
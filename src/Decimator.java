@@ -0,0 +1,99 @@
+/**
+ * This class brings a note rendered at a multiple of the output rate down to
+ * the output rate through a windowed-sinc low-pass filter, so the harmonics of
+ * square and noise edges above half the output rate are removed rather than
+ * folded back as aliasing. Only the samples that are kept are filtered, each
+ * as one pass over the taps and a contiguous run of the input, and the taps
+ * are worked out once per factor, so decimating allocates nothing.
+ * @author Andrew Wilder
+ */
+public class Decimator {
+
+	/** Definitions */
+	private static final int TAPS_PER_PHASE = 48; // Taps for each input sample between outputs
+	private static final double CUTOFF = 0.44; // Fraction of the output rate where the filter is half way down
+
+	/** The decimators made so far, by factor */
+	private static final Decimator[] decimators = new Decimator[16];
+
+	/** The factor between the input and output rates */
+	private final int factor;
+
+	/** The filter taps, centred on the input sample under each output sample */
+	private final float[] taps;
+	private final int half;
+
+	/**
+	 * Get the decimator for a factor, working out its taps the first time
+	 * @param factor The factor between the input and output rates, from 2 to 15
+	 * @return The decimator
+	 */
+	public static synchronized Decimator get(int factor) {
+		if(decimators[factor] == null) {
+			decimators[factor] = new Decimator(factor);
+		}
+		return decimators[factor];
+	}
+
+	/**
+	 * Work out the taps of a Blackman-windowed sinc for a factor, scaled so a
+	 * constant input comes out unchanged
+	 * @param factor The factor between the input and output rates
+	 */
+	private Decimator(int factor) {
+		this.factor = factor;
+		half = TAPS_PER_PHASE * factor / 2;
+		taps = new float[2 * half + 1];
+		double fc = CUTOFF / factor; // In cycles per input sample
+		double sum = 0;
+		double[] h = new double[taps.length];
+		for(int k = 0; k < h.length; ++k) {
+			int n = k - half;
+			double sinc = n == 0 ? 2 * fc : Math.sin(2 * Math.PI * fc * n) / (Math.PI * n);
+			double w = 0.42 + 0.5 * Math.cos(Math.PI * n / (half + 1)) + 0.08 * Math.cos(2 * Math.PI * n / (half + 1));
+			h[k] = sinc * w;
+			sum += h[k];
+		}
+		for(int k = 0; k < h.length; ++k) {
+			taps[k] = (float) (h[k] / sum);
+		}
+	}
+
+	/**
+	 * Get the factor between the input and output rates
+	 * @return The factor
+	 */
+	public int getFactor() {
+		return factor;
+	}
+
+	/**
+	 * Get the number of output samples for a number of input samples
+	 * @param length The number of input samples
+	 * @return The number of output samples
+	 */
+	public int getOutputLength(int length) {
+		return (length + factor - 1) / factor;
+	}
+
+	/**
+	 * Filter and decimate samples. Input before the first sample and after the
+	 * last is silence.
+	 * @param in The samples at the higher rate
+	 * @param length The number of input samples
+	 * @param out The array for the samples at the output rate, at least getOutputLength(length) long
+	 */
+	public void decimate(byte[] in, int length, byte[] out) {
+		int outLength = getOutputLength(length);
+		for(int n = 0; n < outLength; ++n) {
+			int centre = n * factor;
+			int from = Math.max(0, half - centre);
+			int to = Math.min(taps.length, length - centre + half);
+			float acc = 0;
+			for(int k = from, i = centre - half + from; k < to; ++k, ++i) {
+				acc += taps[k] * in[i];
+			}
+			out[n] = (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, Math.round(acc)));
+		}
+	}
+}
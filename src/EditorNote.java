@@ -0,0 +1,30 @@
+/**
+ * This class adds a step to a regular Note object for representation in
+ * the simulator. Songs store their notes packed in a NoteTimeline, so an
+ * EditorNote is a value read from a timeline or to be added to one, and
+ * changing a note is done through the Song.
+ * @author Andrew Wilder
+ */
+public class EditorNote {
+
+	/** The variables held by the EditorNote object */
+	public final Note note;
+	public final int step;
+
+	/**
+	 * Create a new EditorNote object
+	 * @param note The Note to contain
+	 * @param step The 48th measure this is placed on
+	 */
+	public EditorNote(Note note, int step) {
+		this.note = note;
+		this.step = step;
+	}
+
+	/**
+	 * Determine if this is equal to another one. Used for Lists.
+	 */
+	public boolean equals(Object o) {
+		return o instanceof EditorNote && step == ((EditorNote) o).step;
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * This class models the cost of the exported step handler on the GBA, so that
+ * the music's share of a game's frame budget is known at export time. All
+ * cycle counts are estimates for the handler in ExportTemplateC running from
+ * ROM with the default wait states.
+ * @author Andrew Wilder
+ */
+public class ExportCostEstimator {
+
+	/** GBA timing definitions */
+	public static final int CPU_FREQUENCY = 16777216;
+	public static final int CYCLES_PER_FRAME = 280896;
+	private static final int TIMER_PRESCALER = 1024;
+	private static final int BPM_QUAN_TRANSFORM = 0x14000;
+
+	/** Estimated cycle costs of the parts of the step handler */
+	private static final int IRQ_DISPATCH_CYCLES = 60; // BIOS vector, register save and return
+	private static final int HANDLER_BASE_CYCLES = 40; // IME writes, IF switch and acknowledge, wait decrement
+	private static final int ROW_BASE_CYCLES = 45;     // FRQ tests, wait reload, index advance and end check
+	private static final int REG_WRITE_CYCLES = 14;    // ROM halfword load plus IO register store
+	private static final int PATTERN_END_CYCLES = 30;  // Repeat count and order advance at the end of a pattern
+	private static final int LOOP_WRAP_CYCLES = 6;     // Order and row reset at the end of the data
+
+	/** Estimated size of the compiled player code */
+	private static final int PLAYER_CODE_BYTES = 560;
+	private static final int ROW_BYTES = Song.ROW_WIDTH * 2;
+	private static final int WAVE_PATTERN_BYTES = 16;
+	private static final int PATTERN_TABLE_BYTES = 8;
+	private static final int ORDER_BYTES = 4;
+
+	/** Register writes made when a row starts a note on each channel */
+	private static final int CH1_WRITES = 3;
+	private static final int CH2_WRITES = 2;
+	private static final int CH3_WRITES = 9; // Bank switch, 4 wave RAM words, control, length and frequency
+	private static final int CH4_WRITES = 2;
+
+	/** Results of the estimation */
+	private int rowCount;
+	private int patternCount;
+	private int orderLength;
+	private int dataBytes;
+	private int stepCount;
+	private int timerReload;
+	private double irqsPerSecond;
+	private int maxWritesPerIRQ;
+	private double avgWritesPerIRQ;
+	private int maxCyclesPerIRQ;
+	private double avgCyclesPerIRQ;
+	private int maxIRQsPerFrame;
+	private int maxCyclesPerFrame;
+	private int wavePatternCount;
+	private int romBytes;
+
+	/**
+	 * Estimate the cost of playing exported note data
+	 * @param structure The exported patterns and order list
+	 * @param bpm The BPM of the song
+	 */
+	public ExportCostEstimator(SongStructure structure, int bpm) {
+
+		// Timer 0 fires once per 48th of a measure
+		timerReload = Math.max(BPM_QUAN_TRANSFORM / bpm, 1);
+		irqsPerSecond = (double) CPU_FREQUENCY / (timerReload * TIMER_PRESCALER);
+		maxIRQsPerFrame = (CYCLES_PER_FRAME + timerReload * TIMER_PRESCALER - 1) / (timerReload * TIMER_PRESCALER);
+
+		// Count the register writes of each pattern's rows once
+		patternCount = structure.getPatterns().size();
+		orderLength = structure.getOrder().size();
+		rowCount = structure.getRowCount();
+		long[] patternWrites = new long[patternCount];
+		int[] patternMaxWrites = new int[patternCount];
+		int[] patternSteps = new int[patternCount];
+		for(int p = 0; p < patternCount; ++p) {
+			for(int[] row : structure.getPatternRows(p)) {
+				int writes = rowWrites(row);
+				if(row[Song.ROW_CH3_CNT_X] != 0) {
+					wavePatternCount = Math.max(wavePatternCount, row[Song.ROW_CH3_WAVE] + 1);
+				}
+				patternWrites[p] += writes;
+				patternMaxWrites[p] = Math.max(patternMaxWrites[p], writes);
+				patternSteps[p] += row[Song.ROW_LEN];
+			}
+		}
+
+		// Walk the order list the same way the handler does
+		long totalWrites = 0;
+		long rowsPlayed = 0;
+		for(int[] entry : structure.getOrder()) {
+			int p = entry[0];
+			totalWrites += patternWrites[p] * entry[1];
+			rowsPlayed += (long) structure.getPatternRows(p).length * entry[1];
+			stepCount += patternSteps[p] * entry[1];
+			maxWritesPerIRQ = Math.max(maxWritesPerIRQ, patternMaxWrites[p]);
+		}
+
+		// Every step is an IRQ, but only the steps that start a row write registers
+		int idleCycles = IRQ_DISPATCH_CYCLES + HANDLER_BASE_CYCLES;
+		if(stepCount > 0) {
+			avgWritesPerIRQ = (double) totalWrites / stepCount;
+			avgCyclesPerIRQ = idleCycles + ((double) rowsPlayed * ROW_BASE_CYCLES + totalWrites * REG_WRITE_CYCLES) / stepCount;
+			maxCyclesPerIRQ = idleCycles + ROW_BASE_CYCLES + maxWritesPerIRQ * REG_WRITE_CYCLES + PATTERN_END_CYCLES + LOOP_WRAP_CYCLES;
+		} else {
+			avgCyclesPerIRQ = maxCyclesPerIRQ = idleCycles;
+		}
+		maxCyclesPerFrame = maxIRQsPerFrame * maxCyclesPerIRQ;
+		wavePatternCount = Math.max(wavePatternCount, 1);
+		dataBytes = rowCount * ROW_BYTES + patternCount * PATTERN_TABLE_BYTES + orderLength * ORDER_BYTES;
+		romBytes = PLAYER_CODE_BYTES + dataBytes + wavePatternCount * WAVE_PATTERN_BYTES;
+	}
+
+	/**
+	 * Count the register writes the handler makes for a row
+	 * @param row The row of register values
+	 * @return The number of writes
+	 */
+	private static int rowWrites(int[] row) {
+		int writes = 0;
+		if(row[Song.ROW_CH1_FRQ] != 0) {
+			writes += CH1_WRITES;
+		}
+		if(row[Song.ROW_CH2_FRQ] != 0) {
+			writes += CH2_WRITES;
+		}
+		if(row[Song.ROW_CH3_CNT_X] != 0) {
+			writes += CH3_WRITES;
+		}
+		if(row[Song.ROW_CH4_FRQ] != 0) {
+			writes += CH4_WRITES;
+		}
+		return writes;
+	}
+
+	/**
+	 * Get the worst case number of cycles spent in the handler per video frame
+	 * @return The cycle count
+	 */
+	public int getMaxCyclesPerFrame() {
+		return maxCyclesPerFrame;
+	}
+
+	/**
+	 * Check the estimate against a budget
+	 * @param cycleBudget The cycles per video frame the music may use
+	 * @return True if the worst case frame exceeds the budget
+	 */
+	public boolean exceedsBudget(int cycleBudget) {
+		return maxCyclesPerFrame > cycleBudget;
+	}
+
+	/**
+	 * Generate a human readable report of the estimate
+	 * @param songTitle The title of the exported song
+	 * @param cycleBudget The cycles per video frame the music may use
+	 * @return The report text
+	 */
+	public String generateReport(String songTitle, int cycleBudget) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Export cost estimate for %s%n", songTitle));
+		sb.append(String.format("%n"));
+		sb.append(String.format("Timer 0 reload:            %d (prescaler %d)%n", timerReload, TIMER_PRESCALER));
+		sb.append(String.format("IRQs per second:           %.2f%n", irqsPerSecond));
+		sb.append(String.format("IRQs per frame (max):      %d%n", maxIRQsPerFrame));
+		sb.append(String.format("Patterns:                  %d (%d rows)%n", patternCount, rowCount));
+		sb.append(String.format("Order entries:             %d%n", orderLength));
+		sb.append(String.format("Steps per pass:            %d%n", stepCount));
+		sb.append(String.format("Register writes per IRQ:   %d max, %.2f avg%n", maxWritesPerIRQ, avgWritesPerIRQ));
+		sb.append(String.format("Cycles per IRQ:            %d max, %.1f avg%n", maxCyclesPerIRQ, avgCyclesPerIRQ));
+		sb.append(String.format("Cycles per frame (max):    %d (%.2f%% of %d)%n", maxCyclesPerFrame,
+				100.0 * maxCyclesPerFrame / CYCLES_PER_FRAME, CYCLES_PER_FRAME));
+		sb.append(String.format("Cycles per second (avg):   %.0f%n", avgCyclesPerIRQ * irqsPerSecond));
+		sb.append(String.format("ROM bytes:                 %d (%d data + %d wave + ~%d code)%n", romBytes, dataBytes,
+				wavePatternCount * WAVE_PATTERN_BYTES, PLAYER_CODE_BYTES));
+		sb.append(String.format("%n"));
+		sb.append(String.format("Budget per frame:          %d cycles%n", cycleBudget));
+		if(exceedsBudget(cycleBudget)) {
+			sb.append(String.format("WARNING: worst case frame exceeds the budget by %d cycles%n", maxCyclesPerFrame - cycleBudget));
+		} else {
+			sb.append(String.format("Within budget%n"));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,113 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A template for an exported file, read once into the text between its
+ * placeholders and the names of the placeholders, such as $SONGTITLE. The
+ * template is written in one pass, with each placeholder's value written
+ * straight to the output where it appears, so large values like the note
+ * data are never copied into the text, and values are written as they are,
+ * whatever characters they contain.
+ * @author Andrew Wilder
+ */
+public class ExportTemplate {
+
+	/** Definitions */
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\$([A-Z]+)");
+
+	/** The templates read so far, by resource name */
+	private static final Map<String, ExportTemplate> templates = new ConcurrentHashMap<>();
+
+	/**
+	 * The value of a placeholder, written when the template reaches it
+	 */
+	public interface Value {
+
+		/**
+		 * Write the value
+		 * @param out The output
+		 * @throws IOException If the value can't be written
+		 */
+		void write(Writer out) throws IOException;
+	}
+
+	/** The text before each placeholder and after the last one, and the placeholder names */
+	private final List<String> literals = new ArrayList<>();
+	private final List<String> names = new ArrayList<>();
+
+	/**
+	 * Get a template from the application's resources, reading it the first time
+	 * @param resource The resource name, such as res/ExportTemplateC
+	 * @return The template
+	 */
+	public static ExportTemplate get(String resource) {
+		ExportTemplate template = templates.get(resource);
+		if(template == null) {
+			InputStream is = ExportTemplate.class.getResourceAsStream(resource);
+			Scanner sc = new Scanner(is, "UTF-8");
+			sc.useDelimiter("\\A");
+			template = new ExportTemplate(sc.hasNext() ? sc.next() : "");
+			sc.close();
+			templates.put(resource, template);
+		}
+		return template;
+	}
+
+	/**
+	 * Split the text of a template at its placeholders
+	 * @param text The template
+	 */
+	public ExportTemplate(String text) {
+		Matcher m = PLACEHOLDER.matcher(text);
+		int last = 0;
+		while(m.find()) {
+			literals.add(text.substring(last, m.start()));
+			names.add(m.group(1));
+			last = m.end();
+		}
+		literals.add(text.substring(last));
+	}
+
+	/**
+	 * Create a value that writes a String
+	 * @param text The String
+	 * @return The value
+	 */
+	public static Value text(final String text) {
+		return new Value() {
+			@Override
+			public void write(Writer out) throws IOException {
+				out.write(text);
+			}
+		};
+	}
+
+	/**
+	 * Write the template, replacing each placeholder with its value.
+	 * Placeholders without a value are written as they are.
+	 * @param out The output
+	 * @param values The values of the placeholders, by name without the $
+	 * @throws IOException If the output can't be written
+	 */
+	public void write(Writer out, Map<String, Value> values) throws IOException {
+		for(int i = 0; i < names.size(); ++i) {
+			out.write(literals.get(i));
+			Value value = values.get(names.get(i));
+			if(value != null) {
+				value.write(out);
+			} else {
+				out.write("$" + names.get(i));
+			}
+		}
+		out.write(literals.get(names.size()));
+	}
+}
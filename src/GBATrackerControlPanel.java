@@ -22,7 +22,32 @@ public class GBATrackerControlPanel extends JPanel {
 
 	/** These are the icons used by the control panel */
 	private static Icon loadIcon, saveIcon, saveAsIcon, exportIcon, playIcon, playHereIcon, stopIcon, aboutIcon, hintIcon;
-	static {
+
+	/** The thread reading the icons, started early so it runs while the other panels are built */
+	private static Thread iconLoader = null;
+
+	/**
+	 * Start reading the icons in the background, if it hasn't been started
+	 */
+	public static synchronized void preloadIcons() {
+		if(iconLoader == null) {
+			iconLoader = new Thread("Icon loader") {
+				@Override
+				public void run() {
+					long start = StartupReport.now();
+					readIcons();
+					StartupReport.phase("Icons", start);
+				}
+			};
+			iconLoader.setDaemon(true);
+			iconLoader.start();
+		}
+	}
+
+	/**
+	 * Read the icons
+	 */
+	private static void readIcons() {
 		try {
 			loadIcon     = new ImageIcon(ImageIO.read(ClassLoader.getSystemResource("res/Open.png")));
 			saveIcon     = new ImageIcon(ImageIO.read(ClassLoader.getSystemResource("res/Save.png")));
@@ -47,6 +72,14 @@ public class GBATrackerControlPanel extends JPanel {
 		// Initialize JPanel related properties
 		super(new FlowLayout(FlowLayout.LEADING));
 
+		// Wait for the icons
+		preloadIcons();
+		try {
+			iconLoader.join();
+		} catch(InterruptedException e) {
+			e.printStackTrace();
+		}
+
 		// Load button
 		JButton loadButton = new JButton(loadIcon);
 		loadButton.setMargin(new Insets(0, 0, 0, 0));
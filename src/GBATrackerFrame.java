@@ -1,23 +1,35 @@
 import java.awt.FlowLayout;
+import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.prefs.Preferences;
 import java.util.regex.Pattern;
 
 import javax.swing.BoxLayout;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
@@ -31,34 +43,61 @@ public class GBATrackerFrame extends JFrame {
 	private static final String APPLICATION_TITLE = "GBA Tracker";
 	private static final String FILE_EXTENSION = "gbt";
 	private static final String VERSION = "1.1.2";
+	private static final int DEFAULT_EXPORT_BUDGET = 2800;
+	private static final String EXPORT_BUDGET_KEY = "exportCycleBudget";
+	private static final String LIBRARY_ROOT_KEY = "libraryRoot";
+	private static final int DEFAULT_WAV_LOOPS = 2;
+	private static final int METRICS_INTERVAL = 500;
+	private static final String DEFAULT_MIXER = "System default";
+	private static final String STARTUP_REPORT_OPTION = "--startup-report";
+	private static final Integer[] Latencies = {
+		20, 40, 60, 80, 100, 150, 200, 250
+	};
 
 	/** Panels used by the application */
 	private GBATrackerControlPanel controlPanel;
 	private GBATrackerNoteEditorPanel noteEditorPanel;
 	private GBATrackerSimulationPanel simulationPanel;
+	private GBATrackerMinimapPanel minimapPanel;
 	private JLabel tooltipLabel = new JLabel(" ");
+	private JLabel metricsLabel = new JLabel(" ");
+	private Timer metricsTimer = null;
 	private File openFile = null;
+	private long openFileTime = 0;
+	private SongWatcher watcher = null;
 	private boolean modification = false;
+	private boolean finalQualityWav = true;
 	private String songTitle = "untitled";
 	private int usageHintNum = 0;
-	private static ArrayList<String> usageHints = new ArrayList<>();
+	private Preferences prefs = Preferences.userNodeForPackage(GBATrackerFrame.class);
+	private boolean painted = false;
+	private final long createdAt = StartupReport.now();
+	private static List<String> usageHints = null;
 
-	// Initialize the usage hints
-	static {
-		InputStream is = GBATrackerFrame.class.getResourceAsStream("res/UsageHints");
-		Scanner sc = new Scanner(is, "UTF-8");
-		while(sc.hasNext()) {
-			usageHints.add(sc.nextLine());
+	/**
+	 * Get the usage hints, reading them the first time
+	 * @return The hints
+	 */
+	private static synchronized List<String> getUsageHints() {
+		if(usageHints == null) {
+			usageHints = new ArrayList<>();
+			InputStream is = GBATrackerFrame.class.getResourceAsStream("res/UsageHints");
+			Scanner sc = new Scanner(is, "UTF-8");
+			while(sc.hasNext()) {
+				usageHints.add(sc.nextLine());
+			}
+			sc.close();
 		}
-		sc.close();
+		return usageHints;
 	}
 
 	/**
 	 * Display the next usage hint
 	 */
 	public void displayNextUsageHint() {
-		setTooltipText(usageHints.get(usageHintNum));
-		if(++usageHintNum == usageHints.size()) {
+		List<String> hints = getUsageHints();
+		setTooltipText(hints.get(usageHintNum));
+		if(++usageHintNum == hints.size()) {
 			usageHintNum = 0;
 		}
 	}
@@ -80,51 +119,253 @@ public class GBATrackerFrame extends JFrame {
 	}
 
 	/**
-	 * Load a song file
+	 * Ask before discarding unsaved changes
+	 * @return True if there are no changes, or the user chose to discard them
 	 */
-	public void loadFile() {
-
-		// Save warning if modified
+	private boolean confirmDiscard() {
 		if(modification) {
 			if(JOptionPane.showConfirmDialog(this, "You have unsaved changes.\nOpen another file anyway?",
 					"Are you sure?", JOptionPane.WARNING_MESSAGE) == JOptionPane.OK_CANCEL_OPTION) {
-				return;
+				return false;
 			}
 		}
+		return true;
+	}
+
+	/**
+	 * Load a song file
+	 */
+	public void loadFile() {
+
+		// Save warning if modified
+		if(!confirmDiscard()) {
+			return;
+		}
 
 		// Select a file
-		File oldFile = openFile;
 		JFileChooser chooser = new JFileChooser();
 		FileNameExtensionFilter filter = new FileNameExtensionFilter(
 				"GBA Tracker files", FILE_EXTENSION);
 		chooser.setFileFilter(filter);
 		int returnVal = chooser.showOpenDialog(this);
 		if(returnVal == JFileChooser.APPROVE_OPTION) {
-			openFile = chooser.getSelectedFile();
+			openSong(chooser.getSelectedFile());
+		}
+	}
 
-			// Send the CSV data to the editor panel and simulation panel
-			Scanner sc = null;
+	/**
+	 * Open a song from the library
+	 * @param file The song file
+	 */
+	public void loadLibraryFile(File file) {
+		if(confirmDiscard()) {
+			openSong(file);
+		}
+	}
+
+	/**
+	 * Send the song in a file to the editor panel and simulation panel
+	 * @param file The song file
+	 */
+	private void openSong(File file) {
+		File oldFile = openFile;
+		openFile = file;
+		try {
+			Song song = Song.load(openFile);
+			noteEditorPanel.updateFromSong(song);
+			simulationPanel.setSong(song);
+			simulationPanel.setLoopingEnabled(noteEditorPanel.getLooping());
+			modification = false;
+			songTitle = noteEditorPanel.getTitle();
+			setTitle(songTitle + " - " + APPLICATION_TITLE);
+			watchOpenFile();
+		} catch(FileNotFoundException e) {
+			JOptionPane.showMessageDialog(this, "File not found:\n" + openFile.getName(), "Unable to open file", JOptionPane.ERROR_MESSAGE);
+			openFile = oldFile;
+		} catch(Exception e) {
+			e.printStackTrace();
+			JOptionPane.showMessageDialog(this, "Corrupted file", "Unable to parse file:\n" + openFile, JOptionPane.ERROR_MESSAGE);
+			openFile = oldFile;
+		}
+	}
+
+	/**
+	 * Watch the open file for changes made by other programs
+	 */
+	private void watchOpenFile() {
+		openFileTime = openFile == null ? 0 : openFile.lastModified();
+		if(watcher == null) {
 			try {
-				sc = new Scanner(openFile);
-				noteEditorPanel.updateFromCSV(sc.nextLine());
-				simulationPanel.populateFromString(sc.nextLine());
-				simulationPanel.setLoopingEnabled(noteEditorPanel.getLooping());
+				watcher = new SongWatcher(new Runnable() {
+					@Override
+					public void run() {
+						reloadFile();
+					}
+				});
+			} catch(IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+		watcher.watch(openFile);
+	}
+
+	/**
+	 * Bring in changes made to the open file by another program. The file is
+	 * read in the background, reusing the rendered Notes of the current song,
+	 * then only the notes that changed are replaced, so playback goes on.
+	 */
+	public void reloadFile() {
+		final File file = openFile;
+		if(file == null || !file.exists() || file.lastModified() == openFileTime) {
+			return;
+		}
+		openFileTime = file.lastModified();
+		final List<Map<String, Note>> reuse = simulationPanel.getSong().getNoteSounds();
+		new SwingWorker<Song, Void>() {
+			@Override
+			protected Song doInBackground() throws Exception {
+				return Song.load(file, reuse);
+			}
+			@Override
+			protected void done() {
+				if(file != openFile) {
+					return;
+				}
+				Song song;
+				try {
+					song = get();
+				} catch(InterruptedException | ExecutionException e) {
+					// The file may be half written, so wait for the next change
+					e.printStackTrace();
+					setTooltipText("Unable to reload " + file.getName());
+					return;
+				}
+				if(modification && JOptionPane.showConfirmDialog(GBATrackerFrame.this, file.getName()
+						+ " was changed by another program.\nReload it and lose your unsaved changes?",
+						"Reload file", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE) != JOptionPane.YES_OPTION) {
+					return;
+				}
+				// The tempo and looping are set first, so playback carries on with them
+				if(!song.title.equals(noteEditorPanel.getTitle()) || !song.bpm.equals(noteEditorPanel.getBPM())
+						|| song.looping != noteEditorPanel.getLooping()) {
+					noteEditorPanel.updateFromSong(song);
+					simulationPanel.setLoopingEnabled(noteEditorPanel.getLooping());
+				}
+				int changes = simulationPanel.updateSong(song);
 				modification = false;
 				songTitle = noteEditorPanel.getTitle();
 				setTitle(songTitle + " - " + APPLICATION_TITLE);
-			} catch(FileNotFoundException e) {
-				JOptionPane.showMessageDialog(this, "File not found:\n" + openFile.getName(), "Unable to open file", JOptionPane.ERROR_MESSAGE);
-				openFile = oldFile;
-			} catch(Exception e) {
-				e.printStackTrace();
-				JOptionPane.showMessageDialog(this, "Corrupted file", "Unable to parse file:\n" + openFile, JOptionPane.ERROR_MESSAGE);
-				openFile = oldFile;
-			} finally {
-				if(sc != null) {
-					sc.close();
+				if(changes > 0) {
+					setTooltipText(String.format("Reloaded %s: %d notes changed", file.getName(), changes));
+				}
+			}
+		}.execute();
+	}
+
+	/**
+	 * Show the song library, starting in the folder it was last opened in
+	 */
+	public void showLibrary() {
+		String root = prefs.get(LIBRARY_ROOT_KEY, System.getProperty("user.dir"));
+		GBATrackerLibraryDialog dialog = new GBATrackerLibraryDialog(this, new File(root));
+		dialog.setVisible(true);
+	}
+
+	/**
+	 * Remember the folder of the song library
+	 * @param root The folder
+	 */
+	public void setLibraryRoot(File root) {
+		prefs.put(LIBRARY_ROOT_KEY, root.getPath());
+	}
+
+	/**
+	 * Import a MIDI file as a new song, letting the user choose the track each channel plays
+	 */
+	public void importMidi() {
+
+		// Save warning if modified
+		if(!confirmDiscard()) {
+			return;
+		}
+
+		// Select a file
+		JFileChooser chooser = new JFileChooser();
+		chooser.setFileFilter(new FileNameExtensionFilter("MIDI files", "mid", "midi"));
+		if(chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		File file = chooser.getSelectedFile();
+		MidiImporter importer;
+		try {
+			importer = new MidiImporter(file);
+		} catch(Exception e) {
+			e.printStackTrace();
+			JOptionPane.showMessageDialog(this, "Unable to read MIDI file:\n" + file.getName(), "Unable to import file", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+
+		// Choose the tracks, defaulting to the first melodic tracks and the first drum track
+		JPanel panel = new JPanel();
+		panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+		String[] channelNames = {"Channel 1:", "Channel 2:", "Noise:"};
+		List<JComboBox<Object>> trackComboBoxes = new ArrayList<>();
+		int melodic = 0;
+		boolean drums = false;
+		for(int i = 0; i < channelNames.length; ++i) {
+			JComboBox<Object> comboBox = new JComboBox<>();
+			comboBox.addItem("None");
+			for(MidiImporter.TrackInfo track : importer.getTracks()) {
+				if(track.noteCount > 0) {
+					comboBox.addItem(track);
 				}
 			}
+			trackComboBoxes.add(comboBox);
+			JPanel trackPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+			trackPanel.add(new JLabel(channelNames[i]));
+			trackPanel.add(comboBox);
+			panel.add(trackPanel);
+		}
+		for(MidiImporter.TrackInfo track : importer.getTracks()) {
+			if(track.noteCount == 0) {
+				continue;
+			} else if(track.isDrums && !drums) {
+				trackComboBoxes.get(2).setSelectedItem(track);
+				drums = true;
+			} else if(!track.isDrums && melodic < 2) {
+				trackComboBoxes.get(melodic++).setSelectedItem(track);
+			}
+		}
+		panel.add(new JLabel(String.format("Notes are quantized to 48ths at %d BPM.", importer.getBPM())));
+		if(JOptionPane.showConfirmDialog(this, panel, "Import MIDI", JOptionPane.OK_CANCEL_OPTION,
+				JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
+			return;
+		}
+
+		// Build the song, which is rendered when it is played
+		int[] channelTracks = new int[channelNames.length];
+		for(int i = 0; i < channelTracks.length; ++i) {
+			Object item = trackComboBoxes.get(i).getSelectedItem();
+			channelTracks[i] = item instanceof MidiImporter.TrackInfo ? ((MidiImporter.TrackInfo) item).index : -1;
 		}
+		String title = file.getName().replaceFirst("\\.[^.]*$", "");
+		Song song;
+		try {
+			song = importer.createSong(title, channelTracks);
+		} catch(Exception e) {
+			e.printStackTrace();
+			JOptionPane.showMessageDialog(this, "Corrupted MIDI file:\n" + file.getName(), "Unable to import file", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		noteEditorPanel.updateFromSong(song);
+		simulationPanel.setSong(song);
+		simulationPanel.setLoopingEnabled(noteEditorPanel.getLooping());
+		openFile = null;
+		watchOpenFile();
+		modification = false;
+		songTitle = noteEditorPanel.getTitle();
+		setModified();
 	}
 
 	/**
@@ -146,6 +387,7 @@ public class GBATrackerFrame extends JFrame {
 			pw.close();
 			modification = false;
 			setTitle(songTitle + " - " + APPLICATION_TITLE);
+			watchOpenFile();
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 			JOptionPane.showMessageDialog(this, "Unable to save file:\n" + e.getMessage(), "Error saving file", JOptionPane.ERROR_MESSAGE);
@@ -229,47 +471,224 @@ public class GBATrackerFrame extends JFrame {
 				}
 			}
 
-			// Read the templates
-			InputStream is = GBATrackerFrame.class.getResourceAsStream("res/ExportTemplateC");
-			Scanner sc = new Scanner(is, "UTF-8");
-			sc.useDelimiter("\\A");
-			String textC = sc.next();
-			sc.close();
-			is = GBATrackerFrame.class.getResourceAsStream("res/ExportTemplateH");
-			sc = new Scanner(is, "UTF-8");
-			sc.useDelimiter("\\A");
-			String textH = sc.next();
-			sc.close();
+			// Values of the template placeholders, with the note data written as the file is
+			SongStructure structure = simulationPanel.getStructure();
+			Map<String, ExportTemplate.Value> values = structure.getExportValues(songTitle,
+					openFile == null ? "(blank)" : openFile.getName(), noteEditorPanel.getBPM(), noteEditorPanel.getLooping());
+			values.put("APPTITLE", ExportTemplate.text(APPLICATION_TITLE));
+			values.put("DATE", ExportTemplate.text(new Date().toString()));
 
-			// Text substitution in the templates
-			textC = textC.replaceAll("\\$SONGTITLE", songTitle);
-			textC = textC.replaceAll("\\$FILENAME", openFile == null ? "(blank)" : openFile.getName());
-			textC = textC.replaceAll("\\$APPTITLE", APPLICATION_TITLE);
-			textC = textC.replaceAll("\\$DATE", new Date().toString());
-			textC = textC.replaceAll("\\$BPM", noteEditorPanel.getBPM());
-			textC = textC.replaceAll("\\$LENGTH", "" + simulationPanel.getDataLength());
-			textC = textC.replaceAll("\\$NOTEDATA", "" + simulationPanel.getNoteData());
-			textC = textC.replaceAll("\\$LOOP", "" + simulationPanel.getDataLoop());
-			textC = textC.replaceAll("\\$ALLOWLOOPING", noteEditorPanel.getLooping() ? "1" : "0");
-			textH = textH.replaceAll("\\$SONGTITLE", songTitle);
-			textH = textH.replaceAll("\\$FILENAME", openFile == null ? "(blank)" : openFile.getName());
-			textH = textH.replaceAll("\\$APPTITLE", APPLICATION_TITLE);
-			textH = textH.replaceAll("\\$DATE", new Date().toString());
+			// Estimate the cost of the exported player
+			int cycleBudget = getExportBudget();
+			ExportCostEstimator estimator = new ExportCostEstimator(structure, getBPM());
+			File outFileReport = new File(chooser.getSelectedFile(), songTitle + "_report.txt");
 
 			// Write output files
 			try {
 				PrintWriter pw = new PrintWriter(outFileC);
-				pw.write(textC);
+				ExportTemplate.get("res/ExportTemplateC").write(pw, values);
 				pw.close();
+				boolean error = pw.checkError();
 				pw = new PrintWriter(outFileH);
-				pw.write(textH);
+				ExportTemplate.get("res/ExportTemplateH").write(pw, values);
 				pw.close();
-			} catch (FileNotFoundException e) {
+				error |= pw.checkError();
+				pw = new PrintWriter(outFileReport);
+				pw.write(estimator.generateReport(songTitle, cycleBudget));
+				pw.close();
+				if(error || pw.checkError()) {
+					throw new IOException("Error writing to " + chooser.getSelectedFile());
+				}
+			} catch(IOException e) {
 				e.printStackTrace();
+				JOptionPane.showMessageDialog(this, "Unable to export song:\n" + e.getMessage(), "Error exporting song", JOptionPane.ERROR_MESSAGE);
+				return;
 			}
 
 			// Confirmation message
-			JOptionPane.showMessageDialog(this, "Exported:\n" + songTitle + ".c\n" + songTitle + ".h", "Export successful", JOptionPane.INFORMATION_MESSAGE);
+			JOptionPane.showMessageDialog(this, "Exported:\n" + songTitle + ".c\n" + songTitle + ".h\n" + outFileReport.getName(), "Export successful", JOptionPane.INFORMATION_MESSAGE);
+			if(estimator.exceedsBudget(cycleBudget)) {
+				JOptionPane.showMessageDialog(this, String.format("The player may use up to %d cycles per frame,\nwhich exceeds the budget of %d cycles.\nSee %s for details.",
+						estimator.getMaxCyclesPerFrame(), cycleBudget, outFileReport.getName()), "Export budget exceeded", JOptionPane.WARNING_MESSAGE);
+			}
+		}
+	}
+
+	/**
+	 * Mix the song offline into a WAV file
+	 */
+	public void exportWav() {
+
+		// Must have valid BPM
+		if(!validateBPM()) {
+			warningMessage("BPM is invalid; must be a positive number");
+			return;
+		}
+
+		// Number of times to play a looping song
+		int loops = 1;
+		if(noteEditorPanel.getLooping()) {
+			String input = JOptionPane.showInputDialog(this, "Number of times to play the song:", "" + DEFAULT_WAV_LOOPS);
+			if(input == null) {
+				return;
+			} else if(!Pattern.matches("[1-9]\\d{0,2}", input.trim())) {
+				warningMessage("Loop count is invalid; must be from 1 to 999");
+				return;
+			}
+			loops = Integer.parseInt(input.trim());
+		}
+
+		// Select a file
+		JFileChooser chooser = new JFileChooser();
+		chooser.setFileFilter(new FileNameExtensionFilter("WAV files", "wav"));
+		chooser.setSelectedFile(new File(songTitle + ".wav"));
+		if(chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		File file = chooser.getSelectedFile();
+		if(!file.getName().contains(".")) {
+			file = new File(file.getPath() + ".wav");
+		}
+		if(file.exists() && JOptionPane.showConfirmDialog(this, "File " + file.getName() + " already exists. Overwrite?", "Overwrite",
+				JOptionPane.OK_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE) != JOptionPane.OK_OPTION) {
+			return;
+		}
+
+		// Render and mix a copy of the song in the background, segments in parallel, so it can be edited meanwhile
+		final Song song = simulationPanel.getSong().copy();
+		final int bpm = getBPM();
+		final int passes = simulationPanel.isLoopingEnabled() ? loops : 1;
+		final boolean oversampled = finalQualityWav;
+		final File outFile = file;
+		setTooltipText("Mixing " + outFile.getName() + "...");
+		new SwingWorker<String, Void>() {
+			@Override
+			protected String doInBackground() throws Exception {
+				long start = System.nanoTime();
+				SongRenderer renderer = new SongRenderer(song, bpm, passes, oversampled);
+				renderer.writeWav(outFile, true);
+				return String.format("Wrote %s: %.1f s of audio in %d ms", outFile.getName(),
+						(double) renderer.getLength() / renderer.getSampleRate(), (System.nanoTime() - start) / 1000000);
+			}
+			@Override
+			protected void done() {
+				try {
+					setTooltipText(get());
+				} catch(InterruptedException | ExecutionException e) {
+					Throwable cause = e.getCause() != null ? e.getCause() : e;
+					cause.printStackTrace();
+					setTooltipText(" ");
+					JOptionPane.showMessageDialog(GBATrackerFrame.this, "Unable to write file:\n" + cause.getMessage(),
+							"Error exporting file", JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		}.execute();
+	}
+
+	/**
+	 * Choose how notes are rendered for WAV exports for the rest of the
+	 * session. Final quality renders each note oversampled and filters out the
+	 * aliasing, which takes longer; otherwise the notes are mixed as the editor
+	 * plays them.
+	 * @param finalQuality True for final quality
+	 */
+	public void setFinalQualityWav(boolean finalQuality) {
+		finalQualityWav = finalQuality;
+	}
+
+	/**
+	 * Get the cycle budget per frame for the exported player
+	 * @return The budget, in CPU cycles
+	 */
+	public int getExportBudget() {
+		return prefs.getInt(EXPORT_BUDGET_KEY, DEFAULT_EXPORT_BUDGET);
+	}
+
+	/**
+	 * Ask the user for the cycle budget per frame for the exported player
+	 */
+	public void setExportBudget() {
+		String input = JOptionPane.showInputDialog(this, "CPU cycles per frame the music player may use\n(" +
+				ExportCostEstimator.CYCLES_PER_FRAME + " cycles in one frame):", "" + getExportBudget());
+		if(input != null) {
+			if(Pattern.matches("[1-9]\\d*", input.trim())) {
+				prefs.putInt(EXPORT_BUDGET_KEY, Integer.parseInt(input.trim()));
+			} else {
+				warningMessage("Budget is invalid; must be a positive number");
+			}
+		}
+	}
+
+	/**
+	 * Let the user choose the audio output device and latency
+	 */
+	public void audioSettings() {
+
+		// Output device
+		JPanel panel = new JPanel();
+		panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+		JPanel mixerPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+		mixerPanel.add(new JLabel("Device:"));
+		final JComboBox<String> mixerComboBox = new JComboBox<>();
+		mixerComboBox.addItem(DEFAULT_MIXER);
+		for(String name : Channel.getMixerNames()) {
+			mixerComboBox.addItem(name);
+		}
+		if(Channel.getMixerName() != null) {
+			mixerComboBox.setSelectedItem(Channel.getMixerName());
+		}
+		mixerPanel.add(mixerComboBox);
+		panel.add(mixerPanel);
+
+		// Buffer size
+		JPanel latencyPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+		latencyPanel.add(new JLabel("Buffer:"));
+		final JComboBox<Integer> latencyComboBox = new JComboBox<>(Latencies);
+		latencyComboBox.setSelectedItem(Channel.getPreferredLatency());
+		latencyPanel.add(latencyComboBox);
+		final JLabel latencyLabel = new JLabel();
+		ActionListener latencyListener = new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				int ms = (Integer) latencyComboBox.getSelectedItem();
+				latencyLabel.setText(String.format("%d ms latency (%d bytes)", ms, Channel.latencyToBufferSize(ms)));
+			}
+		};
+		latencyComboBox.addActionListener(latencyListener);
+		latencyListener.actionPerformed(null);
+		latencyPanel.add(latencyLabel);
+		panel.add(latencyPanel);
+		panel.add(new JLabel(String.format("The buffer grows automatically up to %d ms if the audio underruns.", Channel.MAX_LATENCY_MS)));
+
+		// Sample rate and depth
+		JPanel formatPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+		formatPanel.add(new JLabel("Format:"));
+		final JComboBox<Integer> rateComboBox = new JComboBox<>();
+		for(int rate : Channel.SampleRates) {
+			rateComboBox.addItem(rate);
+		}
+		rateComboBox.setSelectedItem(Channel.getSampleRate());
+		formatPanel.add(rateComboBox);
+		formatPanel.add(new JLabel("Hz"));
+		final JComboBox<Integer> bitsComboBox = new JComboBox<>();
+		for(int bits : Channel.SampleBits) {
+			bitsComboBox.addItem(bits);
+		}
+		bitsComboBox.setSelectedItem(Channel.getSampleBits());
+		formatPanel.add(bitsComboBox);
+		formatPanel.add(new JLabel("bits"));
+		panel.add(formatPanel);
+		panel.add(new JLabel("Lower rates render notes faster and in less memory; 16-bit WAV exports mix all channels without clipping."));
+
+		// Apply the settings
+		if(JOptionPane.showConfirmDialog(this, panel, "Audio Settings", JOptionPane.OK_CANCEL_OPTION,
+				JOptionPane.PLAIN_MESSAGE) == JOptionPane.OK_OPTION) {
+			String mixer = (String) mixerComboBox.getSelectedItem();
+			Channel.setOutput(DEFAULT_MIXER.equals(mixer) ? null : mixer, (Integer) latencyComboBox.getSelectedItem(),
+					(Integer) rateComboBox.getSelectedItem(), (Integer) bitsComboBox.getSelectedItem());
+			setTooltipText(String.format("Audio latency: %d ms, %d Hz %d-bit", Channel.getPreferredLatency(),
+					Channel.getSampleRate(), Channel.getSampleBits()));
+			simulationPanel.repaint();
 		}
 	}
 
@@ -368,6 +787,44 @@ public class GBATrackerFrame extends JFrame {
 		tooltipLabel.setText(text);
 	}
 
+	/**
+	 * Show or hide the runtime metrics in the status bar
+	 * @param visible If true, show the metrics
+	 */
+	public void setMetricsVisible(boolean visible) {
+		if(visible && metricsTimer == null) {
+			metricsTimer = new Timer(METRICS_INTERVAL, new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					metricsLabel.setText(TrackerMetrics.get().getSummary());
+				}
+			});
+			metricsLabel.setText(TrackerMetrics.get().getSummary());
+			metricsTimer.start();
+		} else if(!visible && metricsTimer != null) {
+			metricsTimer.stop();
+			metricsTimer = null;
+		}
+		metricsLabel.setVisible(visible);
+	}
+
+	/**
+	 * Redraw the song overview after the editor has moved or changed
+	 */
+	public void updateMinimap() {
+		if(minimapPanel != null) {
+			minimapPanel.repaint();
+		}
+	}
+
+	/**
+	 * Show or hide the rendered waveforms in the editor
+	 * @param visible If true, show the waveforms
+	 */
+	public void setWaveformsVisible(boolean visible) {
+		simulationPanel.setWaveformsVisible(visible);
+	}
+
 	/**
 	 * Set a new quantization level for the editor
 	 * @param quantization The new quantization
@@ -378,11 +835,11 @@ public class GBATrackerFrame extends JFrame {
 
 	/**
 	 * Retrieve a Note object from the UI
-	 * @param isSqaure Whether this is from a square or noise channel
+	 * @param channel The channel the Note is for
 	 * @return The Note
 	 */
-	public Note getNoteFromUI(boolean isSqaure) {
-		return noteEditorPanel.getNoteFromUI(isSqaure);
+	public Note getNoteFromUI(int channel) {
+		return noteEditorPanel.getNoteFromUI(channel);
 	}
 
 	/**
@@ -426,6 +883,76 @@ public class GBATrackerFrame extends JFrame {
 		return Integer.parseInt(noteEditorPanel.getBPM());
 	}
 
+	/**
+	 * Select every note in the editor
+	 */
+	public void selectAll() {
+		simulationPanel.selectAll();
+	}
+
+	/**
+	 * Raise or lower the pitch of the selected notes
+	 * @param semitones The number of semitones to move, negative to lower
+	 */
+	public void transposeSelection(int semitones) {
+		if(simulationPanel.transposeSelection(semitones)) {
+			setModified();
+		}
+	}
+
+	/**
+	 * Give the selected notes the volume, envelope and duty cycle set up in the editor
+	 */
+	public void applySettingsToSelection() {
+		if(simulationPanel.applySettingsToSelection()) {
+			setModified();
+		}
+	}
+
+	/**
+	 * Move the selected notes by the quantization
+	 * @param direction 1 to move later, -1 to move earlier
+	 */
+	public void shiftSelection(int direction) {
+		if(simulationPanel.shiftSelection(direction)) {
+			setModified();
+		}
+	}
+
+	/**
+	 * Copy the selected notes
+	 */
+	public void copySelection() {
+		simulationPanel.copySelection();
+	}
+
+	/**
+	 * Copy the selected notes, then remove them
+	 */
+	public void cutSelection() {
+		if(simulationPanel.cutSelection()) {
+			setModified();
+		}
+	}
+
+	/**
+	 * Paste the copied notes at the play marker
+	 */
+	public void pasteSelection() {
+		if(simulationPanel.pasteSelection()) {
+			setModified();
+		}
+	}
+
+	/**
+	 * Remove the selected notes
+	 */
+	public void deleteSelection() {
+		if(simulationPanel.deleteSelection()) {
+			setModified();
+		}
+	}
+
 	/**
 	 * Clear all the notes in the simulatoin panel
 	 */
@@ -462,6 +989,37 @@ public class GBATrackerFrame extends JFrame {
 		noteEditorPanel.updateAnimation(animPercentage);
 	}
 
+	/**
+	 * Once the window has first been painted, load what it doesn't need to
+	 * show in the background
+	 */
+	private void contentPainted() {
+		if(!painted) {
+			painted = true;
+			StartupReport.phase("Window to first paint", createdAt);
+			loadInBackground();
+		}
+	}
+
+	/**
+	 * Read the animation and usage hints, and expose the runtime metrics, in
+	 * the background. The audio lines are opened when they first play.
+	 */
+	private void loadInBackground() {
+		noteEditorPanel.loadAnimation();
+		new Thread("Startup") {
+			@Override
+			public void run() {
+				long start = StartupReport.now();
+				getUsageHints();
+				StartupReport.phase("Usage hints", start);
+				start = StartupReport.now();
+				TrackerMetrics.register();
+				StartupReport.phase("Metrics MBean", start);
+			}
+		}.start();
+	}
+
 	/**
 	 * Create an instance of the main program's window
 	 */
@@ -476,40 +1034,65 @@ public class GBATrackerFrame extends JFrame {
 				exitConfirmation();
 			}
 		});
-		JPanel content = new JPanel();
+		JPanel content = new JPanel() {
+			@Override
+			public void paint(Graphics g) {
+				super.paint(g);
+				contentPainted();
+			}
+		};
 		content.setLayout(new BoxLayout(content, BoxLayout.Y_AXIS));
 
 		// Add menu bar
+		long start = StartupReport.now();
 		setJMenuBar(new GBATrackerMenuBar(this));
+		StartupReport.phase("Menu bar", start);
 
-		// Set up the panels
-		controlPanel = new GBATrackerControlPanel(this);
+		// Set up the panels, with the control panel last as its icons are read in the background
+		start = StartupReport.now();
 		noteEditorPanel = new GBATrackerNoteEditorPanel(this);
+		StartupReport.phase("Editor panel", start);
+		start = StartupReport.now();
 		simulationPanel = new GBATrackerSimulationPanel(this);
+		minimapPanel = new GBATrackerMinimapPanel(simulationPanel);
+		StartupReport.phase("Simulation panel", start);
+		start = StartupReport.now();
+		controlPanel = new GBATrackerControlPanel(this);
+		StartupReport.phase("Control panel", start);
 		JPanel messagePanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
 		messagePanel.add(tooltipLabel);
+		metricsLabel.setVisible(false);
+		JPanel statusPanel = new JPanel();
+		statusPanel.setLayout(new BoxLayout(statusPanel, BoxLayout.Y_AXIS));
+		statusPanel.add(messagePanel);
+		JPanel metricsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		metricsPanel.add(metricsLabel);
+		statusPanel.add(metricsPanel);
 		content.add(controlPanel);
 		content.add(noteEditorPanel);
 		content.add(simulationPanel);
-		content.add(messagePanel);
+		content.add(minimapPanel);
+		content.add(statusPanel);
 
 		// Generate noise buffer for Notes
 		Note.generateNoiseWaveform();
 
 		// Finalize JFrame properties
+		start = StartupReport.now();
 		setContentPane(content);
 		pack();
 		setVisible(true);
 		setLocationRelativeTo(null);
-		
-		
+		StartupReport.phase("Show window", start);
 	}
 
 	/**
 	 * Create an instance of the program's main window.
-	 * @param args Unused
+	 * @param args --startup-report to print the time taken by each phase of startup
 	 */
 	public static void main(String[] args) {
+		StartupReport.begin(Arrays.asList(args).contains(STARTUP_REPORT_OPTION));
+		GBATrackerControlPanel.preloadIcons();
 		new GBATrackerFrame();
 	}
 }
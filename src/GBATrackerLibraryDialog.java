@@ -0,0 +1,258 @@
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.RowFilter;
+import javax.swing.SwingWorker;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableRowSorter;
+
+/**
+ * A window listing the songs in a folder and its subfolders, with their
+ * properties read from the library index, so that large collections can be
+ * searched without opening every file
+ * @author Andrew Wilder
+ */
+@SuppressWarnings("serial")
+public class GBATrackerLibraryDialog extends JDialog {
+
+	/** Definitions */
+	private static final String[] Columns = {
+		"Title", "File", "BPM", "Length", "Notes", "Looping"
+	};
+
+	/** The main window, which opens the chosen song */
+	private final GBATrackerFrame controller;
+
+	/** The folder being scanned, and the library being shown */
+	private File root;
+	private SongLibrary library;
+	private List<SongLibrary.Entry> entries = new ArrayList<>();
+
+	/** UI components */
+	private final JLabel folderLabel = new JLabel();
+	private final JLabel statusLabel = new JLabel(" ");
+	private final JTextField searchField = new JTextField(20);
+	private final JButton browseButton = new JButton("Browse...");
+	private final JButton rescanButton = new JButton("Rescan");
+	private final LibraryTableModel model = new LibraryTableModel();
+	private final JTable table = new JTable(model);
+	private final TableRowSorter<LibraryTableModel> sorter = new TableRowSorter<>(model);
+
+	/**
+	 * The table of songs
+	 */
+	private class LibraryTableModel extends AbstractTableModel {
+
+		@Override
+		public int getRowCount() {
+			return entries.size();
+		}
+
+		@Override
+		public int getColumnCount() {
+			return Columns.length;
+		}
+
+		@Override
+		public String getColumnName(int column) {
+			return Columns[column];
+		}
+
+		@Override
+		public Class<?> getColumnClass(int column) {
+			switch(column) {
+			case 2:
+			case 4:
+				return Integer.class;
+			case 5:
+				return Boolean.class;
+			default:
+				return String.class;
+			}
+		}
+
+		@Override
+		public Object getValueAt(int row, int column) {
+			SongLibrary.Entry entry = entries.get(row);
+			switch(column) {
+			case 0:
+				return entry.title;
+			case 1:
+				return library.getRoot().toPath().relativize(new File(entry.path).toPath()).toString();
+			case 2:
+				return entry.bpm;
+			case 3:
+				int seconds = (int) Math.round(entry.getSeconds());
+				return String.format("%d:%02d", seconds / 60, seconds % 60);
+			case 4:
+				return entry.noteCount;
+			default:
+				return entry.looping;
+			}
+		}
+	}
+
+	/**
+	 * Create the library window
+	 * @param controller The main window
+	 * @param folder The folder to show
+	 */
+	public GBATrackerLibraryDialog(final GBATrackerFrame controller, File folder) {
+		super(controller, "Song Library", true);
+		this.controller = controller;
+
+		// Folder and search
+		JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+		topPanel.add(new JLabel("Folder:"));
+		topPanel.add(folderLabel);
+		browseButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				JFileChooser chooser = new JFileChooser(root);
+				chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+				if(chooser.showOpenDialog(GBATrackerLibraryDialog.this) == JFileChooser.APPROVE_OPTION) {
+					controller.setLibraryRoot(chooser.getSelectedFile());
+					scan(chooser.getSelectedFile());
+				}
+			}
+		});
+		topPanel.add(browseButton);
+		rescanButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				scan(root);
+			}
+		});
+		topPanel.add(rescanButton);
+		topPanel.add(new JLabel("Search:"));
+		searchField.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				updateFilter();
+			}
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				updateFilter();
+			}
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				updateFilter();
+			}
+		});
+		topPanel.add(searchField);
+		add(topPanel, BorderLayout.NORTH);
+
+		// Songs
+		table.setRowSorter(sorter);
+		table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		table.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if(e.getClickCount() == 2) {
+					openSelected();
+				}
+			}
+		});
+		add(new JScrollPane(table), BorderLayout.CENTER);
+
+		// Status and open
+		JPanel bottomPanel = new JPanel(new BorderLayout());
+		bottomPanel.add(statusLabel, BorderLayout.CENTER);
+		JButton openButton = new JButton("Open");
+		openButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				openSelected();
+			}
+		});
+		bottomPanel.add(openButton, BorderLayout.EAST);
+		add(bottomPanel, BorderLayout.SOUTH);
+
+		setSize(760, 480);
+		setLocationRelativeTo(controller);
+		scan(folder);
+	}
+
+	/**
+	 * Index a folder in the background, then show its songs
+	 * @param folder The folder
+	 */
+	private void scan(File folder) {
+		root = folder;
+		final SongLibrary newLibrary = new SongLibrary(folder);
+		final long start = System.nanoTime();
+		folderLabel.setText(newLibrary.getRoot().getPath());
+		statusLabel.setText("Scanning...");
+		browseButton.setEnabled(false);
+		rescanButton.setEnabled(false);
+		new SwingWorker<Void, Void>() {
+			@Override
+			protected Void doInBackground() throws Exception {
+				newLibrary.scan();
+				return null;
+			}
+			@Override
+			protected void done() {
+				browseButton.setEnabled(true);
+				rescanButton.setEnabled(true);
+				try {
+					get();
+					library = newLibrary;
+					entries = library.getEntries();
+					model.fireTableDataChanged();
+					statusLabel.setText(String.format("%d songs, %d read, %d ms", entries.size(), library.getReadCount(),
+							(System.nanoTime() - start) / 1000000));
+				} catch(InterruptedException | ExecutionException e) {
+					e.printStackTrace();
+					statusLabel.setText("Unable to read folder");
+				}
+			}
+		}.execute();
+	}
+
+	/**
+	 * Show only the songs whose title or file name contains the search text
+	 */
+	private void updateFilter() {
+		String text = searchField.getText().trim();
+		if(text.isEmpty()) {
+			sorter.setRowFilter(null);
+		} else {
+			sorter.setRowFilter(RowFilter.<LibraryTableModel, Integer>regexFilter("(?i)" + Pattern.quote(text), 0, 1));
+		}
+	}
+
+	/**
+	 * Open the selected song in the main window
+	 */
+	private void openSelected() {
+		int row = table.getSelectedRow();
+		if(row >= 0) {
+			File file = new File(entries.get(table.convertRowIndexToModel(row)).path);
+			dispose();
+			controller.loadLibraryFile(file);
+		}
+	}
+}
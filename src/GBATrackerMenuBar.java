@@ -2,6 +2,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
@@ -35,6 +36,25 @@ public class GBATrackerMenuBar extends JMenuBar {
 		});
 		fileMenu.add(openFileMenuItem);
 
+		JMenuItem libraryFileMenuItem = new JMenuItem("Library", KeyEvent.VK_L);
+		libraryFileMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_L, ActionEvent.CTRL_MASK));
+		libraryFileMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.showLibrary();
+			}
+		});
+		fileMenu.add(libraryFileMenuItem);
+
+		JMenuItem importFileMenuItem = new JMenuItem("Import MIDI", KeyEvent.VK_M);
+		importFileMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.importMidi();
+			}
+		});
+		fileMenu.add(importFileMenuItem);
+
 		JMenuItem saveFileMenuItem = new JMenuItem("Save", KeyEvent.VK_S);
 		saveFileMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_S, ActionEvent.CTRL_MASK));
 		saveFileMenuItem.addActionListener(new ActionListener() {
@@ -65,6 +85,34 @@ public class GBATrackerMenuBar extends JMenuBar {
 		});
 		fileMenu.add(exportFileMenuItem);
 
+		JMenuItem exportWavFileMenuItem = new JMenuItem("Export WAV", KeyEvent.VK_W);
+		exportWavFileMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.exportWav();
+			}
+		});
+		fileMenu.add(exportWavFileMenuItem);
+
+		final JCheckBoxMenuItem finalQualityFileMenuItem = new JCheckBoxMenuItem("Final Quality WAV", true);
+		finalQualityFileMenuItem.setMnemonic(KeyEvent.VK_F);
+		finalQualityFileMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.setFinalQualityWav(finalQualityFileMenuItem.isSelected());
+			}
+		});
+		fileMenu.add(finalQualityFileMenuItem);
+
+		JMenuItem exportBudgetFileMenuItem = new JMenuItem("Export Budget", KeyEvent.VK_B);
+		exportBudgetFileMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.setExportBudget();
+			}
+		});
+		fileMenu.add(exportBudgetFileMenuItem);
+
 		JMenuItem quitFileMenuItem = new JMenuItem("Quit", KeyEvent.VK_Q);
 		quitFileMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Q, ActionEvent.CTRL_MASK));
 		quitFileMenuItem.addActionListener(new ActionListener() {
@@ -120,6 +168,16 @@ public class GBATrackerMenuBar extends JMenuBar {
 		});
 		editMenu.add(moveRightEditMenuItem);
 
+		final JCheckBoxMenuItem waveformsEditMenuItem = new JCheckBoxMenuItem("Show Waveforms", false);
+		waveformsEditMenuItem.setMnemonic(KeyEvent.VK_W);
+		waveformsEditMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.setWaveformsVisible(waveformsEditMenuItem.isSelected());
+			}
+		});
+		editMenu.add(waveformsEditMenuItem);
+
 		JMenuItem clearEditMenuItem = new JMenuItem("Clear All", KeyEvent.VK_C);
 		clearEditMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_C, ActionEvent.CTRL_MASK));
 		clearEditMenuItem.addActionListener(new ActionListener() {
@@ -130,6 +188,130 @@ public class GBATrackerMenuBar extends JMenuBar {
 		});
 		editMenu.add(clearEditMenuItem);
 
+		// Create select menu
+		JMenu selectMenu = new JMenu("Select");
+		selectMenu.setMnemonic(KeyEvent.VK_S);
+		add(selectMenu);
+
+		JMenuItem selectAllSelectMenuItem = new JMenuItem("Select All", KeyEvent.VK_A);
+		selectAllSelectMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_A, ActionEvent.CTRL_MASK));
+		selectAllSelectMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.selectAll();
+			}
+		});
+		selectMenu.add(selectAllSelectMenuItem);
+
+		JMenuItem copySelectMenuItem = new JMenuItem("Copy", KeyEvent.VK_C);
+		copySelectMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_C, ActionEvent.CTRL_MASK | ActionEvent.SHIFT_MASK));
+		copySelectMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.copySelection();
+			}
+		});
+		selectMenu.add(copySelectMenuItem);
+
+		JMenuItem cutSelectMenuItem = new JMenuItem("Cut", KeyEvent.VK_T);
+		cutSelectMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_X, ActionEvent.CTRL_MASK));
+		cutSelectMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.cutSelection();
+			}
+		});
+		selectMenu.add(cutSelectMenuItem);
+
+		JMenuItem pasteSelectMenuItem = new JMenuItem("Paste", KeyEvent.VK_P);
+		pasteSelectMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_V, ActionEvent.CTRL_MASK));
+		pasteSelectMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.pasteSelection();
+			}
+		});
+		selectMenu.add(pasteSelectMenuItem);
+
+		JMenuItem deleteSelectMenuItem = new JMenuItem("Delete", KeyEvent.VK_D);
+		deleteSelectMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0));
+		deleteSelectMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.deleteSelection();
+			}
+		});
+		selectMenu.add(deleteSelectMenuItem);
+
+		JMenuItem transposeUpSelectMenuItem = new JMenuItem("Transpose Up", KeyEvent.VK_U);
+		transposeUpSelectMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_UP, ActionEvent.CTRL_MASK));
+		transposeUpSelectMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.transposeSelection(1);
+			}
+		});
+		selectMenu.add(transposeUpSelectMenuItem);
+
+		JMenuItem transposeDownSelectMenuItem = new JMenuItem("Transpose Down", KeyEvent.VK_N);
+		transposeDownSelectMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, ActionEvent.CTRL_MASK));
+		transposeDownSelectMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.transposeSelection(-1);
+			}
+		});
+		selectMenu.add(transposeDownSelectMenuItem);
+
+		JMenuItem octaveUpSelectMenuItem = new JMenuItem("Octave Up", KeyEvent.VK_O);
+		octaveUpSelectMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_UP, ActionEvent.CTRL_MASK | ActionEvent.SHIFT_MASK));
+		octaveUpSelectMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.transposeSelection(12);
+			}
+		});
+		selectMenu.add(octaveUpSelectMenuItem);
+
+		JMenuItem octaveDownSelectMenuItem = new JMenuItem("Octave Down", KeyEvent.VK_W);
+		octaveDownSelectMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, ActionEvent.CTRL_MASK | ActionEvent.SHIFT_MASK));
+		octaveDownSelectMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.transposeSelection(-12);
+			}
+		});
+		selectMenu.add(octaveDownSelectMenuItem);
+
+		JMenuItem shiftLeftSelectMenuItem = new JMenuItem("Shift Left", KeyEvent.VK_L);
+		shiftLeftSelectMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_LEFT, ActionEvent.CTRL_MASK));
+		shiftLeftSelectMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.shiftSelection(-1);
+			}
+		});
+		selectMenu.add(shiftLeftSelectMenuItem);
+
+		JMenuItem shiftRightSelectMenuItem = new JMenuItem("Shift Right", KeyEvent.VK_R);
+		shiftRightSelectMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT, ActionEvent.CTRL_MASK));
+		shiftRightSelectMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.shiftSelection(1);
+			}
+		});
+		selectMenu.add(shiftRightSelectMenuItem);
+
+		JMenuItem applySelectMenuItem = new JMenuItem("Apply Sound Settings", KeyEvent.VK_S);
+		applySelectMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.applySettingsToSelection();
+			}
+		});
+		selectMenu.add(applySelectMenuItem);
+
 		// Create play menu
 		JMenu playMenu = new JMenu("Play");
 		playMenu.setMnemonic(KeyEvent.VK_P);
@@ -165,6 +347,15 @@ public class GBATrackerMenuBar extends JMenuBar {
 		});
 		playMenu.add(stopPlayMenuItem);
 
+		JMenuItem audioPlayMenuItem = new JMenuItem("Audio Settings", KeyEvent.VK_A);
+		audioPlayMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.audioSettings();
+			}
+		});
+		playMenu.add(audioPlayMenuItem);
+
 		// Create info menu
 		JMenu infoMenu = new JMenu("Info");
 		infoMenu.setMnemonic(KeyEvent.VK_I);
@@ -180,6 +371,16 @@ public class GBATrackerMenuBar extends JMenuBar {
 		});
 		infoMenu.add(hintInfoMenuItem);
 
+		final JCheckBoxMenuItem metricsInfoMenuItem = new JCheckBoxMenuItem("Show Metrics", false);
+		metricsInfoMenuItem.setMnemonic(KeyEvent.VK_M);
+		metricsInfoMenuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				controller.setMetricsVisible(metricsInfoMenuItem.isSelected());
+			}
+		});
+		infoMenu.add(metricsInfoMenuItem);
+
 		JMenuItem aboutInfoMenuItem = new JMenuItem("About", KeyEvent.VK_A);
 		aboutInfoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_I, ActionEvent.CTRL_MASK));
 		aboutInfoMenuItem.addActionListener(new ActionListener() {
@@ -0,0 +1,110 @@
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+import javax.swing.JComponent;
+
+/**
+ * An overview of the whole song under the editor, showing how many notes
+ * each channel has across the song and which part of it the editor shows.
+ * Clicking or dragging moves the editor there. Note counts come from
+ * binary searches of each channel's timeline, so drawing costs two searches
+ * per pixel column however long the song is. The editor only asks for it to
+ * be drawn when the view, the notes or the loop change.
+ * @author Andrew Wilder
+ */
+@SuppressWarnings("serial")
+public class GBATrackerMinimapPanel extends JComponent {
+
+	/** Definitions */
+	private static final Dimension MinimapPanelSize = new Dimension(800, 40);
+	private static final double FULL_DENSITY = 16; // Notes per measure drawn at full brightness
+	private static final Color VIEW_COLOR = new Color(255, 255, 255, 60);
+
+	/** The editor this is an overview of */
+	private final GBATrackerSimulationPanel simulationPanel;
+
+	/**
+	 * Create the overview
+	 * @param simulationPanel The editor
+	 */
+	public GBATrackerMinimapPanel(final GBATrackerSimulationPanel simulationPanel) {
+		this.simulationPanel = simulationPanel;
+		setPreferredSize(MinimapPanelSize);
+		MouseAdapter mouseAdapter = new MouseAdapter() {
+			@Override
+			public void mousePressed(MouseEvent e) {
+				jump(e.getX());
+			}
+			@Override
+			public void mouseDragged(MouseEvent e) {
+				jump(e.getX());
+			}
+		};
+		addMouseListener(mouseAdapter);
+		addMouseMotionListener(mouseAdapter);
+	}
+
+	/**
+	 * Get the number of steps the overview covers
+	 * @return The song length, in 48ths
+	 */
+	private int getSteps() {
+		return Math.max(1, simulationPanel.getSong().endStep);
+	}
+
+	/**
+	 * Move the editor so a column of the overview is in the middle of it
+	 * @param x The column
+	 */
+	private void jump(int x) {
+		double step = (double) x * getSteps() / Math.max(1, getWidth());
+		simulationPanel.scrollTo(step / 48 - 0.5 / simulationPanel.getZoom());
+	}
+
+	/**
+	 * Draw the overview
+	 */
+	@Override
+	public void paintComponent(Graphics g) {
+		g.setColor(Color.BLACK);
+		g.fillRect(0, 0, getWidth(), getHeight());
+		Song song = simulationPanel.getSong();
+		int steps = getSteps();
+		int width = getWidth();
+		int rowHeight = getHeight() / Song.CHANNEL_COUNT;
+
+		// Note density of each channel, one pixel column at a time
+		for(int i = 0; i < Song.CHANNEL_COUNT; ++i) {
+			NoteTimeline notes = song.getTimeline(i);
+			int y = i * rowHeight;
+			for(int x = 0; x < width; ++x) {
+				int from = (int) ((long) x * steps / width);
+				int to = Math.max(from + 1, (int) ((long) (x + 1) * steps / width));
+				int count = notes.count(from, to);
+				if(count > 0) {
+					double density = Math.min(1, count * 48.0 / (to - from) / FULL_DENSITY);
+					g.setColor(new Color(0, (int) (80 + 175 * density), (int) (80 + 175 * density)));
+					g.drawLine(x, y + 1, x, y + rowHeight - 1);
+				}
+			}
+		}
+
+		// Loop marker
+		if(simulationPanel.isLoopingEnabled()) {
+			int loopX = (int) ((long) song.loopStep * width / steps);
+			g.setColor(Color.GREEN);
+			g.drawLine(loopX, 0, loopX, getHeight());
+		}
+
+		// The part of the song shown in the editor
+		double viewStart = simulationPanel.getScroll() * 48 * width / steps;
+		double viewWidth = 48.0 / simulationPanel.getZoom() * width / steps;
+		g.setColor(VIEW_COLOR);
+		g.fillRect((int) Math.round(viewStart), 0, Math.max(2, (int) Math.round(viewWidth)), getHeight());
+		g.setColor(Color.WHITE);
+		g.drawRect((int) Math.round(viewStart), 0, Math.max(2, (int) Math.round(viewWidth)), getHeight() - 1);
+	}
+}
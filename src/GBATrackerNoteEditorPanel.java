@@ -9,7 +9,7 @@ import java.awt.image.BufferedImage;
 
 import java.io.IOException;
 
-import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Pattern;
 
 import javax.imageio.ImageIO;
@@ -22,9 +22,9 @@ import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
-import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.SwingWorker;
 
 /**
  * The editor panel, with note and song properties
@@ -45,6 +45,7 @@ public class GBATrackerNoteEditorPanel extends JPanel {
 	private JComboBox<Integer> quantizationComboBox;
 	private GBATrackerSquareChannelPanel squareChannelPanel;
 	private GBATrackerNoiseChannelPanel noiseChannelPanel;
+	private GBATrackerWaveChannelPanel waveChannelPanel;
 	private JCheckBox loopCheckBox;
 	private AnimationPanel animationPanel;
 
@@ -74,12 +75,14 @@ public class GBATrackerNoteEditorPanel extends JPanel {
 
 	/**
 	 * Get a Note object from the appropriate UI subgroup
-	 * @param isSquare Whether the note is for a square or noise channel
+	 * @param channel The channel the note is for
 	 * @return The Note object
 	 */
-	public Note getNoteFromUI(boolean isSquare) {
-		if(isSquare) {
+	public Note getNoteFromUI(int channel) {
+		if(Song.isSquareChannel(channel)) {
 			return squareChannelPanel.createNote();
+		} else if(Song.isWaveChannel(channel)) {
+			return waveChannelPanel.createNote();
 		} else {
 			return noiseChannelPanel.createNote();
 		}
@@ -100,6 +103,8 @@ public class GBATrackerNoteEditorPanel extends JPanel {
 	public void updateUIFromNote(Note note) {
 		if(note.isSquareType) {
 			squareChannelPanel.updateUIFromNote(note);
+		} else if(note.isWaveType) {
+			waveChannelPanel.updateUIFromNote(note);
 		} else {
 			noiseChannelPanel.updateUIFromNote(note);
 		}
@@ -121,6 +126,8 @@ public class GBATrackerNoteEditorPanel extends JPanel {
 		notePropertiesPanel.add(squareChannelPanel);
 		noiseChannelPanel = new GBATrackerNoiseChannelPanel(controller);
 		notePropertiesPanel.add(noiseChannelPanel);
+		waveChannelPanel = new GBATrackerWaveChannelPanel(controller);
+		notePropertiesPanel.add(waveChannelPanel);
 
 		// Editor properties panel
 		JPanel editorPropertiesPanel = new JPanel();
@@ -274,22 +281,13 @@ public class GBATrackerNoteEditorPanel extends JPanel {
 	}
 
 	/**
-	 * Update the UI from CSV values generated by generateCSV
-	 * @param csv The csv values
+	 * Update the UI from the properties of a loaded song
+	 * @param song The song
 	 */
-	public void updateFromCSV(String csv) {
-		Scanner sc = new Scanner(csv);
-		sc.useDelimiter(",");
-		try {
-			titleTextField.setText(sc.next());
-			bpmTextField.setText(sc.next());
-			loopCheckBox.setSelected(Boolean.parseBoolean(sc.next()));
-		} catch(Exception e) {
-			e.printStackTrace();
-			JOptionPane.showMessageDialog(this, "Corrupted file", "Unable to parse file", JOptionPane.ERROR_MESSAGE);
-		} finally {
-			sc.close();
-		}
+	public void updateFromSong(Song song) {
+		titleTextField.setText(song.title);
+		bpmTextField.setText(song.bpm);
+		loopCheckBox.setSelected(song.looping);
 	}
 	
 	/**
@@ -301,42 +299,70 @@ public class GBATrackerNoteEditorPanel extends JPanel {
 		animationPanel.repaint();
 	}
 
+	/**
+	 * Read the frames of the animation in the background, and show it once
+	 * they are read
+	 */
+	public void loadAnimation() {
+		new SwingWorker<BufferedImage[], Void>() {
+			@Override
+			protected BufferedImage[] doInBackground() throws IOException {
+				long start = StartupReport.now();
+				BufferedImage[] frames = AnimationPanel.readFrames();
+				StartupReport.phase("Animation", start);
+				return frames;
+			}
+			@Override
+			protected void done() {
+				try {
+					animationPanel.frames = get();
+					animationPanel.repaint();
+				} catch(InterruptedException | ExecutionException e) {
+					e.printStackTrace();
+				}
+			}
+		}.execute();
+	}
+
 	/**
 	 * In this panel we will provide a fun little animation
 	 * @author Andrew Wilder
 	 */
-	private class AnimationPanel extends JPanel {
+	private static class AnimationPanel extends JPanel {
 
 		/** Fields specifying what to draw */
 		private static final int OFFSET = 3;
 		public double frame = 0.2;
-		public BufferedImage frames[];
+		public BufferedImage frames[] = null; // Blank until loadAnimation has read them
 
 		/**
-		 * Set up the frames of the image
+		 * Read the frames of the image
+		 * @return The frames, after the first
+		 * @throws IOException If the image can't be read
 		 */
-		public AnimationPanel() {
-			try {
-				ImageReader reader = (ImageReader) ImageIO.getImageReadersByFormatName("gif").next();
-				ImageInputStream iis = ImageIO.createImageInputStream(ClassLoader.getSystemResourceAsStream("res/Animation.gif"));
-				reader.setInput(iis, false);
-				int imageCount = reader.getNumImages(true);
-				frames = new BufferedImage[imageCount - 1];
-				for(int i = 1; i < imageCount; ++i) {
-					frames[i - 1] = reader.read(i);
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
+		public static BufferedImage[] readFrames() throws IOException {
+			ImageReader reader = (ImageReader) ImageIO.getImageReadersByFormatName("gif").next();
+			ImageInputStream iis = ImageIO.createImageInputStream(ClassLoader.getSystemResourceAsStream("res/Animation.gif"));
+			reader.setInput(iis, false);
+			int imageCount = reader.getNumImages(true);
+			BufferedImage[] frames = new BufferedImage[imageCount - 1];
+			for(int i = 1; i < imageCount; ++i) {
+				frames[i - 1] = reader.read(i);
 			}
+			reader.dispose();
+			iis.close();
+			return frames;
 		}
 
 		/**
 		 * Draw the animation panel
 		 */
 		public void paintComponent(Graphics g) {
-			g.setColor(animationPanel.getBackground());
+			g.setColor(getBackground());
 			g.fillRect(0, 0, getWidth(), getHeight());
-			g.drawImage(frames[((int) (frame * frames.length) + OFFSET) % frames.length], (getWidth() - AnimationPanelSize) >> 1, 0, AnimationPanelSize, AnimationPanelSize, null);
+			if(frames != null) {
+				g.drawImage(frames[((int) (frame * frames.length) + OFFSET) % frames.length], (getWidth() - AnimationPanelSize) >> 1, 0, AnimationPanelSize, AnimationPanelSize, null);
+			}
 		}
 	}
 }
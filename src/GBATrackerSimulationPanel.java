@@ -4,23 +4,22 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
-import java.awt.event.MouseListener;
+import java.awt.event.MouseAdapter;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.geom.Rectangle2D;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
 
 import javax.swing.JComponent;
 import javax.swing.Timer;
-import javax.swing.JOptionPane;
 
 /**
  * The simulation panel for showing the timeline of notes
@@ -39,47 +38,50 @@ public class GBATrackerSimulationPanel extends JComponent {
 	private static final int[] PlaySliderPolygonX = {-8, 8, 0};
 	private static final int[] PlaySliderPolygonY = {0, 0, 8};
 	private static final int FRAMERATE = 60;
-	private static final Dimension SimulationPanelSize = new Dimension(800, 260);
+	private static final Dimension SimulationPanelSize = new Dimension(800, 325);
+	private static final Color WAVEFORM_COLOR = new Color(0, 110, 70);
+	private static final double WAVEFORM_FULL_SCALE = 40; // Loudest sample of a single channel
+	private static final Color SELECTION_COLOR = new Color(255, 200, 0, 50);
+	private static final int LABEL_MARGIN = 40; // Pixels past the edges to draw notes whose labels reach onto the screen
+	private static final int DRAG_DISTANCE = 4; // Pixels the mouse moves before a click becomes a drag
 
 	/** Variables that define the simulation */
 	private double zoom = 0.7;
 	private double scroll = -0.1;
 	private int quantization = 8;
 	private int clickStep = 0, clickChannel = 0;
-	private List<EditorChannel> channels = new ArrayList<>();
-	private EditorNote selectedNote = null;
+	private Song song = new Song();
+	private List<Channel> audioChannels = new ArrayList<>();
+	private int selectedNoteStep = -1; // The step of the selected note, or -1 if no note is selected
 	private int selectedNoteChannel;
 	private boolean simulating = false;
 	private double playSlider = 0;
-	private int endStep = 48;
-	private int loopStep = 0;
 	private boolean looping = true;
-	private int playingStep = 0;
+	private SongPlayer player = null;
 	private double startScroll = 0;
-
-	/**
-	 * Get the maximum step for the notes currently placed
-	 * @return The maximum step, in 48ths
-	 */
-	private int getMaxStep() {
-		int maxStep = 0;
-		for(int i = 0; i < 3; ++i) {
-			for(EditorNote edn : channels.get(i).notes) {
-				if(edn.step > maxStep) {
-					maxStep = edn.step;
-				}
-			}
-		}
-		return maxStep;
-	}
+	private boolean showWaveforms = false;
+
+	/** The selected range, the step and channel it is started from, and the copied notes */
+	private NoteSelection selection = null;
+	private int anchorStep = 0, anchorChannel = 0;
+	private NoteSelection.Clip clip = null;
+	private Point dragStart = null, dragEnd = null;
+	private boolean dragging = false;
+	private final RenderQueue renderQueue = new RenderQueue();
+
+	/** What the minimap was last drawn for, so it is only drawn again when that changes */
+	private double minimapScroll, minimapZoom;
+	private Song minimapSong = null;
+	private int minimapEdits, minimapEndStep, minimapLoopStep;
+	private boolean minimapLooping;
 
 	/**
 	 * The ActionListener housing the update function for the simulation
 	 */
 	private static class SimulationListener implements ActionListener {
 
-		/** MS elapsed after last played note */
-		private int elapsedMS = 0;
+		/** The number of times the song had gone back to the loop step */
+		private int repeats = 0;
 
 		/**
 		 * Reference to the simulation panel's fields
@@ -90,80 +92,35 @@ public class GBATrackerSimulationPanel extends JComponent {
 		}
 
 		/**
-		 * Play a note of music
-		 */
-		private void playNote() {
-
-			// Get the notes to play
-			EditorNote edn = new EditorNote(null, simPanel.playingStep);
-			Note[] playNotes = {null, null, null};
-			for(int i = 0; i < 3; ++i) {
-				EditorChannel edc = simPanel.channels.get(i);
-				if(edc.notes.contains(edn)) {
-					for(EditorNote edn2 : edc.notes) {
-						if(edn2.equals(edn)) {
-							playNotes[i] = edn2.note;
-							playNotes[i].prepareBuf(i != 1);
-							break;
-						}
-					}
-				}
-			}
-
-			// Play available notes
-			for(int i = 0; i < 3; ++i) {
-				if(playNotes[i] != null) {
-					playNotes[i].playBuf(simPanel.channels.get(i).channel);
-				}
-			}
-
-			// Move the playing step
-			if(++simPanel.playingStep >= simPanel.endStep) {
-
-				// If we've reached the end of playback...
-				if(simPanel.looping) {
-
-					// If looping, set play step to loop marker and scroll back to it
-					simPanel.playingStep = simPanel.loopStep;
-					simPanel.scroll = simPanel.playingStep / 48.0 - 0.1;
-				} else {
-
-					// If not looping, reset scroll and stop simulating
-					simPanel.scroll = simPanel.startScroll;
-					simPanel.simulating = false;
-					simPanel.simulationTimer.stop();
-				}
-			}
-		}
-
-		/**
-		 * Update graphics, and play a note at appropriate times
+		 * Move the arrow to the step being heard, and update graphics. The
+		 * notes are played by the SongPlayer, so the timer only follows it.
 		 */
 		@Override
 		public void actionPerformed(ActionEvent e) {
+			SongPlayer player = simPanel.player;
+			double step = player.getPlayingStep();
+			simPanel.playSlider = step / 48;
+			if(player.getRepeats() != repeats) {
+
+				// If the song has looped, scroll back to the loop marker
+				repeats = player.getRepeats();
+				simPanel.scroll = simPanel.song.loopStep / 48.0 - 0.1;
+			} else if(player.isAtEnd()) {
+
+				// If the song has ended, reset scroll and stop simulating
+				simPanel.scroll = simPanel.startScroll;
+				simPanel.simulating = false;
+				simPanel.simulationTimer.stop();
+			}
 
-			// New thread to help keep the timer going the right speed
-			new Thread() {
-				public void run() {
-					// Move the arrow
-					simPanel.playSlider = (simPanel.playingStep + (double) elapsedMS / (5000 / simPanel.controller.getBPM())) / 48;
-
-					// Scroll the screen
-					if((simPanel.playSlider - simPanel.scroll) * simPanel.getWidth() * simPanel.zoom > simPanel.getWidth()) {
-						simPanel.scroll += 1 / simPanel.zoom;
-					}
-
-					// Play a note
-					if((elapsedMS += 1000 / FRAMERATE) > 5000 / simPanel.controller.getBPM()) {
-						elapsedMS %= 5000 / simPanel.controller.getBPM();
-						playNote();
-					}
+			// Scroll the screen
+			if((simPanel.playSlider - simPanel.scroll) * simPanel.getWidth() * simPanel.zoom > simPanel.getWidth()) {
+				simPanel.scroll += 1 / simPanel.zoom;
+			}
 
-					// Repaint stuff
-					simPanel.controller.updateAnimation((simPanel.playSlider * 4) % 1);
-					simPanel.repaint();
-				}
-			}.start();
+			// Repaint stuff
+			simPanel.controller.updateAnimation((simPanel.playSlider * 4) % 1);
+			simPanel.repaint();
 		}
 	};
 	private Timer simulationTimer = null;
@@ -180,9 +137,7 @@ public class GBATrackerSimulationPanel extends JComponent {
 	 * Clear all the notes
 	 */
 	public void clearAll() {
-		for(int i = 0; i < 3; ++i) {
-			channels.get(i).notes.clear();
-		}
+		song.clear();
 		repaint();
 	}
 
@@ -197,12 +152,13 @@ public class GBATrackerSimulationPanel extends JComponent {
 		setPreferredSize(SimulationPanelSize);
 
 		// Instantiate the channel data
-		channels.add(new EditorChannel()); // Channel 1 (square w/ sweep)
-		channels.add(new EditorChannel()); // Channel 2 (square)
-		channels.add(new EditorChannel()); // Channel 4 (noise)
+		audioChannels.add(new Channel()); // Channel 1 (square w/ sweep)
+		audioChannels.add(new Channel()); // Channel 2 (square)
+		audioChannels.add(new Channel()); // Channel 4 (noise)
+		audioChannels.add(new Channel()); // Channel 3 (wave)
 
 		// Create the MouseListener that handling clicking
-		addMouseListener(new MouseListener() {
+		MouseAdapter mouseAdapter = new MouseAdapter() {
 
 			/**
 			 * Handle mouse clicks
@@ -211,13 +167,14 @@ public class GBATrackerSimulationPanel extends JComponent {
 			public void mousePressed(MouseEvent e) {
 				
 				// Do nothing while simulating
+				dragStart = null;
 				if(simulating || e.getButton() == 4 || e.getButton() == 5) {
 					return;
 				}
 
 				// Which channel was clicked?
-				clickChannel = e.getY() / (getHeight() >> 2) - 1;
-				if(clickChannel < -1) {
+				clickChannel = e.getY() / (getHeight() / (Song.CHANNEL_COUNT + 1)) - 1;
+				if(clickChannel < -1 || clickChannel >= Song.CHANNEL_COUNT) {
 					return;
 				}
 
@@ -235,87 +192,58 @@ public class GBATrackerSimulationPanel extends JComponent {
 					return;
 				}
 				clickStep *= 48 / quantization;
-				controller.setModified();
-
-				// Was the end marker clicked?
-				if(clickChannel == -1) {
-					if(e.getButton() == MouseEvent.BUTTON1) {
-						if(clickStep > 0) {
-							endStep = Math.max(clickStep, getMaxStep() + 48 / quantization);
-							if(loopStep >= endStep) {
-								loopStep = endStep - 48 / quantization;
-							}
-						}
-					} else {
-						loopStep = clickStep;
-						if(loopStep >= endStep) {
-							loopStep = endStep - 48 / quantization;
-						}
-					}
+
+				// Shift-clicking selects the range from the last click
+				if(clickChannel >= 0 && e.isShiftDown()) {
+					selection = new NoteSelection(anchorChannel, anchorStep, clickChannel, clickStep);
+					selectedNoteStep = -1;
+					showSelectionCount();
 					repaint();
 					return;
-				} else if(clickStep >= endStep) {
-					if(e.getButton() == MouseEvent.BUTTON1) {
-						endStep = clickStep + 48 / quantization;
-					}
 				}
 
-				// Is there already a note here?
-				Note newNote = controller.getNoteFromUI(clickChannel < 2);
-				EditorNote newEdNote = new EditorNote(newNote, clickStep);
-				if(channels.get(clickChannel).notes.contains(newEdNote)) {
-					if(e.getButton() == MouseEvent.BUTTON1) {
-						// If there is, play the existing note and update the UI
-						for(EditorNote n : channels.get(clickChannel).notes) {
-							if(n.step == clickStep) {
-								controller.updateUIFromNote(n.note);
-								if(n.equals(selectedNote) && clickChannel == selectedNoteChannel) {
-									selectedNote = null;
-								} else {
-									selectedNote = n;
-									selectedNoteChannel = clickChannel;
-								}
-								break;
-							}
-						}
-					} else {
-						if(newNote.equals(selectedNote) && clickChannel == selectedNoteChannel) {
-							selectedNote = null;
-						}
-						channels.get(clickChannel).notes.remove(newEdNote);
-					}
-				} else {
-					if(e.getButton() == MouseEvent.BUTTON1) {
-						// If there isn't, play the note, add it to channel
-						newNote.playSound(clickChannel != 1);
-						channels.get(clickChannel).notes.add(newEdNote);
-						if(newNote.equals(selectedNote) && clickChannel == selectedNoteChannel) {
-							selectedNote = null;
-						}
-					}
+				// Left clicking a channel may start dragging out a selection, so wait for the release
+				if(clickChannel >= 0 && e.getButton() == MouseEvent.BUTTON1) {
+					dragStart = e.getPoint();
+					return;
 				}
-
-				// Update the simulation area
-				repaint();
+				click(e.getButton());
 			}
 
 			@Override
-			public void mouseExited(MouseEvent e) {
-				// unused
+			public void mouseDragged(MouseEvent e) {
+				if(dragStart == null || !dragging && dragStart.distance(e.getPoint()) < DRAG_DISTANCE) {
+					return;
+				}
+
+				// Select the notes in the rectangle between the press and the mouse
+				dragging = true;
+				dragEnd = e.getPoint();
+				selection = new NoteSelection(getChannelAt(dragStart.y), getStepAt(dragStart.x),
+						getChannelAt(dragEnd.y), getStepAt(dragEnd.x));
+				selectedNoteStep = -1;
+				showSelectionCount();
+				repaint();
 			}
+
 			@Override
-			public void mouseClicked(MouseEvent e) {
-				// unused
+			public void mouseReleased(MouseEvent e) {
+				if(dragStart != null && !dragging) {
+					click(MouseEvent.BUTTON1);
+				}
+				dragStart = null;
+				dragEnd = null;
+				dragging = false;
+				repaint();
 			}
+
 			@Override
 			public void mouseEntered(MouseEvent e) {
 				requestFocusInWindow();
 			}
-			@Override
-			public void mouseReleased(MouseEvent e) {
-				// unused
-			}
-		});
+		};
+		addMouseListener(mouseAdapter);
+		addMouseMotionListener(mouseAdapter);
 
 		// Create mouse wheel listener for scrolling
 		addMouseWheelListener(new MouseWheelListener() {
@@ -334,7 +262,10 @@ public class GBATrackerSimulationPanel extends JComponent {
 
 			@Override
 			public void keyPressed(KeyEvent e) {
-				GBATrackerSimulationPanel.this.keyPressed(e.getKeyCode());
+				// Keys with Ctrl or Alt are menu shortcuts, such as transposing the selection
+				if(!e.isControlDown() && !e.isAltDown() && !e.isMetaDown()) {
+					GBATrackerSimulationPanel.this.keyPressed(e.getKeyCode());
+				}
 			}
 
 			@Override
@@ -348,183 +279,383 @@ public class GBATrackerSimulationPanel extends JComponent {
 		});
 	}
 
+	/**
+	 * Place, select or remove a note, or move the end or loop marker, at the
+	 * step and channel that were clicked
+	 * @param button The mouse button
+	 */
+	private void click(int button) {
+		if(clickChannel >= 0) {
+			selection = null;
+			anchorStep = clickStep;
+			anchorChannel = clickChannel;
+		}
+		controller.setModified();
+
+		// Was the end marker clicked?
+		if(clickChannel == -1) {
+			if(button == MouseEvent.BUTTON1) {
+				if(clickStep > 0) {
+					song.endStep = Math.max(clickStep, song.getMaxStep() + 48 / quantization);
+					if(song.loopStep >= song.endStep) {
+						song.loopStep = song.endStep - 48 / quantization;
+					}
+				}
+			} else {
+				song.loopStep = clickStep;
+				if(song.loopStep >= song.endStep) {
+					song.loopStep = song.endStep - 48 / quantization;
+				}
+			}
+			repaint();
+			return;
+		} else if(clickStep >= song.endStep) {
+			if(button == MouseEvent.BUTTON1) {
+				song.endStep = clickStep + 48 / quantization;
+			}
+		}
+
+		// Is there already a note here?
+		NoteTimeline notes = song.getTimeline(clickChannel);
+		int existing = notes.indexOf(clickStep);
+		boolean selected = clickChannel == selectedNoteChannel && clickStep == selectedNoteStep;
+		if(existing >= 0) {
+			if(button == MouseEvent.BUTTON1) {
+				// If there is, play the existing note and update the UI
+				controller.updateUIFromNote(notes.getNote(existing));
+				if(selected) {
+					selectedNoteStep = -1;
+				} else {
+					selectedNoteStep = clickStep;
+					selectedNoteChannel = clickChannel;
+				}
+			} else {
+				if(selected) {
+					selectedNoteStep = -1;
+				}
+				song.removeNote(clickChannel, clickStep);
+			}
+		} else if(button == MouseEvent.BUTTON1) {
+			// If there isn't, play the note, add it to channel
+			Note newNote = controller.getNoteFromUI(clickChannel);
+			newNote.playSound(Song.hasSweep(clickChannel));
+			song.addNote(clickChannel, new EditorNote(newNote, clickStep));
+		}
+
+		// Update the simulation area
+		repaint();
+	}
+
+	/**
+	 * Get the channel at a height of the editor, for dragging out a selection
+	 * @param y The height
+	 * @return The channel, limited to the channels there are
+	 */
+	private int getChannelAt(int y) {
+		int channel = y / (getHeight() / (Song.CHANNEL_COUNT + 1)) - 1;
+		return Math.max(0, Math.min(Song.CHANNEL_COUNT - 1, channel));
+	}
+
+	/**
+	 * Get the step at a position of the editor, for dragging out a selection
+	 * @param x The position
+	 * @return The step, not before the start of the song
+	 */
+	private int getStepAt(int x) {
+		double measureWidth = getWidth() * zoom;
+		return Math.max(0, (int) Math.round((scroll + x / measureWidth) * 48));
+	}
+
+	/**
+	 * Show the number of selected notes under the editor
+	 */
+	private void showSelectionCount() {
+		controller.setTooltipText(String.format("%d notes selected", selection.getNoteCount(song)));
+	}
+
 	/**
 	 * Update a note when a key is pressed
 	 * @param keyCode Event passed from the JFrame
 	 */
 	public void keyPressed(int keyCode) {
-		if(!simulating && selectedNote != null && selectedNoteChannel < 2) {
+		if(keyCode == KeyEvent.VK_ESCAPE && selection != null) {
+			selection = null;
+			repaint();
+		} else if(!simulating && getSelectedNote() != null && (Song.isSquareChannel(selectedNoteChannel) || Song.isWaveChannel(selectedNoteChannel))) {
 			boolean modified = true;
+			Note note = getSelectedNote().copy(); // Notes that sound the same share a Note
 			switch(keyCode) {
 			case KeyEvent.VK_C:
-				if(selectedNote.note.musicalNote == 0) {
-					selectedNote.note.musicalNote = 1;
+				if(note.musicalNote == 0) {
+					note.musicalNote = 1;
 				} else {
-					selectedNote.note.musicalNote = 0;
+					note.musicalNote = 0;
 				}
 				break;
 			case KeyEvent.VK_D:
-				if(selectedNote.note.musicalNote == 2) {
-					selectedNote.note.musicalNote = 3;
+				if(note.musicalNote == 2) {
+					note.musicalNote = 3;
 				} else {
-					selectedNote.note.musicalNote = 2;
+					note.musicalNote = 2;
 				}
 				break;
 			case KeyEvent.VK_E:
-				selectedNote.note.musicalNote = 4;
+				note.musicalNote = 4;
 				break;
 			case KeyEvent.VK_F:
-				if(selectedNote.note.musicalNote == 5) {
-					selectedNote.note.musicalNote = 6;
+				if(note.musicalNote == 5) {
+					note.musicalNote = 6;
 				} else {
-					selectedNote.note.musicalNote = 5;
+					note.musicalNote = 5;
 				}
 				break;
 			case KeyEvent.VK_G:
-				if(selectedNote.note.musicalNote == 7) {
-					selectedNote.note.musicalNote = 8;
+				if(note.musicalNote == 7) {
+					note.musicalNote = 8;
 				} else {
-					selectedNote.note.musicalNote = 7;
+					note.musicalNote = 7;
 				}
 				break;
 			case KeyEvent.VK_A:
-				if(selectedNote.note.musicalNote == 9) {
-					selectedNote.note.musicalNote = 10;
+				if(note.musicalNote == 9) {
+					note.musicalNote = 10;
 				} else {
-					selectedNote.note.musicalNote = 9;
+					note.musicalNote = 9;
 				}
 				break;
 			case KeyEvent.VK_B:
-				selectedNote.note.musicalNote = 11;
+				note.musicalNote = 11;
 				break;
 			case KeyEvent.VK_UP:
-				if(selectedNote.note.octave < 7) {
-					++selectedNote.note.octave;
+				if(note.octave < 7) {
+					++note.octave;
 				} else {
-					return;
+					modified = false;
 				}
 				break;
 			case KeyEvent.VK_DOWN:
-				if(selectedNote.note.octave > 2) {
-					--selectedNote.note.octave;
+				if(note.octave > 2) {
+					--note.octave;
 				} else {
-					return;
+					modified = false;
 				}
 				break;
 			default:
 				modified = false;
 			}
 			if(modified) {
-				selectedNote.note.playSound(selectedNoteChannel != 1);
-				controller.updateUIFromNote(selectedNote.note);
+				note = song.setNote(selectedNoteChannel, selectedNoteStep, note);
+				note.playSound(Song.hasSweep(selectedNoteChannel));
+				controller.updateUIFromNote(note);
 				repaint();
 			}
 		}
 	}
 
 	/**
-	 * Update the selected note from UI changes in real time
-	 * @param note
+	 * Get the selected range, or the range of the selected note if no range is selected
+	 * @return The selection, or null if nothing is selected
 	 */
-	public void updateSelectedNote(Note newNote) {
-		if(selectedNote != null) {
-			EditorChannel ch = channels.get(selectedNoteChannel);
-			for(EditorNote n : ch.notes) {
-				if(n.equals(selectedNote)) {
-					if(n.note.isSquareType == newNote.isSquareType) {
-						n.note = newNote;
-						newNote.playSound(true);
-					}
-				}
-			}
+	private NoteSelection getSelection() {
+		if(selection != null) {
+			return selection;
+		} else if(selectedNoteStep >= 0) {
+			return new NoteSelection(selectedNoteChannel, selectedNoteStep, selectedNoteChannel, selectedNoteStep);
+		}
+		return null;
+	}
+
+	/**
+	 * Select every note
+	 */
+	public void selectAll() {
+		if(!simulating) {
+			selection = NoteSelection.all(song);
+			selectedNoteStep = -1;
 			repaint();
 		}
 	}
 
+	/**
+	 * Raise or lower the pitch of the selected notes. The new Notes are
+	 * rendered in the background rather than one at a time.
+	 * @param semitones The number of semitones to move, negative to lower
+	 * @return True if any note changed
+	 */
+	public boolean transposeSelection(int semitones) {
+		NoteSelection range = getSelection();
+		if(simulating || range == null) {
+			return false;
+		}
+		int changed = range.transpose(song, semitones, renderQueue);
+		Note selected = getSelectedNote();
+		if(selected != null) {
+			controller.updateUIFromNote(selected);
+		}
+		controller.setTooltipText(String.format("Transposed %d notes", changed));
+		repaint();
+		return changed > 0;
+	}
 
 	/**
-	 * Get the length of the song, in steps
-	 * @return The number of 48ths in this song
+	 * Give the selected notes the volume, envelope and duty cycle set up in the editor
+	 * @return True if any note changed
 	 */
-	public int getDataLength() {
-		int lineCount = 0;
-		for(int i = 0; i < endStep; ++i) {
-			EditorNote edn = new EditorNote(null, i);
-			if(channels.get(0).notes.contains(edn) || channels.get(1).notes.contains(edn) || channels.get(2).notes.contains(edn)) {
-				++lineCount;
-			}
+	public boolean applySettingsToSelection() {
+		NoteSelection range = getSelection();
+		if(simulating || range == null) {
+			return false;
+		}
+		Note[] settings = new Note[Song.CHANNEL_COUNT];
+		for(int i = 0; i < Song.CHANNEL_COUNT; ++i) {
+			settings[i] = controller.getNoteFromUI(i);
 		}
-		return lineCount;
+		int changed = range.applySettings(song, settings, renderQueue);
+		controller.setTooltipText(String.format("Changed %d notes", changed));
+		repaint();
+		return changed > 0;
 	}
 
 	/**
-	 * Get the start of the song's loop
-	 * @return The step on which the song loops
+	 * Move the selected notes by the quantization
+	 * @param direction 1 to move later, -1 to move earlier
+	 * @return True if the notes moved
 	 */
-	public int getDataLoop() {
-		int lineCount = 0;
-		for(int i = 0; i < loopStep; ++i) {
-			EditorNote edn = new EditorNote(null, i);
-			if(channels.get(0).notes.contains(edn) || channels.get(1).notes.contains(edn) || channels.get(2).notes.contains(edn)) {
-				++lineCount;
+	public boolean shiftSelection(int direction) {
+		NoteSelection range = getSelection();
+		if(simulating || range == null) {
+			return false;
+		}
+		NoteSelection moved = range.shift(song, direction * 48 / quantization, 48 / quantization);
+		if(moved == range) {
+			return false;
+		}
+		selection = moved;
+		selectedNoteStep = -1;
+		repaint();
+		return true;
+	}
+
+	/**
+	 * Copy the selected notes
+	 */
+	public void copySelection() {
+		NoteSelection range = getSelection();
+		if(range != null) {
+			clip = range.copy(song);
+		}
+	}
+
+	/**
+	 * Copy the selected notes, then remove them
+	 * @return True if any note was removed
+	 */
+	public boolean cutSelection() {
+		copySelection();
+		return deleteSelection();
+	}
+
+	/**
+	 * Paste the copied notes at the play marker, on the channels they were copied from
+	 * @return True if notes were pasted
+	 */
+	public boolean pasteSelection() {
+		if(simulating || clip == null) {
+			return false;
+		}
+		selection = NoteSelection.paste(song, clip, (int) Math.ceil(scroll) * 48, 48 / quantization);
+		selectedNoteStep = -1;
+		repaint();
+		return true;
+	}
+
+	/**
+	 * Remove the selected notes
+	 * @return True if any note was removed
+	 */
+	public boolean deleteSelection() {
+		NoteSelection range = getSelection();
+		if(simulating || range == null) {
+			return false;
+		}
+		int removed = range.delete(song);
+		selectedNoteStep = -1;
+		repaint();
+		return removed > 0;
+	}
+
+	/**
+	 * Update the selected note from UI changes in real time
+	 * @param note
+	 */
+	public void updateSelectedNote(Note newNote) {
+		Note selected = getSelectedNote();
+		if(selected != null) {
+			if(selected.isSameType(newNote)) {
+				song.setNote(selectedNoteChannel, selectedNoteStep, newNote).playSound(true);
 			}
+			repaint();
+		}
+	}
+
+	/**
+	 * Get the Note of the selected note
+	 * @return The Note, shared with the notes that sound the same, or null if no note is selected
+	 */
+	private Note getSelectedNote() {
+		if(selectedNoteStep < 0) {
+			return null;
 		}
-		return lineCount;
+		NoteTimeline notes = song.getTimeline(selectedNoteChannel);
+		int index = notes.indexOf(selectedNoteStep);
+		return index < 0 ? null : notes.getNote(index);
 	}
 
+
 	/**
 	 * Play the file from the start
 	 */
 	public void play() {
 		if(!simulating) {
-
-			// Render the notes
-			controller.setTooltipText("Rendering notes...");
-			for(int i = 0; i < 3; ++i) {
-				for(EditorNote edn : channels.get(i).notes) {
-					edn.note.prepareBuf(i != 1);
-				}
-			}
-			controller.setTooltipText(" ");
-			selectedNote = null;
-
-			// Start playing
-			playingStep = 0;
-			startScroll = scroll;
+			startPlayer(0);
 			if(scroll > 0) {
 				scroll = -0.1;
 			}
-			simulating = true;
-			simulationTimer = new Timer(1000 / FRAMERATE, new SimulationListener(this));
-			simulationTimer.start();
 		}
 	}
 
 	/**
-	 * Play the file from an offset
+	 * Play the file from the first measure in view, starting on its first
+	 * row so that a measure opening with rests doesn't start in silence
 	 */
 	public void playHere() {
 		if(!simulating) {
-
-			// Render the notes
-			controller.setTooltipText("Rendering notes...");
-			for(int i = 0; i < 3; ++i) {
-				for(EditorNote edn : channels.get(i).notes) {
-					edn.note.prepareBuf(i != 1);
-				}
-			}
-			controller.setTooltipText(" ");
-			selectedNote = null;
-
-			// Start playing
-			playingStep = (int) Math.ceil(scroll) * 48;
-			startScroll = scroll;
-			simulating = true;
-			simulationTimer = new Timer(1000 / FRAMERATE, new SimulationListener(this));
-			simulationTimer.start();
+			int step = (int) Math.ceil(scroll) * 48;
+			int rowStep = song.getRowStep(song.getRowCount(0, step));
+			startPlayer(rowStep >= 0 && rowStep < step + 48 ? rowStep : step);
 		}
 	}
 
+	/**
+	 * Lay out the song, start streaming it and follow it on the timer
+	 * @param step The step to start from
+	 */
+	private void startPlayer(int step) {
+
+		// Render the notes
+		controller.setTooltipText("Rendering notes...");
+		player = new SongPlayer(song, controller.getBPM(), looping, step, audioChannels);
+		controller.setTooltipText(" ");
+		selectedNoteStep = -1;
+
+		// Start playing
+		startScroll = scroll;
+		simulating = true;
+		player.start();
+		simulationTimer = new Timer(1000 / FRAMERATE, new SimulationListener(this));
+		simulationTimer.start();
+	}
+
 	/**
 	 * Stop playing the file
 	 */
@@ -533,6 +664,7 @@ public class GBATrackerSimulationPanel extends JComponent {
 			scroll = startScroll;
 			simulating = false;
 			simulationTimer.stop();
+			player.stop();
 			repaint();
 		}
 	}
@@ -592,6 +724,49 @@ public class GBATrackerSimulationPanel extends JComponent {
 		return scroll;
 	}
 
+	/**
+	 * Scroll so the editor starts at a measure
+	 * @param measure The measure, which may be fractional
+	 */
+	public void scrollTo(double measure) {
+		if(!simulating) {
+			scroll = Math.max(MIN_SCROLL, measure);
+			repaint();
+		}
+	}
+
+	/**
+	 * Get the measure the editor starts at
+	 * @return The scroll position, in measures
+	 */
+	public double getScroll() {
+		return scroll;
+	}
+
+	/**
+	 * Get the zoom of the editor
+	 * @return The fraction of the width a measure takes
+	 */
+	public double getZoom() {
+		return zoom;
+	}
+
+	/**
+	 * Check if looping is enabled
+	 * @return True if the song loops
+	 */
+	public boolean isLoopingEnabled() {
+		return looping;
+	}
+
+	/**
+	 * Get the song being edited
+	 * @return The song
+	 */
+	public Song getSong() {
+		return song;
+	}
+
 	/**
 	 * Set the quantization level for the editor
 	 * @param quantization The new quantization
@@ -607,9 +782,85 @@ public class GBATrackerSimulationPanel extends JComponent {
 	 */
 	public void setLoopingEnabled(boolean enable) {
 		looping = enable;
+		if(player != null) {
+			player.setLooping(enable);
+		}
 		repaint();
 	}
 
+	/**
+	 * Show or hide the rendered waveform of each channel, rendering the notes when shown
+	 * @param visible If true, show the waveforms
+	 */
+	public void setWaveformsVisible(boolean visible) {
+		if(visible) {
+			controller.setTooltipText("Rendering notes...");
+			for(int i = 0; i < Song.CHANNEL_COUNT; ++i) {
+				for(Note note : song.getTimeline(i).getSounds()) {
+					if(note != null) {
+						note.prepareBuf(Song.hasSweep(i));
+					}
+				}
+			}
+			controller.setTooltipText(" ");
+		}
+		showWaveforms = visible;
+		repaint();
+	}
+
+	/**
+	 * Draw the rendered samples of each channel behind its notes. Each note
+	 * plays until the next note on its channel, and each pixel column is drawn
+	 * from the peaks of the samples it covers, so drawing doesn't read samples.
+	 * @param g The graphics
+	 * @param cellHeight The height of a channel
+	 * @param measureWidth The width of a measure
+	 */
+	private void paintWaveforms(Graphics2D g, int cellHeight, double measureWidth) {
+		if(!controller.validateBPM()) {
+			return;
+		}
+		double samplesPerStep = Channel.getSampleRate() * 5.0 / controller.getBPM();
+		double samplesPerPixel = samplesPerStep * 48 / measureWidth;
+		double scale = (cellHeight / 2 - 2) / WAVEFORM_FULL_SCALE;
+		int[] peak = new int[2];
+		g.setColor(WAVEFORM_COLOR);
+		for(int channelNum = 0; channelNum < Song.CHANNEL_COUNT; ++channelNum) {
+			NoteTimeline notes = song.getTimeline(channelNum);
+			int centerY = 3 * cellHeight / 2 + channelNum * cellHeight;
+
+			// Start from the last note before the screen, which may still be sounding
+			int k = Math.max(0, notes.first(getStepAt(0)) - 1);
+			for(; k < notes.size(); ++k) {
+				byte[] buf = notes.getNote(k).getBuf();
+				if(buf == null) {
+					continue;
+				}
+
+				// The note sounds until its buffer ends or the next note starts
+				double x0 = notes.getStep(k) * measureWidth / 48 - scroll * measureWidth;
+				if(x0 >= getWidth()) {
+					break;
+				}
+				long audible = buf.length;
+				if(k + 1 < notes.size()) {
+					audible = Math.min(audible, (long) ((notes.getStep(k + 1) - notes.getStep(k)) * samplesPerStep));
+				}
+				double x1 = x0 + audible / samplesPerPixel;
+				if(x1 < 0) {
+					continue;
+				}
+				WaveformPeaks peaks = WaveformPeaks.get(buf);
+				for(int px = (int) Math.max(0, Math.ceil(x0)), end = (int) Math.min(getWidth(), Math.ceil(x1)); px < end; ++px) {
+					int from = (int) ((px - x0) * samplesPerPixel);
+					int to = (int) Math.min(audible, (px + 1 - x0) * samplesPerPixel);
+					peaks.getPeak(from, Math.max(to, from + 1), peak);
+					g.drawLine(px, centerY - (int) Math.round(peak[1] * scale), px, centerY - (int) Math.round(peak[0] * scale));
+				}
+			}
+		}
+	}
+
 	/**
 	 * Draw the simulation screen
 	 */
@@ -617,6 +868,7 @@ public class GBATrackerSimulationPanel extends JComponent {
 	public void paintComponent(Graphics _g) {
 
 		// Set up brush
+		long paintStart = System.nanoTime();
 		Graphics2D g = (Graphics2D) _g;
 		g.setColor(Color.WHITE);
 		g.setFont(new Font("TimesRoman", Font.PLAIN, 20));
@@ -645,7 +897,7 @@ public class GBATrackerSimulationPanel extends JComponent {
 
 		// Quantization bars
 		g.setStroke(new BasicStroke(3));
-		int cellHeight = getHeight() >> 2;
+		int cellHeight = getHeight() / (Song.CHANNEL_COUNT + 1);
 		int n = (int) Math.ceil(scroll);
 		double barX = (n - scroll) * measureWidth;
 		g.setStroke(new BasicStroke(1));
@@ -656,7 +908,7 @@ public class GBATrackerSimulationPanel extends JComponent {
 		g.setColor(Color.WHITE);
 
 		// Horizontal bars
-		for(int i = 0; i < 3; ++i) {
+		for(int i = 0; i < Song.CHANNEL_COUNT; ++i) {
 			int h = 3 * cellHeight / 2 + i * cellHeight;
 			g.drawLine(0, h, getWidth(), h);
 		}
@@ -669,24 +921,48 @@ public class GBATrackerSimulationPanel extends JComponent {
 			g.drawString(label, (int) Math.round((barX - stringBounds.getWidth() / 2)), (int) Math.round((cellHeight - stringBounds.getHeight() + 5)));
 		}
 
-		// Draw the notes
+		// Draw the waveforms behind the notes
+		if(showWaveforms) {
+			paintWaveforms(g, cellHeight, measureWidth);
+		}
+
+		// Draw the selected range
+		if(selection != null) {
+			int x0 = (int) Math.round(selection.fromStep * measureWidth / 48 - scroll * measureWidth);
+			int x1 = (int) Math.round((selection.toStep - 1) * measureWidth / 48 - scroll * measureWidth);
+			int y0 = cellHeight + selection.firstChannel * cellHeight;
+			int y1 = 2 * cellHeight + selection.lastChannel * cellHeight;
+			g.setColor(SELECTION_COLOR);
+			g.fillRect(x0 - NOTE_SIZE / 2, y0, x1 - x0 + NOTE_SIZE, y1 - y0);
+		}
+
+		// Draw the notes on screen, with the selected ones a run of positions in each timeline
 		g.setFont(new Font("TimesRoman", Font.PLAIN, 10));
-		for(int channelNum = 0; channelNum < 3; ++channelNum) {
-			for(EditorNote edNote : channels.get(channelNum).notes) {
+		int firstStep = getStepAt(-LABEL_MARGIN), lastStep = getStepAt(getWidth() + LABEL_MARGIN);
+		for(int channelNum = 0; channelNum < Song.CHANNEL_COUNT; ++channelNum) {
+			NoteTimeline notes = song.getTimeline(channelNum);
+			int selectedFrom = 0, selectedTo = 0;
+			int selectedNote = channelNum == selectedNoteChannel && selectedNoteStep >= 0 ? notes.indexOf(selectedNoteStep) : -1;
+			if(selection != null && channelNum >= selection.firstChannel && channelNum <= selection.lastChannel) {
+				selectedFrom = notes.first(selection.fromStep);
+				selectedTo = notes.first(selection.toStep);
+			}
+			for(int k = notes.first(firstStep), end = notes.first(lastStep + 1); k < end; ++k) {
+				EditorNote edNote = notes.get(k);
 				X = (edNote.step * measureWidth / 48) - scroll * measureWidth;
 				Y = cellHeight * channelNum + 3 * cellHeight / 2;
-				g.setColor(Color.CYAN);
+				g.setColor(k >= selectedFrom && k < selectedTo ? Color.ORANGE : Color.CYAN);
 				g.fillRect((int) Math.round(X) - NOTE_SIZE / 2, (int) Math.round(Y) - NOTE_SIZE / 2, NOTE_SIZE, NOTE_SIZE);
 				g.setColor(Color.BLACK);
 				String label;
-				if(channelNum < 2) {
+				if(Song.isSquareChannel(channelNum) || Song.isWaveChannel(channelNum)) {
 					label = String.format("%s%d", GBATrackerSquareChannelPanel.Notes[edNote.note.musicalNote], edNote.note.octave);
 				} else {
 					label = String.format("%s|%s", (int) edNote.note.dividingRatio, edNote.note.shiftClockFrequency);
 				}
 				Rectangle2D stringBounds = g.getFontMetrics().getStringBounds(label, g);
 				g.drawString(label, (int) Math.round(X - stringBounds.getWidth() / 2), (int) Y);
-				if(edNote.equals(selectedNote) && channelNum == selectedNoteChannel) {
+				if(k == selectedNote) {
 					g.setStroke(new BasicStroke(4));
 					g.setColor(Color.RED);
 					g.drawRect((int) Math.round(X) - NOTE_SIZE / 2, (int) Math.round(Y) - NOTE_SIZE / 2, NOTE_SIZE, NOTE_SIZE);
@@ -697,7 +973,7 @@ public class GBATrackerSimulationPanel extends JComponent {
 		}
 
 		// End marker
-		X = (endStep * measureWidth / 48) - scroll * measureWidth;
+		X = (song.endStep * measureWidth / 48) - scroll * measureWidth;
 		g.setColor(Color.WHITE);
 		String label = String.format("End", n++);
 		Rectangle2D stringBounds = g.getFontMetrics().getStringBounds(label, g);
@@ -705,211 +981,84 @@ public class GBATrackerSimulationPanel extends JComponent {
 
 		// Loop marker
 		if(looping) {
-			X = (loopStep * measureWidth / 48) - scroll * measureWidth;
+			X = (song.loopStep * measureWidth / 48) - scroll * measureWidth;
 			label = String.format("Loop", n++);
 			stringBounds = g.getFontMetrics().getStringBounds(label, g);
 			g.drawString(label, (int) (Math.round(X) - stringBounds.getWidth() / 2), (int) stringBounds.getHeight());
 		}
+		TrackerMetrics.get().recordPaint(System.nanoTime() - paintStart);
+		updateMinimap();
 	}
 
 	/**
-	 * Generate a String representation of the notes
-	 * @return The String representation of the notes
+	 * Draw the minimap again if the view, the notes or the loop have changed
+	 * since it was last drawn. Playback and dragging repaint the editor many
+	 * times a second without changing any of them.
 	 */
-	public String generateCSV() {
-		String str = endStep + "," + loopStep;
-		for(int i = 0; i < 3; ++i) {
-			str += "," + channels.get(i).notes.size();
-			for(EditorNote edn : channels.get(i).notes) {
-				if(i < 2) {
-					str += "," + edn.note.getSWP();
-				}
-				str += "," + edn.note.getENV();
-				str += "," + edn.note.getFRQ();
-				str += "," + edn.step;
-			}
+	private void updateMinimap() {
+		if(minimapSong != song || minimapScroll != scroll || minimapZoom != zoom || minimapEdits != song.getEditCount()
+				|| minimapEndStep != song.endStep || minimapLoopStep != song.loopStep || minimapLooping != looping) {
+			minimapSong = song;
+			minimapScroll = scroll;
+			minimapZoom = zoom;
+			minimapEdits = song.getEditCount();
+			minimapEndStep = song.endStep;
+			minimapLoopStep = song.loopStep;
+			minimapLooping = looping;
+			controller.updateMinimap();
 		}
-		return str;
 	}
 
 	/**
-	 * Populate the notes from a String representation
-	 * @param csv The csv-format String representation
+	 * Generate a String representation of the notes
+	 * @return The String representation of the notes
 	 */
-	public void populateFromString(String csv) {
-
-		// Scanner used to parse the csv
-		Scanner sc = new Scanner(csv);
-		sc.useDelimiter(",");
-
-		// New channels
-		List<EditorChannel> newChannels = new ArrayList<>();
-		newChannels.add(new EditorChannel());
-		newChannels.add(new EditorChannel());
-		newChannels.add(new EditorChannel());
-
-		// Fail gracefully on parse error
-		try {
-			int newEndStep = Integer.parseInt(sc.next());
-			int newLoopStep = Integer.parseInt(sc.next());
-
-			// For each channel...
-			for(int i = 0; i < 3; ++i) {
-				int len = Integer.parseInt(sc.next());
-				while(len-- > 0) {
-					Note note;
-
-					// Differentiate between square and noise channels
-					if(i < 2) {
-						int SWP = Integer.parseInt(sc.next());
-						int ENV = Integer.parseInt(sc.next());
-						int FRQ = Integer.parseInt(sc.next());
-						note = new Note(SWP, ENV, FRQ, i != 1);
-					} else {
-						int ENV = Integer.parseInt(sc.next());
-						int FRQ = Integer.parseInt(sc.next());
-						note = new Note(ENV, FRQ);
-					}
-					int step = Integer.parseInt(sc.next());
-					newChannels.get(i).notes.add(new EditorNote(note, step));
-				}
-			}
-
-			// If all was successful, now set the values
-			selectedNote = null;
-			endStep = newEndStep;
-			loopStep = newLoopStep;
-			channels = newChannels;
-			repaint();
-		} catch(Exception e) {
-			e.printStackTrace();
-			JOptionPane.showMessageDialog(this, "Corrupted file", "Unable to parse file", JOptionPane.ERROR_MESSAGE);
-		} finally {
-			sc.close();
-		}
+	public String generateCSV() {
+		return song.generateNotesCSV();
 	}
 
 	/**
-	 * Generate formatted note data for exporting
-	 * @return The C array for the note data
+	 * Show a newly loaded song
+	 * @param newSong The song
 	 */
-	public String getNoteData() {
-
-		// Get the uncompressed data
-		int dataVals[] = new int[endStep << 3];
-		for(int i = 0; i < endStep; ++i) {
-			EditorNote edn = new EditorNote(null, i);
-			Note n = null;
-			for(EditorNote edn_itr : channels.get(0).notes) {
-				if(edn.equals(edn_itr)) {
-					n = edn_itr.note;
-					break;
-				}
-			}
-			if(n != null) {
-				dataVals[i << 3] = n.getSWP();
-				dataVals[(i << 3) + 1] = n.getENV();
-				dataVals[(i << 3) + 2] = n.getFRQ();
-			} else {
-				dataVals[i << 3] = dataVals[(i << 3) + 1] = dataVals[(i << 3) + 2] = 0;
-			}
-			n = null;
-			for(EditorNote edn_itr : channels.get(1).notes) {
-				if(edn.equals(edn_itr)) {
-					n = edn_itr.note;
-					break;
-				}
-			}
-			if(n != null) {
-				dataVals[(i << 3) + 3] = n.getENV();
-				dataVals[(i << 3) + 4] = n.getFRQ();
-			} else {
-				dataVals[(i << 3) + 3] = dataVals[(i << 3) + 4] = 0;
-			}
-			n = null;
-			for(EditorNote edn_itr : channels.get(2).notes) {
-				if(edn.equals(edn_itr)) {
-					n = edn_itr.note;
-					break;
-				}
-			}
-			if(n != null) {
-				dataVals[(i << 3) + 5] = n.getENV();
-				dataVals[(i << 3) + 6] = n.getFRQ();
-			} else {
-				dataVals[(i << 3) + 5] = dataVals[(i << 3) + 6] = 0;
-			}
-			dataVals[(i << 3) + 7] = 1;
-		}
-
-		// Compress lines by calculating RLE lengths
-		for(int i = 0, currIndex = 0; i < endStep; ++i) {
-			if(dataVals[(i << 3) + 2] != 0 || dataVals[(i << 3) + 4] != 0 || dataVals[(i << 3) + 6] != 0) {
-				currIndex = i;
-			} else {
-				++dataVals[(currIndex << 3) + 7];
-			}
-		}
-
-		// Create data string
-		int dataLen = getDataLength();
-		int currLine = 0;
-		String dataStr = "";
-		for(int i = 0; i < endStep; ++i) {
-			if(dataVals[(i << 3) + 2] != 0 || dataVals[(i << 3) + 4] != 0 || dataVals[(i << 3) + 6] != 0) {
-				String dataLine = "";
-				for(int j = 0; j < 8; ++j) {
-					dataLine += String.format("0x%04X", dataVals[(i << 3) + j]);
-					if(j < 7) {
-						dataLine += ",";
-					}
-				}
-				dataStr += "\t{" + dataLine + "}";
-				if(currLine++ < dataLen - 1) {
-					dataStr += ",\n";
-				}
-			}
-		}
-		return dataStr;
+	public void setSong(Song newSong) {
+		selectedNoteStep = -1;
+		selection = null;
+		song = newSong;
+		repaint();
 	}
 
 	/**
-	 * This class adds a step to a regular Note object for representation in
-	 * the simulator
-	 * @author Andrew Wilder
+	 * Change the song being edited to match a new version of it, keeping the
+	 * notes that are the same in both. Playback carries on with the changes,
+	 * from the step it has got to.
+	 * @param newer The new version of the song
+	 * @return The number of notes removed and added
 	 */
-	private static class EditorNote {
-
-		/** The variables held by the EditorNote object */
-		public Note note;
-		public int step;
+	public int updateSong(Song newer) {
+		int changes = song.update(newer);
+		if(simulating && !player.update(song, controller.getBPM())) {
 
-		/**
-		 * Create a new EditorNote object
-		 * @param note The Note to contain
-		 * @param step The 48th measure this is placed on
-		 */
-		public EditorNote(Note note, int step) {
-			this.note = note;
-			this.step = step;
+			// The output rate has changed since the song started, so start it again where it has got to
+			double scrollFrom = startScroll;
+			int step = (int) player.getPlayingStep();
+			simulationTimer.stop();
+			player.stop();
+			startPlayer(step);
+			startScroll = scrollFrom;
 		}
-
-		/**
-		 * Determine if this is equal to another one. Used for Lists.
-		 */
-		public boolean equals(Object o) {
-			return o instanceof EditorNote && step == ((EditorNote) o).step;
+		if(getSelectedNote() == null) {
+			selectedNoteStep = -1;
 		}
+		repaint();
+		return changes;
 	}
 
 	/**
-	 * This class pairs a sound channel and a list of EditorNote objects
-	 * @author Andrew Wilder
+	 * Split the song into patterns and an order list for exporting
+	 * @return The structure of the song
 	 */
-	private static class EditorChannel {
-
-		/** The variables held by the EditorChannel object */
-		public List<EditorNote> notes = new ArrayList<>();
-		public Channel channel = new Channel();
+	public SongStructure getStructure() {
+		return song.getStructure();
 	}
 }
@@ -0,0 +1,301 @@
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * This class represents the controls for the wave RAM channel
+ * @author Andrew Wilder
+ */
+@SuppressWarnings("serial")
+public class GBATrackerWaveChannelPanel extends JPanel {
+
+	/** Definitions */
+	private static final Integer[] Octaves = {
+		2, 3, 4, 5, 6, 7
+	};
+	private static final String[] Volumes = {
+		"0%", "25%", "50%", "75%", "100%"
+	};
+	private static final String[] Presets = {
+		"Sine", "Triangle", "Saw", "Square"
+	};
+	private static final Dimension PatternEditorSize = new Dimension(160, 64);
+
+	/** Components used by the panel */
+	private JComboBox<String> noteComboBox;
+	private JComboBox<Integer> octaveComboBox;
+	private JComboBox<String> volumeComboBox;
+	private JCheckBox cutoffCheckBox;
+	private JSlider cutoffSlider;
+	private JLabel cutoffLabel;
+	private PatternEditor patternEditor;
+	private static boolean allowUpdates = true;
+
+	/**
+	 * Create the UI for the wave channel modifiers
+	 * @param controller Reference to the main controller
+	 */
+	public GBATrackerWaveChannelPanel(final GBATrackerFrame controller) {
+
+		// Initialize JPanel related properties
+		setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+		setBorder(BorderFactory.createCompoundBorder(
+				BorderFactory.createTitledBorder("Wave Channel"),
+				BorderFactory.createEmptyBorder(5,5,5,5)));
+
+		// ActionListener for updating the selected note
+		ActionListener updateSelectedNoteListener = new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if(allowUpdates) {
+					controller.updateSelectedNote(createNote());
+				}
+			}
+		};
+
+		// Note pitch panel
+		JPanel pitchPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+		pitchPanel.add(new JLabel("Tone:"));
+		noteComboBox = new JComboBox<>(GBATrackerSquareChannelPanel.Notes);
+		noteComboBox.addMouseListener(new MessageMouseListener(controller, "The tone for a note"));
+		noteComboBox.addActionListener(updateSelectedNoteListener);
+		pitchPanel.add(noteComboBox);
+		octaveComboBox = new JComboBox<>(Octaves);
+		octaveComboBox.setSelectedItem(Integer.valueOf(4));
+		octaveComboBox.addMouseListener(new MessageMouseListener(controller, "The octave for a note"));
+		octaveComboBox.addActionListener(updateSelectedNoteListener);
+		pitchPanel.add(octaveComboBox);
+		add(pitchPanel);
+
+		// Volume panel
+		JPanel volumePanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+		volumePanel.add(new JLabel("Volume:"));
+		volumeComboBox = new JComboBox<>(Volumes);
+		volumeComboBox.setSelectedItem("100%");
+		volumeComboBox.addMouseListener(new MessageMouseListener(controller, "Output level of the wave"));
+		volumeComboBox.addActionListener(updateSelectedNoteListener);
+		volumePanel.add(volumeComboBox);
+		add(volumePanel);
+
+		// Cutoff panel
+		JPanel cutoffPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+		cutoffCheckBox = new JCheckBox("Cutoff", false);
+		cutoffCheckBox.addMouseListener(new MessageMouseListener(controller, "Cutoff the note early"));
+		cutoffCheckBox.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				boolean selected = cutoffCheckBox.isSelected();
+				cutoffSlider.setEnabled(selected);
+				cutoffLabel.setText(selected ? String.format("%d ms", ((256 - cutoffSlider.getValue()) * 1000) >> 8) : "");
+				if(allowUpdates) {
+					controller.updateSelectedNote(createNote());
+				}
+			}
+		});
+		cutoffPanel.add(cutoffCheckBox);
+		cutoffSlider = new JSlider(0, 255);
+		cutoffSlider.setValue(0);
+		cutoffSlider.setPreferredSize(new Dimension(80, 20));
+		cutoffSlider.addMouseListener(new MessageMouseListener(controller, "Cutoff time in ms"));
+		cutoffSlider.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent arg0) {
+				cutoffLabel.setText(String.format("%d ms", ((256 - cutoffSlider.getValue()) * 1000) >> 8));
+				if(allowUpdates) {
+					controller.updateSelectedNote(createNote());
+				}
+			}
+		});
+		cutoffSlider.setEnabled(false);
+		cutoffPanel.add(cutoffSlider);
+		cutoffLabel = new JLabel("");
+		cutoffLabel.setPreferredSize(new Dimension(50, 10));
+		cutoffPanel.add(cutoffLabel);
+		add(cutoffPanel);
+
+		// Wave pattern panel
+		JPanel patternPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+		patternEditor = new PatternEditor(controller);
+		patternEditor.setPreferredSize(PatternEditorSize);
+		patternEditor.addMouseListener(new MessageMouseListener(controller, "Draw the 32 samples of the wave"));
+		patternPanel.add(patternEditor);
+		add(patternPanel);
+
+		// Presets panel
+		JPanel presetPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+		presetPanel.add(new JLabel("Preset:"));
+		final JComboBox<String> presetComboBox = new JComboBox<>(Presets);
+		presetComboBox.addMouseListener(new MessageMouseListener(controller, "Replace the wave with a preset"));
+		presetComboBox.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				setPreset((String) presetComboBox.getSelectedItem());
+				if(allowUpdates) {
+					controller.updateSelectedNote(createNote());
+				}
+			}
+		});
+		presetPanel.add(presetComboBox);
+		add(presetPanel);
+		setPreset(Presets[0]);
+
+		// Play note panel
+		JPanel playNotePanel = new JPanel();
+		JButton playNoteButton = new JButton("Test note");
+		playNoteButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				Note note = createNote();
+				note.playSound(true);
+				controller.setTooltipText(note.toString());
+			}
+		});
+		playNoteButton.addMouseListener(new MessageMouseListener(controller, "Test the note sound"));
+		playNotePanel.add(playNoteButton);
+		add(playNotePanel);
+	}
+
+	/**
+	 * Fill the pattern editor with a preset wave
+	 * @param preset The name of the preset
+	 */
+	private void setPreset(String preset) {
+		int[] samples = patternEditor.samples;
+		for(int i = 0; i < samples.length; ++i) {
+			switch(preset) {
+			case "Sine":
+				samples[i] = (int) Math.round(7.5 + 7.5 * Math.sin(2 * Math.PI * i / samples.length));
+				break;
+			case "Triangle":
+				samples[i] = i < 16 ? i : 31 - i;
+				break;
+			case "Saw":
+				samples[i] = i >> 1;
+				break;
+			case "Square":
+				samples[i] = i < 16 ? 15 : 0;
+				break;
+			}
+		}
+		patternEditor.repaint();
+	}
+
+	/**
+	 * Update the UI from a Note object's properties
+	 * @param note The Note object
+	 */
+	public void updateUIFromNote(Note note) {
+		allowUpdates = false;
+		noteComboBox.setSelectedIndex(note.musicalNote);
+		octaveComboBox.setSelectedItem(Integer.valueOf(note.octave));
+		volumeComboBox.setSelectedItem(note.waveVolume + "%");
+		cutoffSlider.setValue(note.cutoffValue);
+		if(note.hasCutoff) {
+			cutoffCheckBox.setSelected(true);
+			cutoffSlider.setEnabled(true);
+		} else {
+			cutoffCheckBox.setSelected(false);
+			cutoffSlider.setEnabled(false);
+		}
+		cutoffLabel.setText(note.hasCutoff ? String.format("%d ms", ((256 - cutoffSlider.getValue()) * 1000) >> 8) : "");
+		System.arraycopy(note.wavePattern, 0, patternEditor.samples, 0, Note.WAVE_SAMPLES);
+		patternEditor.repaint();
+		allowUpdates = true;
+	}
+
+	/**
+	 * Generate a Note object from the selected options
+	 * @return The generated Note object
+	 */
+	public Note createNote() {
+		Note note = Note.createWaveNote();
+		note.musicalNote = noteComboBox.getSelectedIndex();
+		note.octave = (Integer) octaveComboBox.getSelectedItem();
+		String volume = (String) volumeComboBox.getSelectedItem();
+		note.waveVolume = Integer.parseInt(volume.substring(0, volume.length() - 1));
+		note.hasCutoff = cutoffCheckBox.isSelected();
+		note.cutoffValue = cutoffSlider.getValue();
+		System.arraycopy(patternEditor.samples, 0, note.wavePattern, 0, Note.WAVE_SAMPLES);
+		return note;
+	}
+
+	/**
+	 * An editor for the 32 4-bit samples of wave RAM, drawn with the mouse
+	 * @author Andrew Wilder
+	 */
+	private class PatternEditor extends JComponent {
+
+		/** The samples being edited */
+		private final int[] samples = new int[Note.WAVE_SAMPLES];
+
+		/**
+		 * Set up the mouse handling
+		 * @param controller Reference to the main controller
+		 */
+		public PatternEditor(final GBATrackerFrame controller) {
+			MouseAdapter drawListener = new MouseAdapter() {
+				@Override
+				public void mousePressed(MouseEvent e) {
+					draw(e);
+				}
+				@Override
+				public void mouseDragged(MouseEvent e) {
+					draw(e);
+				}
+				@Override
+				public void mouseReleased(MouseEvent e) {
+					if(allowUpdates) {
+						controller.updateSelectedNote(createNote());
+					}
+				}
+			};
+			addMouseListener(drawListener);
+			addMouseMotionListener(drawListener);
+		}
+
+		/**
+		 * Set the sample under the mouse
+		 * @param e The mouse event
+		 */
+		private void draw(MouseEvent e) {
+			int i = e.getX() * samples.length / Math.max(getWidth(), 1);
+			if(i >= 0 && i < samples.length) {
+				samples[i] = Math.max(0, Math.min(15, 15 - e.getY() * 16 / Math.max(getHeight(), 1)));
+				repaint();
+			}
+		}
+
+		/**
+		 * Draw the samples as bars
+		 */
+		@Override
+		public void paintComponent(Graphics g) {
+			g.setColor(Color.BLACK);
+			g.fillRect(0, 0, getWidth(), getHeight());
+			g.setColor(Color.CYAN);
+			for(int i = 0; i < samples.length; ++i) {
+				int x = i * getWidth() / samples.length;
+				int w = (i + 1) * getWidth() / samples.length - x;
+				int h = (samples[i] + 1) * getHeight() / 16;
+				g.fillRect(x, getHeight() - h, Math.max(w - 1, 1), h);
+			}
+		}
+	}
+}
@@ -0,0 +1,433 @@
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+/**
+ * This class converts a Standard MIDI File into a song. Chosen tracks are
+ * mapped to the square and noise channels, and their notes are quantized to
+ * 48ths. Tracks are streamed from the file's bytes rather than loaded as a
+ * Sequence, notes with the same sound share one Note object, and nothing is
+ * rendered until the song is played.
+ * @author Andrew Wilder
+ */
+public class MidiImporter {
+
+	/** Definitions */
+	private static final int STEPS_PER_QUARTER = 12;
+	private static final int META_EVENT = 0xFF;
+	private static final int META_TRACK_NAME = 0x03;
+	private static final int META_TEMPO = 0x51;
+	private static final int DRUM_CHANNEL = 9;
+	private static final int MIN_OCTAVE = 2;
+	private static final int MAX_OCTAVE = 7;
+	private static final int DEFAULT_BPM = 120;
+	private static final int IMPORTED_CHANNELS = 3; // Channel 1, channel 2 and noise
+
+	/** The file being imported, and where each of its tracks starts and ends */
+	private final byte[] data;
+	private final List<int[]> trackChunks = new ArrayList<>();
+	private final double stepsPerTick;
+	private final int bpm;
+	private final List<TrackInfo> tracks = new ArrayList<>();
+
+	/**
+	 * A summary of a MIDI track, for choosing which channel plays it
+	 * @author Andrew Wilder
+	 */
+	public static class TrackInfo {
+
+		/** The track index, name and contents */
+		public final int index;
+		public final String name;
+		public final int noteCount;
+		public final boolean isDrums;
+
+		/**
+		 * Create a track summary
+		 */
+		public TrackInfo(int index, String name, int noteCount, boolean isDrums) {
+			this.index = index;
+			this.name = name;
+			this.noteCount = noteCount;
+			this.isDrums = isDrums;
+		}
+
+		/**
+		 * Describe the track in a list of choices
+		 */
+		@Override
+		public String toString() {
+			return String.format("%d: %s (%d notes%s)", index + 1, name, noteCount, isDrums ? ", drums" : "");
+		}
+	}
+
+	/**
+	 * This class reads the events of a track chunk one at a time, straight
+	 * from the file's bytes, so no MidiEvent objects are created
+	 * @author Andrew Wilder
+	 */
+	private class TrackReader {
+
+		/** Where the reader is in the chunk */
+		private int pos;
+		private final int end;
+		private int runningStatus = 0;
+
+		/** The last event read: its tick, status byte and data, or its meta type and data */
+		long tick = 0;
+		int status, data1, data2;
+		int metaType, metaOffset, metaLength;
+
+		/**
+		 * Create a reader for a track
+		 * @param track The track index
+		 */
+		TrackReader(int track) {
+			pos = trackChunks.get(track)[0];
+			end = trackChunks.get(track)[1];
+		}
+
+		/**
+		 * Read the next byte of the track
+		 * @return The byte, from 0 to 255
+		 * @throws InvalidMidiDataException If the track ends first
+		 */
+		private int readByte() throws InvalidMidiDataException {
+			if(pos >= end) {
+				throw new InvalidMidiDataException("Truncated track");
+			}
+			return data[pos++] & 0xFF;
+		}
+
+		/**
+		 * Read a variable-length quantity
+		 * @return The value
+		 */
+		private int readVariableLength() throws InvalidMidiDataException {
+			int value = 0;
+			int b;
+			do {
+				b = readByte();
+				value = (value << 7) | (b & 0x7F);
+			} while((b & 0x80) != 0);
+			return value;
+		}
+
+		/**
+		 * Read the next event
+		 * @return False at the end of the track
+		 * @throws InvalidMidiDataException If the track is corrupted
+		 */
+		boolean next() throws InvalidMidiDataException {
+			if(pos >= end) {
+				return false;
+			}
+			tick += readVariableLength();
+			int b = readByte();
+			if(b >= 0x80) {
+				status = b;
+			} else if(runningStatus != 0) {
+				--pos; // The byte is the first data byte
+				status = runningStatus;
+			} else {
+				throw new InvalidMidiDataException("Data byte without a status");
+			}
+			if(status == META_EVENT) {
+				metaType = readByte();
+				metaLength = readVariableLength();
+				metaOffset = pos;
+				pos += metaLength;
+			} else if(status == SysexMessage.SYSTEM_EXCLUSIVE || status == SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE) {
+				runningStatus = 0; // SysEx cancels the running status
+				pos += readVariableLength();
+			} else {
+				runningStatus = status;
+				data1 = readByte() & 0x7F;
+				int command = status & 0xF0;
+				if(command != ShortMessage.PROGRAM_CHANGE && command != ShortMessage.CHANNEL_PRESSURE) {
+					data2 = readByte() & 0x7F;
+				}
+			}
+			if(pos > end) {
+				throw new InvalidMidiDataException("Truncated track");
+			}
+			return true;
+		}
+
+		/**
+		 * Check if the last event started a note
+		 */
+		boolean isNoteOn() {
+			return (status & 0xF0) == ShortMessage.NOTE_ON && data2 > 0;
+		}
+
+		/**
+		 * Check if the last event ended a note
+		 */
+		boolean isNoteOff() {
+			return (status & 0xF0) == ShortMessage.NOTE_OFF || ((status & 0xF0) == ShortMessage.NOTE_ON && data2 == 0);
+		}
+
+		/**
+		 * Get the MIDI channel of the last event
+		 */
+		int getChannel() {
+			return status & 0x0F;
+		}
+	}
+
+	/**
+	 * Read a MIDI file, and summarize its tracks
+	 * @param file The MIDI file
+	 * @throws InvalidMidiDataException If the file is not a Standard MIDI File
+	 * @throws IOException If the file can't be read
+	 */
+	public MidiImporter(File file) throws InvalidMidiDataException, IOException {
+		data = Files.readAllBytes(file.toPath());
+
+		// The header gives the timing, and is followed by the chunks
+		if(data.length < 14 || readInt(0) != 0x4D546864) { // "MThd"
+			throw new InvalidMidiDataException("Not a Standard MIDI File");
+		}
+		int division = readShort(12);
+		if(division == 0) {
+			throw new InvalidMidiDataException("No timing division");
+		}
+		int pos = 8 + readInt(4);
+		while(pos >= 8 && pos + 8 <= data.length) {
+			int length = readInt(pos + 4);
+			if(length < 0) {
+				throw new InvalidMidiDataException("Corrupted chunk");
+			}
+			if(readInt(pos) == 0x4D54726B) { // "MTrk"
+				trackChunks.add(new int[] {pos + 8, Math.min(data.length, pos + 8 + length)});
+			}
+			pos += 8 + length;
+		}
+
+		// Summarize the tracks, and find the tempo
+		int tempo = 0;
+		for(int t = 0; t < trackChunks.size(); ++t) {
+			TrackReader reader = new TrackReader(t);
+			String name = "Track " + (t + 1);
+			int noteCount = 0, drumCount = 0;
+			while(reader.next()) {
+				if(reader.isNoteOn()) {
+					++noteCount;
+					if(reader.getChannel() == DRUM_CHANNEL) {
+						++drumCount;
+					}
+				} else if(reader.status == META_EVENT) {
+					if(reader.metaType == META_TRACK_NAME && reader.metaLength > 0) {
+						name = new String(data, reader.metaOffset, reader.metaLength, "ISO-8859-1").trim();
+					} else if(reader.metaType == META_TEMPO && reader.metaLength == 3 && tempo == 0) {
+						tempo = (readShort(reader.metaOffset) << 8) | (data[reader.metaOffset + 2] & 0xFF);
+					}
+				}
+			}
+			tracks.add(new TrackInfo(t, name, noteCount, noteCount > 0 && drumCount * 2 > noteCount));
+		}
+		bpm = tempo > 0 ? (int) Math.round(60000000.0 / tempo) : DEFAULT_BPM;
+		if((division & 0x8000) == 0) {
+			stepsPerTick = (double) STEPS_PER_QUARTER / division;
+		} else {
+			// SMPTE timing counts ticks per second, and a step lasts 5 / BPM seconds
+			int framesPerSecond = -(byte) (division >> 8);
+			stepsPerTick = bpm / 5.0 / (framesPerSecond * (division & 0xFF));
+		}
+	}
+
+	/**
+	 * Read a big-endian 32-bit value from the file
+	 */
+	private int readInt(int pos) {
+		return (readShort(pos) << 16) | readShort(pos + 2);
+	}
+
+	/**
+	 * Read a big-endian 16-bit value from the file
+	 */
+	private int readShort(int pos) {
+		return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+	}
+
+	/**
+	 * Get the tracks of the file
+	 * @return The track summaries, in file order
+	 */
+	public List<TrackInfo> getTracks() {
+		return tracks;
+	}
+
+	/**
+	 * Get the tempo of the song, from the first tempo change in the file
+	 * @return The beats per minute
+	 */
+	public int getBPM() {
+		return bpm;
+	}
+
+	/**
+	 * Convert the chosen tracks into a song
+	 * @param title The title of the song
+	 * @param channelTracks The track index for channel 1, channel 2 and noise, or -1 to leave the channel empty
+	 * @return The song
+	 * @throws InvalidMidiDataException If a track is corrupted
+	 */
+	public Song createSong(String title, int[] channelTracks) throws InvalidMidiDataException {
+		Song song = new Song();
+		song.title = title;
+		song.bpm = "" + bpm;
+		song.looping = false;
+		int endStep = 0;
+		for(int i = 0; i < IMPORTED_CHANNELS; ++i) {
+			if(channelTracks[i] >= 0) {
+				List<EditorNote> notes = importTrack(channelTracks[i], i);
+				song.replaceNotes(i, new BitSet(), notes);
+				if(!notes.isEmpty()) {
+					endStep = Math.max(endStep, notes.get(notes.size() - 1).step + 1);
+				}
+			}
+		}
+
+		// End the song after the measure with the last note
+		song.endStep = Math.max(1, (endStep + SongStructure.PATTERN_LENGTH - 1) / SongStructure.PATTERN_LENGTH) * SongStructure.PATTERN_LENGTH;
+		song.loopStep = 0;
+		return song;
+	}
+
+	/**
+	 * Quantize the notes of a track for one channel. Where notes start on the
+	 * same step, the highest key is kept, as the channels play one note at a time.
+	 * @param track The track index
+	 * @param channel The channel index
+	 * @return The notes, in step order
+	 * @throws InvalidMidiDataException If the track is corrupted
+	 */
+	private List<EditorNote> importTrack(int track, int channel) throws InvalidMidiDataException {
+		TreeMap<Integer, int[]> steps = new TreeMap<>(); // {key, velocity, length}
+		Map<Integer, long[]> held = new HashMap<>(); // {tick, key, velocity}
+		TrackReader reader = new TrackReader(track);
+		while(reader.next()) {
+			int id = (reader.getChannel() << 7) | reader.data1;
+			if(reader.isNoteOn()) {
+				held.put(id, new long[] {reader.tick, reader.data1, reader.data2});
+			} else if(reader.isNoteOff()) {
+				long[] on = held.remove(id);
+				if(on != null) {
+					addNote(steps, on, reader.tick);
+				}
+			}
+		}
+		for(long[] on : held.values()) {
+			addNote(steps, on, on[0] + Math.round(STEPS_PER_QUARTER / stepsPerTick));
+		}
+
+		// Create the Notes, sharing one Note between all notes with the same registers
+		Map<Long, Note> interned = new HashMap<>();
+		List<EditorNote> notes = new ArrayList<>();
+		for(Map.Entry<Integer, int[]> e : steps.entrySet()) {
+			int[] n = e.getValue();
+			Note note = channel < 2 ? createSquareNote(n[0], n[1], n[2]) : createNoiseNote(n[0], n[1], n[2]);
+			long key = ((long) note.getSWP() << 32) | ((long) note.getENV() << 16) | note.getFRQ();
+			Note shared = interned.get(key);
+			if(shared == null) {
+				interned.put(key, note);
+				shared = note;
+			}
+			notes.add(new EditorNote(shared, e.getKey()));
+		}
+		return notes;
+	}
+
+	/**
+	 * Quantize a note, keeping it if it is the highest note on its step
+	 * @param steps The notes found so far, by step
+	 * @param on The note's start tick, key and velocity
+	 * @param offTick The tick the note ends on
+	 */
+	private void addNote(TreeMap<Integer, int[]> steps, long[] on, long offTick) {
+		int step = tickToStep(on[0]);
+		int length = Math.max(1, tickToStep(offTick) - step);
+		int[] existing = steps.get(step);
+		if(existing == null || existing[0] < on[1]) {
+			steps.put(step, new int[] {(int) on[1], (int) on[2], length});
+		}
+	}
+
+	/**
+	 * Convert a MIDI tick to the nearest 48th
+	 * @param tick The tick
+	 * @return The step
+	 */
+	private int tickToStep(long tick) {
+		return (int) Math.round(tick * stepsPerTick);
+	}
+
+	/**
+	 * Get the Note volume for a MIDI velocity
+	 * @param velocity The velocity, 1 to 127
+	 * @return The volume, 1 to 15
+	 */
+	private static int toVolume(int velocity) {
+		return Math.max(1, (velocity * 15 + 63) / 127);
+	}
+
+	/**
+	 * Create a square channel Note for a MIDI note. Short notes use the sound
+	 * length, and longer ones fade out with the envelope over their length.
+	 * @param key The MIDI key, where 60 is middle C
+	 * @param velocity The velocity
+	 * @param length The length of the note, in steps
+	 * @return The Note, which is not rendered
+	 */
+	private Note createSquareNote(int key, int velocity, int length) {
+		Note note = new Note(true);
+		note.musicalNote = key % 12;
+		note.octave = Math.min(MAX_OCTAVE, Math.max(MIN_OCTAVE, key / 12 - 1));
+		note.dutyCycle = 0.5;
+		note.volume = toVolume(velocity);
+		double seconds = length * 5.0 / bpm;
+		if(seconds < 0.25) {
+			// Sound length is (64 - n) / 256 seconds
+			note.hasCutoff = true;
+			note.cutoffValue = 64 - Math.max(1, (int) Math.round(seconds * 256));
+		} else {
+			// Each envelope step of n lowers the volume once every n / 64 seconds
+			int envelopeStep = (int) Math.ceil(seconds * 64 / note.volume);
+			note.envelopeStep = envelopeStep <= 7 ? envelopeStep : 0;
+		}
+		return note;
+	}
+
+	/**
+	 * Create a noise channel Note for a MIDI note. Higher keys give higher
+	 * pitched noise, and the note fades out over its length.
+	 * @param key The MIDI key
+	 * @param velocity The velocity
+	 * @param length The length of the note, in steps
+	 * @return The Note, which is not rendered
+	 */
+	private Note createNoiseNote(int key, int velocity, int length) {
+		Note note = new Note(false);
+		note.volume = toVolume(velocity);
+		note.dividingRatio = 0.5;
+		note.shiftClockFrequency = Math.min(13, Math.max(0, (84 - key) / 4));
+		note.counterStepIs15Bits = true;
+		double seconds = length * 5.0 / bpm;
+		note.envelopeStep = Math.min(7, Math.max(1, (int) Math.ceil(seconds * 64 / note.volume)));
+		return note;
+	}
+}
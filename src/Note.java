@@ -1,5 +1,7 @@
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class represents the properties of a note
@@ -13,9 +15,24 @@ public class Note {
 		8013, 7566, 7144, 6742, 6362, 6005, 5666, 5346, 5048, 4766, 4499, 4246
 	};
 
+	/** Wave channel definitions */
+	public static final int WAVE_SAMPLES = 32;
+	public static final int WAVE_CONTROL_PLAY = 0x0080; // One 32 sample bank, bank 0, playing
+	private static final int[] WaveVolumes = {
+		0, 100, 50, 25
+	};
+	private static final Map<String, byte[]> waveTables = new ConcurrentHashMap<>();
+
 	/** Vars used for playing sounds */
-	private static Channel testChannel = new Channel();
-	private int[] hash = new int[4];
+	public static final int BUFFER_SECONDS = 3;
+	public static final int ENVELOPE_HZ = 64; // Envelope steps per second at a step length of 1
+	public static final int SWEEP_HZ = 128; // Sweep steps per second at a step time of 1
+	public static final int FINAL_OVERSAMPLING = 4; // Rendered at 192 kHz for the final mixdown
+	private static NoteAuditioner auditioner = new NoteAuditioner(new Channel());
+	private int[] hash = new int[9];
+
+	/** The oversampled samples of the note each thread is rendering for the final mixdown */
+	private static final ThreadLocal<byte[]> oversampledBufs = new ThreadLocal<>();
 
 	/** Used for noise generation */
 	private static Random rand = new Random(0); // deterministic
@@ -43,6 +60,12 @@ public class Note {
 	public int shiftClockFrequency;
 	public boolean counterStepIs15Bits;
 
+	/** Wave channel properties (musicalNote and octave are shared with square) */
+	public boolean isWaveType;
+	public int waveControl = WAVE_CONTROL_PLAY;
+	public int waveVolume; // percent
+	public int[] wavePattern = null; // 4-bit samples, only for wave Notes
+
 	/**
 	 * Empty constructor provided
 	 */
@@ -51,6 +74,26 @@ public class Note {
 		this.isSquareType = isSquareType;
 	}
 
+	/**
+	 * Construct an empty wave channel note
+	 * @return The Note
+	 */
+	public static Note createWaveNote() {
+		Note note = new Note(false);
+		note.isWaveType = true;
+		note.wavePattern = new int[WAVE_SAMPLES];
+		return note;
+	}
+
+	/**
+	 * Check if two Notes are for the same kind of channel
+	 * @param other The other Note
+	 * @return True if both are square, noise or wave Notes
+	 */
+	public boolean isSameType(Note other) {
+		return isSquareType == other.isSquareType && isWaveType == other.isWaveType;
+	}
+
 	/**
 	 * Update the Note's hash on rendering the buffer
 	 */
@@ -59,6 +102,10 @@ public class Note {
 		hash[1] = getENV();
 		hash[2] = getFRQ();
 		hash[3] = hasSweep ? 1 : 0;
+		for(int i = 0; i < 4; ++i) {
+			hash[4 + i] = getWaveWord(i);
+		}
+		hash[8] = Channel.getSampleRate();
 	}
 
 	/**
@@ -66,7 +113,9 @@ public class Note {
 	 * @return true if the Note was unchanged
 	 */
 	private boolean checkHash(boolean hasSweep) {
-		return hash[0] == getSWP() && hash[1] == getENV() && hash[2] == getFRQ() && hash[3] == (hasSweep ? 1 : 0);
+		return hash[0] == getSWP() && hash[1] == getENV() && hash[2] == getFRQ() && hash[3] == (hasSweep ? 1 : 0)
+				&& hash[4] == getWaveWord(0) && hash[5] == getWaveWord(1) && hash[6] == getWaveWord(2) && hash[7] == getWaveWord(3)
+				&& hash[8] == Channel.getSampleRate();
 	}
 
 	/**
@@ -76,7 +125,66 @@ public class Note {
 	 * @param FRQ Frequency
 	 */
 	public Note(int SWP, int ENV, int FRQ, boolean hasSweep) {
-		isSquareType = true;
+		this(true);
+		setSquareRegisters(SWP, ENV, FRQ);
+		prepareBuf(hasSweep); // Render notes while loading
+	}
+
+	/**
+	 * Construct a noise channel note
+	 * @param ENV Envelope
+	 * @param FRQ Frequency
+	 */
+	public Note(int ENV, int FRQ) {
+		this(false);
+		setNoiseRegisters(ENV, FRQ);
+		prepareBuf(true);
+	}
+
+	/**
+	 * Construct a wave channel note
+	 * @param CNT_L Wave RAM control (SND3CNT_L)
+	 * @param CNT_H Length and volume (SND3CNT_H)
+	 * @param CNT_X Frequency (SND3CNT_X)
+	 * @param waveWords The wave RAM pattern, as four 32-bit words
+	 */
+	public Note(int CNT_L, int CNT_H, int CNT_X, int[] waveWords) {
+		this(false);
+		setWaveRegisters(CNT_L, CNT_H, CNT_X, waveWords);
+		prepareBuf(true);
+	}
+
+	/**
+	 * Create a Note from the registers of a channel without rendering it, so
+	 * it can be compared with Notes that have already been rendered
+	 * @param channel The channel index
+	 * @param registers SWP, ENV and FRQ for square channels, ENV and FRQ for
+	 * the noise channel, or CNT_L, CNT_H, CNT_X and the four wave RAM words
+	 * for the wave channel
+	 * @return The Note
+	 */
+	static Note fromRegisters(int channel, int[] registers) {
+		Note note;
+		if(Song.isWaveChannel(channel)) {
+			note = createWaveNote();
+			note.setWaveRegisters(registers[0], registers[1], registers[2], Arrays.copyOfRange(registers, 3, 7));
+		} else if(Song.isSquareChannel(channel)) {
+			note = new Note(true);
+			note.setSquareRegisters(registers[0], registers[1], registers[2]);
+		} else {
+			note = new Note(false);
+			note.setNoiseRegisters(registers[0], registers[1]);
+		}
+		return note;
+	}
+
+	/**
+	 * Set the fields of a square channel note
+	 * @param SWP Sweep
+	 * @param ENV Envelope
+	 * @param FRQ Frequency
+	 */
+	private void setSquareRegisters(int SWP, int ENV, int FRQ) {
 		volume = (ENV >> 12) & 0xF;
 		envelopeStep = (ENV >> 8) & 7;
 		increasingEnvelope = ((ENV >> 11) & 1) == 1;
@@ -103,16 +211,14 @@ public class Note {
 		int steps = (int) Math.round(Math.log(freq / 440) / Math.log(2) * 12) + 33;
 		musicalNote = steps % 12;
 		octave = steps / 12 + 2;
-		hash[2] = 0;
-		prepareBuf(hasSweep); // Render notes while loading
 	}
 
 	/**
-	 * Construct a noise channel note
+	 * Set the fields of a noise channel note
 	 * @param ENV Envelope
 	 * @param FRQ Frequency
 	 */
-	public Note(int ENV, int FRQ) {
+	private void setNoiseRegisters(int ENV, int FRQ) {
 		volume = (ENV >> 12) & 0xF;
 		envelopeStep = (ENV >> 8) & 7;
 		increasingEnvelope = ((ENV >> 11) & 1) == 1;
@@ -121,158 +227,156 @@ public class Note {
 		hasCutoff = ((FRQ >> 14) & 1) == 1;
 		shiftClockFrequency = (FRQ >> 4) & 0xF;
 		counterStepIs15Bits = ((FRQ >> 3) & 1) == 0;
-		hash[2] = 0;
-		prepareBuf(true);
+	}
+
+	/**
+	 * Set the fields of a wave channel note
+	 * @param CNT_L Wave RAM control (SND3CNT_L)
+	 * @param CNT_H Length and volume (SND3CNT_H)
+	 * @param CNT_X Frequency (SND3CNT_X)
+	 * @param waveWords The wave RAM pattern, as four 32-bit words
+	 */
+	private void setWaveRegisters(int CNT_L, int CNT_H, int CNT_X, int[] waveWords) {
+		isWaveType = true;
+		waveControl = CNT_L;
+		cutoffValue = CNT_H & 0xFF;
+		if(((CNT_H >> 15) & 1) == 1) {
+			waveVolume = 75;
+		} else {
+			waveVolume = WaveVolumes[(CNT_H >> 13) & 3];
+		}
+		hasCutoff = ((CNT_X >> 14) & 1) == 1;
+		double freq = 65536.0 / (2048 - (CNT_X & 0x7FF));
+		int steps = (int) Math.round(Math.log(freq / 440) / Math.log(2) * 12) + 33;
+		musicalNote = steps % 12;
+		octave = steps / 12 + 2;
+		if(wavePattern == null) {
+			wavePattern = new int[WAVE_SAMPLES];
+		}
+		for(int i = 0; i < WAVE_SAMPLES; ++i) {
+			wavePattern[i] = (waveWords[i >> 3] >>> (((i >> 1) & 3) * 8 + ((i & 1) == 0 ? 4 : 0))) & 0xF;
+		}
+	}
+
+	/**
+	 * Copy this Note, so it can be changed without changing other places the
+	 * Note is used. The rendered buffer is shared until the copy is changed.
+	 * @return The copy
+	 */
+	public synchronized Note copy() {
+		Note note = new Note(isSquareType);
+		note.isWaveType = isWaveType;
+		note.volume = volume;
+		note.envelopeStep = envelopeStep;
+		note.increasingEnvelope = increasingEnvelope;
+		note.hasCutoff = hasCutoff;
+		note.cutoffValue = cutoffValue;
+		note.musicalNote = musicalNote;
+		note.octave = octave;
+		note.dutyCycle = dutyCycle;
+		note.sweepRate = sweepRate;
+		note.sweepStep = sweepStep;
+		note.increasingSweep = increasingSweep;
+		note.dividingRatio = dividingRatio;
+		note.shiftClockFrequency = shiftClockFrequency;
+		note.counterStepIs15Bits = counterStepIs15Bits;
+		note.waveControl = waveControl;
+		note.waveVolume = waveVolume;
+		note.wavePattern = wavePattern == null ? null : wavePattern.clone();
+		note.buf = buf;
+		note.hash = hash.clone();
+		return note;
 	}
 
 	/**
 	 * Populate the sound buffer
 	 */
-	void prepareBuf(boolean hasSweep) {
+	synchronized void prepareBuf(boolean hasSweep) {
 
 		// Don't re-render this note if the hash matches
 		if(checkHash(hasSweep)) {
+			TrackerMetrics.get().recordRenderCacheHit();
 			return;
 		} else {
 			updateHash(hasSweep);
-			buf = new byte[3 * 48000];
 		}
+		long start = System.nanoTime();
+		buf = new byte[getBufferLength(Channel.getSampleRate())];
+		int len = new Renderer(this, hasSweep).render(buf, buf.length);
+		if(len < buf.length) {
+			// Reduce space of the buffer if the note ended early
+			buf = Arrays.copyOf(buf, len);
+		}
+		TrackerMetrics.get().recordRender(System.nanoTime() - start);
+	}
 
-		// Differentiate between square or noise notes
-		if(isSquareType) {
-			boolean pitchOutOfRange = false;
-			double phaseAdjust = 0;
-			int currVolume = volume;
-
-			// Get the wavelength of the wave form
-			double freq = 440 * Math.pow(2, (musicalNote - 9 + (octave - 4) * 12) / 12.0);
-			double wavelength = 48000 / freq;
-
-			// Fill in the samples
-			for(int i = 0; i < buf.length; ++i) {
-
-				// Adjust frequency if sweeping
-				if(hasSweep && i > 0 && sweepStep > 0 && i % (sweepStep * 375) == 0) {
-					double n = 2048 - 131072 / freq;
-					double delta = n / Math.pow(2, sweepRate);
-					n = increasingSweep ? n + delta : n - delta;
-					if(n < 0 || n > 2047) {
-						pitchOutOfRange = true;
-					}
-					freq = 131072 / (2048 - n);
-					wavelength = 48000 / freq;
-					phaseAdjust = i % wavelength;
-				}
-
-				// Adjust envelope volume
-				if(i > 0 && envelopeStep > 0 && i % (envelopeStep * 750) == 0) {
-					if(increasingEnvelope) {
-						if(currVolume < 15) {
-							++currVolume;
-						}
-					} else {
-						if(currVolume > 0) {
-							if(--currVolume == 0) {
-								// Reduce space of the buffer if zero volume
-								buf = Arrays.copyOf(buf, i);
-								return;
-							}
-						}
-					}
-				}
-
-				// Determine sample amplitude by volume
-				byte amplitude = (byte) (127 * PLAYER_VOLUME * currVolume / 15);
-				if(pitchOutOfRange || hasCutoff && i / 48000.0 > (64 - cutoffValue) / 256.0) {
-					// Reduce space of the buffer if cut off
-					buf = Arrays.copyOf(buf, i);
-					return;
-				}
+	/**
+	 * Render the Note at a multiple of the output rate and filter it down to
+	 * the output rate, for a mixdown without aliasing. The result is not kept,
+	 * so editing and playback still use the quick buffer from prepareBuf.
+	 * @param hasSweep Whether the channel allows sweeping
+	 * @return The samples at the output rate
+	 */
+	byte[] renderOversampled(boolean hasSweep) {
+		Decimator decimator = Decimator.get(FINAL_OVERSAMPLING);
+		int length = getBufferLength(Channel.getSampleRate() * FINAL_OVERSAMPLING);
+		byte[] oversampled = oversampledBufs.get();
+		if(oversampled == null || oversampled.length != length) {
+			oversampled = new byte[length];
+			oversampledBufs.set(oversampled);
+		}
+		int len = new Renderer(this, hasSweep, FINAL_OVERSAMPLING).render(oversampled, oversampled.length);
+		byte[] out = new byte[decimator.getOutputLength(len)];
+		decimator.decimate(oversampled, len, out);
+		return out;
+	}
 
-				// Determine high or low by duty cycle
-				double phase = (i - phaseAdjust) % wavelength;
-				if(phase / wavelength < dutyCycle) {
-					buf[i] = amplitude;
-				} else {
-					buf[i] = (byte) -amplitude;
-				}
-			}
-		} else {
-			int X = 0;
-			int currVolume = volume;
-			boolean high = true;
-
-			// Get the wavelength for one period of noise step
-			double freq = 524288 / dividingRatio / Math.pow(2, shiftClockFrequency + 1);
-			double wavelength = 48000 / freq;
-
-			// Fill in the samples
-			for(int i = 0; i < buf.length; ++i) {
-
-				// Adjust envelope volume
-				if(i > 0 && envelopeStep > 0 && i % (envelopeStep * 750) == 0) {
-					if(increasingEnvelope) {
-						if(currVolume < 15) {
-							++currVolume;
-						}
-					} else {
-						if(currVolume > 0) {
-							if(--currVolume == 0) {
-								// Reduce space of the buffer if zero volume
-								buf = Arrays.copyOf(buf, i);
-								return;
-							}
-						}
-					}
-				}
+	/**
+	 * Get the length of the longest note
+	 * @param rate The sample rate in Hz
+	 * @return The length in samples
+	 */
+	static int getBufferLength(int rate) {
+		return BUFFER_SECONDS * rate;
+	}
 
-				// At each step, determine if the waveform should switch
-				double phase = i % wavelength;
-				if(i > 0 && phase < 1.0) {
-					high = rands[X];
-					if(++X == (counterStepIs15Bits ? 0x7FFF : 0x7F)) {
-						X = 0;
-					}
-				}
+	/**
+	 * Get the rendered sound buffer
+	 * @return The samples, or null if the Note has not been rendered
+	 */
+	synchronized byte[] getBuf() {
+		return buf;
+	}
 
-				// Determine sample amplitude by volume
-				byte amplitude = (byte) (127 * PLAYER_VOLUME * currVolume / 15);
-				if(hasCutoff && i / 48000.0 > (64 - cutoffValue) / 256.0) {
-					// Reduce space of the buffer if cut off
-					buf = Arrays.copyOf(buf, i);
-					return;
-				}
-				
-				// High or low depending on randomization vector
-				if(high) {
-					buf[i] = amplitude;
-				} else {
-					buf[i] = (byte) -amplitude;
-				}
-			}
+	/**
+	 * Use a buffer rendered elsewhere, if the Note has not changed since
+	 * @param newBuf The rendered samples
+	 * @param hasSweep Whether the buffer was rendered with sweep
+	 * @param registers The register values the buffer was rendered from
+	 * @param rate The sample rate the buffer was rendered at
+	 */
+	synchronized void adoptBuf(byte[] newBuf, boolean hasSweep, int[] registers, int rate) {
+		if(Arrays.equals(registers, getRegisters()) && rate == Channel.getSampleRate()) {
+			buf = newBuf;
+			updateHash(hasSweep);
 		}
 	}
 
 	/**
-	 * Play the sound buffer
+	 * Get all of the register values that determine this Note's sound
+	 * @return SWP, ENV, FRQ and the four wave RAM words
 	 */
-	void playBuf(final Channel channel) {
-		new Thread() {
-			@Override
-			public void run() {
-				channel.line.flush();
-				channel.line.write(buf, 0, buf.length);
-			}
-		}.start();
+	int[] getRegisters() {
+		return new int[] {getSWP(), getENV(), getFRQ(), getWaveWord(0), getWaveWord(1), getWaveWord(2), getWaveWord(3)};
 	}
 
 	/**
-	 * Utility function for preparing and playing the buffer
+	 * Utility function for auditioning the note while editing. Requests are
+	 * coalesced, so only the latest note is rendered and played.
 	 * @param hasSweep
 	 */
 	void playSound(boolean hasSweep) {
-		prepareBuf(hasSweep);
-		playBuf(testChannel);
+		auditioner.submit(this, hasSweep);
 	}
 
 	/**
@@ -289,6 +393,9 @@ public class Note {
 	 * @return The sweep value in GBA format
 	 */
 	public int getSWP() {
+		if(isWaveType) {
+			return waveControl;
+		}
 		return sweepRate | ((increasingSweep ? 0 : 1) << 3) | (sweepStep << 4);
 	}
 
@@ -297,6 +404,26 @@ public class Note {
 	 * @return The envelope value in GBA format
 	 */
 	public int getENV() {
+		if(isWaveType) {
+			int volumeBits;
+			switch(waveVolume) {
+			case 100:
+				volumeBits = 1 << 13;
+				break;
+			case 75:
+				volumeBits = 1 << 15;
+				break;
+			case 50:
+				volumeBits = 2 << 13;
+				break;
+			case 25:
+				volumeBits = 3 << 13;
+				break;
+			default:
+				volumeBits = 0;
+			}
+			return cutoffValue | volumeBits;
+		}
 		return cutoffValue | ((int) (dutyCycle * 4) << 6) | (envelopeStep << 8) | ((increasingEnvelope ? 1 : 0) << 11) | (volume << 12);
 	}
 
@@ -308,11 +435,50 @@ public class Note {
 		int FRQ = 0x8000 | ((hasCutoff ? 1 : 0) << 14);
 		if(isSquareType) {
 			return FRQ | (2048 - (NoteFrequencies[musicalNote] >> octave));
+		} else if(isWaveType) {
+			// The wave channel plays 32 samples per period, so it sounds an octave lower
+			return FRQ | (2048 - (NoteFrequencies[musicalNote] >> (octave + 1)));
 		} else {
 			return FRQ | ((int) dividingRatio) | ((counterStepIs15Bits ? 0 : 1) << 3) | (shiftClockFrequency << 4);
 		}
 	}
 
+	/**
+	 * Get a word of the wave RAM pattern for this Note
+	 * @param index The word, 0 to 3
+	 * @return The samples in GBA wave RAM format, or 0 for Notes of other channels
+	 */
+	public int getWaveWord(int index) {
+		if(wavePattern == null) {
+			return 0;
+		}
+		int word = 0;
+		for(int i = 0; i < 8; ++i) {
+			word |= (wavePattern[index * 8 + i] & 0xF) << (((i >> 1) * 8) + ((i & 1) == 0 ? 4 : 0));
+		}
+		return word;
+	}
+
+	/**
+	 * Get the output levels for a wave pattern at a volume. Tables are shared
+	 * between Notes, so rendering a wave note is a lookup per sample.
+	 * @param note The wave Note
+	 * @return The 32 sample amplitudes
+	 */
+	private static byte[] getWaveTable(Note note) {
+		String key = String.format("%08X%08X%08X%08X/%d", note.getWaveWord(0), note.getWaveWord(1), note.getWaveWord(2),
+				note.getWaveWord(3), note.waveVolume);
+		byte[] table = waveTables.get(key);
+		if(table == null) {
+			table = new byte[WAVE_SAMPLES];
+			for(int i = 0; i < WAVE_SAMPLES; ++i) {
+				table[i] = (byte) (127 * PLAYER_VOLUME * note.waveVolume / 100 * (2 * note.wavePattern[i] - 15) / 15);
+			}
+			waveTables.put(key, table);
+		}
+		return table;
+	}
+
 	/**
 	 * Print the register values corresponding to this note
 	 * @return The sound values for GBA
@@ -324,8 +490,278 @@ public class Note {
 		if(isSquareType) {
 			int SWP = getSWP();
 			return String.format("SWP: 0x%04X  ENV: 0x%04X  FRQ: 0x%04X", SWP, ENV, FRQ);
+		} else if(isWaveType) {
+			return String.format("CNT_L: 0x%04X  CNT_H: 0x%04X  CNT_X: 0x%04X  WAVE: %08X %08X %08X %08X", getSWP(), ENV, FRQ,
+					getWaveWord(0), getWaveWord(1), getWaveWord(2), getWaveWord(3));
 		} else {
 			return String.format("ENV: 0x%04X  FRQ: 0x%04X", ENV, FRQ);
 		}
 	}
+
+	/**
+	 * This class renders a Note's samples incrementally, so that the start of
+	 * a note can be played before the rest of it has been rendered. The Note's
+	 * properties are copied on construction, so the Note may be edited while
+	 * rendering is in progress.
+	 * @author Andrew Wilder
+	 */
+	static class Renderer {
+
+		/** The properties being rendered */
+		private final boolean isSquareType;
+		private final boolean isWaveType;
+		private final boolean hasSweep;
+		private final int envelopeStep;
+		private final boolean increasingEnvelope;
+		private final boolean hasCutoff;
+		private final int cutoffValue;
+		private final double dutyCycle;
+		private final int sweepRate;
+		private final int sweepStep;
+		private final boolean increasingSweep;
+		private final boolean counterStepIs15Bits;
+		private final byte[] waveTable;
+		private final long wavePhaseStep; // 16.16 fixed point wave samples per rendered sample
+		private final int waveLength; // in rendered samples
+		private final int outputRate;
+		private final int rate; // Rendered samples per second
+		private final long envelopeLength; // Rendered samples per second times the envelope step length
+		private final long sweepLength; // Rendered samples per second times the sweep step time
+
+		/** Rendering state carried between calls */
+		private int position = 0;
+		private boolean finished = false;
+		private int currVolume;
+		private double freq;
+		private double wavelength;
+		private double phaseAdjust = 0;
+		private boolean pitchOutOfRange = false;
+		private int X = 0;
+		private boolean high = true;
+		private long wavePhase = 0;
+		private int envelopeSteps = 0;
+		private long nextEnvelope;
+		private int sweepSteps = 0;
+		private long nextSweep;
+
+		/**
+		 * Prepare to render a Note at the output rate
+		 * @param note The Note to render
+		 * @param hasSweep Whether the channel allows sweeping
+		 */
+		public Renderer(Note note, boolean hasSweep) {
+			this(note, hasSweep, 1);
+		}
+
+		/**
+		 * Get the rate the Note is rendered at, divided by any oversampling
+		 * @return The output sample rate in Hz
+		 */
+		public int getSampleRate() {
+			return outputRate;
+		}
+
+		/**
+		 * Prepare to render a Note at a multiple of the output rate
+		 * @param note The Note to render
+		 * @param hasSweep Whether the channel allows sweeping
+		 * @param oversampling The multiple of the output rate
+		 */
+		public Renderer(Note note, boolean hasSweep, int oversampling) {
+			outputRate = Channel.getSampleRate();
+			rate = outputRate * oversampling;
+			isSquareType = note.isSquareType;
+			isWaveType = note.isWaveType;
+			this.hasSweep = hasSweep;
+			envelopeStep = note.envelopeStep;
+			increasingEnvelope = note.increasingEnvelope;
+			hasCutoff = note.hasCutoff;
+			cutoffValue = note.cutoffValue;
+			dutyCycle = note.dutyCycle;
+			sweepRate = note.sweepRate;
+			sweepStep = note.sweepStep;
+			increasingSweep = note.increasingSweep;
+			counterStepIs15Bits = note.counterStepIs15Bits;
+			currVolume = note.volume;
+
+			// The envelope and sweep step on the samples nearest after each multiple of their step time
+			envelopeLength = (long) envelopeStep * rate;
+			sweepLength = (long) sweepStep * rate;
+			nextEnvelope = envelopeStep > 0 ? stepSample(1, envelopeLength, ENVELOPE_HZ) : Long.MAX_VALUE;
+			nextSweep = sweepStep > 0 ? stepSample(1, sweepLength, SWEEP_HZ) : Long.MAX_VALUE;
+
+			// Get the wavelength of the wave form, or of one period of noise step
+			if(isSquareType) {
+				freq = 440 * Math.pow(2, (note.musicalNote - 9 + (note.octave - 4) * 12) / 12.0);
+			} else {
+				freq = 524288 / note.dividingRatio / Math.pow(2, note.shiftClockFrequency + 1);
+			}
+			wavelength = rate / freq;
+
+			// The wave channel steps through 32 samples at 2097152 / (2048 - n) Hz
+			if(isWaveType) {
+				waveTable = getWaveTable(note);
+				wavePhaseStep = (2097152L << 16) / ((2048 - (note.getFRQ() & 0x7FF)) * (long) rate);
+				waveLength = hasCutoff ? (256 - cutoffValue) * rate / 256 : Integer.MAX_VALUE;
+			} else {
+				waveTable = null;
+				wavePhaseStep = 0;
+				waveLength = 0;
+			}
+		}
+
+		/**
+		 * Find the sample an envelope or sweep step happens on
+		 * @param step The number of the step, from 1
+		 * @param length The step time multiplied by the sample rate
+		 * @param hz The steps per second at a step time of 1
+		 * @return The first sample at or after the step's time
+		 */
+		private static long stepSample(int step, long length, int hz) {
+			return (step * length + hz - 1) / hz;
+		}
+
+		/**
+		 * Check if the note has ended, by envelope or cutoff
+		 * @return True if there are no more samples to render
+		 */
+		public boolean isFinished() {
+			return finished;
+		}
+
+		/**
+		 * Render the next samples of the note
+		 * @param buf The buffer for the whole note
+		 * @param end The sample to render up to, exclusive
+		 * @return The number of samples of the note rendered so far
+		 */
+		public int render(byte[] buf, int end) {
+			if(isSquareType) {
+				renderSquare(buf, end);
+			} else if(isWaveType) {
+				renderWave(buf, end);
+			} else {
+				renderNoise(buf, end);
+			}
+			return position;
+		}
+
+		/**
+		 * Advance the envelope volume
+		 * @param i The sample index
+		 * @return False if the note has faded to zero volume
+		 */
+		private boolean stepEnvelope(int i) {
+			if(i == nextEnvelope) {
+				nextEnvelope = stepSample(++envelopeSteps + 1, envelopeLength, ENVELOPE_HZ);
+				if(increasingEnvelope) {
+					if(currVolume < 15) {
+						++currVolume;
+					}
+				} else {
+					if(currVolume > 0) {
+						if(--currVolume == 0) {
+							return false;
+						}
+					}
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Render samples of a square note
+		 */
+		private void renderSquare(byte[] buf, int end) {
+			for(int i = position; i < end && !finished; position = ++i) {
+
+				// Adjust frequency if sweeping
+				if(hasSweep && i == nextSweep) {
+					nextSweep = stepSample(++sweepSteps + 1, sweepLength, SWEEP_HZ);
+					double n = 2048 - 131072 / freq;
+					double delta = n / Math.pow(2, sweepRate);
+					n = increasingSweep ? n + delta : n - delta;
+					if(n < 0 || n > 2047) {
+						pitchOutOfRange = true;
+					}
+					freq = 131072 / (2048 - n);
+					wavelength = rate / freq;
+					phaseAdjust = i % wavelength;
+				}
+
+				// Adjust envelope volume, and end the note at zero volume
+				if(!stepEnvelope(i)) {
+					finished = true;
+					break;
+				}
+
+				// Determine sample amplitude by volume
+				byte amplitude = (byte) (127 * PLAYER_VOLUME * currVolume / 15);
+				if(pitchOutOfRange || hasCutoff && i / (double) rate > (64 - cutoffValue) / 256.0) {
+					finished = true;
+					break;
+				}
+
+				// Determine high or low by duty cycle
+				double phase = (i - phaseAdjust) % wavelength;
+				if(phase / wavelength < dutyCycle) {
+					buf[i] = amplitude;
+				} else {
+					buf[i] = (byte) -amplitude;
+				}
+			}
+		}
+
+		/**
+		 * Render samples of a wave note
+		 */
+		private void renderWave(byte[] buf, int end) {
+			int last = Math.min(end, waveLength);
+			for(int i = position; i < last; ++i) {
+				buf[i] = waveTable[(int) (wavePhase >>> 16) & (WAVE_SAMPLES - 1)];
+				wavePhase += wavePhaseStep;
+			}
+			position = Math.max(position, last);
+			if(position >= waveLength) {
+				finished = true;
+			}
+		}
+
+		/**
+		 * Render samples of a noise note
+		 */
+		private void renderNoise(byte[] buf, int end) {
+			for(int i = position; i < end && !finished; position = ++i) {
+
+				// Adjust envelope volume, and end the note at zero volume
+				if(!stepEnvelope(i)) {
+					finished = true;
+					break;
+				}
+
+				// At each step, determine if the waveform should switch
+				double phase = i % wavelength;
+				if(i > 0 && phase < 1.0) {
+					high = rands[X];
+					if(++X == (counterStepIs15Bits ? 0x7FFF : 0x7F)) {
+						X = 0;
+					}
+				}
+
+				// Determine sample amplitude by volume
+				byte amplitude = (byte) (127 * PLAYER_VOLUME * currVolume / 15);
+				if(hasCutoff && i / (double) rate > (64 - cutoffValue) / 256.0) {
+					finished = true;
+					break;
+				}
+
+				// High or low depending on randomization vector
+				if(high) {
+					buf[i] = amplitude;
+				} else {
+					buf[i] = (byte) -amplitude;
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,127 @@
+import java.util.Arrays;
+
+/**
+ * This class plays notes while they are being edited. Requests are coalesced
+ * so that only the latest one is rendered, a newer request cancels the render
+ * and playback of an older one, and a note is played a slice at a time as it
+ * is rendered, starting with its first few milliseconds, so the line never
+ * waits for the rest of the note to be rendered.
+ * @author Andrew Wilder
+ */
+public class NoteAuditioner {
+
+	/** Definitions */
+	private static final int FIRST_CHUNK_MS = 10;
+	private static final int RENDER_SLICE = 8192;
+
+	/** The channel auditions are played on */
+	private final Channel channel;
+
+	/** The latest request, waiting to be picked up by the worker */
+	private Note pendingNote = null;
+	private boolean pendingSweep;
+	private int requestCount = 0;
+
+	/**
+	 * Create an auditioner and start its worker thread
+	 * @param channel The channel to play auditions on
+	 */
+	public NoteAuditioner(Channel channel) {
+		this.channel = channel;
+		Thread worker = new Thread("Note audition") {
+			@Override
+			public void run() {
+				while(true) {
+					audition();
+				}
+			}
+		};
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Request a note to be played, replacing any earlier request
+	 * @param note The note to play
+	 * @param hasSweep Whether the note is played with sweep
+	 */
+	public void submit(Note note, boolean hasSweep) {
+		synchronized(this) {
+			pendingNote = note;
+			pendingSweep = hasSweep;
+			++requestCount;
+			notify();
+		}
+		// Stop the older note now rather than after its current chunk
+		channel.cancel();
+	}
+
+	/**
+	 * Check if a newer request has arrived
+	 * @param request The count of the request being worked on
+	 * @return True if the request has been superseded
+	 */
+	private synchronized boolean superseded(int request) {
+		return request != requestCount;
+	}
+
+	/**
+	 * Wait for the latest request, then render and play it
+	 */
+	private void audition() {
+
+		// Take the latest request
+		Note note;
+		boolean hasSweep;
+		int request;
+		synchronized(this) {
+			while(pendingNote == null) {
+				try {
+					wait();
+				} catch(InterruptedException e) {
+					return;
+				}
+			}
+			note = pendingNote;
+			hasSweep = pendingSweep;
+			request = requestCount;
+			pendingNote = null;
+		}
+
+		// Snapshot the registers, so the finished buffer can be given to the note
+		Note.Renderer renderer;
+		int[] registers;
+		synchronized(note) {
+			registers = note.getRegisters();
+			renderer = new Note.Renderer(note, hasSweep);
+		}
+
+		// Render and play the start of the note right away
+		int gen = channel.begin();
+		byte[] buf = new byte[Note.getBufferLength(renderer.getSampleRate())];
+		long start = System.nanoTime();
+		int len = renderer.render(buf, renderer.getSampleRate() * FIRST_CHUNK_MS / 1000);
+		long renderNanos = System.nanoTime() - start;
+		if(!channel.append(gen, buf, 0, len)) {
+			return;
+		}
+
+		// Render the rest in slices, playing each as soon as it is rendered,
+		// and give up if a newer request arrives
+		while(!renderer.isFinished() && len < buf.length) {
+			if(superseded(request)) {
+				return;
+			}
+			int played = len;
+			start = System.nanoTime();
+			len = renderer.render(buf, Math.min(len + RENDER_SLICE, buf.length));
+			renderNanos += System.nanoTime() - start;
+			if(!channel.append(gen, buf, played, len - played)) {
+				return;
+			}
+		}
+		TrackerMetrics.get().recordRender(renderNanos);
+		buf = len < buf.length ? Arrays.copyOf(buf, len) : buf;
+		note.adoptBuf(buf, hasSweep, registers, renderer.getSampleRate());
+	}
+}
@@ -0,0 +1,329 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is a range of steps across a range of channels, and the edits
+ * that change all of the notes in it at once. The notes in the range are
+ * found in each channel's timeline, then each edit is a loop over their
+ * positions. Notes are shared between the steps that sound the same, so an
+ * edit works out the new Note for each shared Note once, and only the new
+ * Notes are queued to be rendered in the background.
+ * @author Andrew Wilder
+ */
+public class NoteSelection {
+
+	/** Definitions */
+	private static final int MIN_PITCH = 2 * 12; // C2
+	private static final int MAX_PITCH = 7 * 12 + 11; // B7
+
+	/** The channels and steps in the selection, with the last step excluded */
+	public final int firstChannel;
+	public final int lastChannel;
+	public final int fromStep;
+	public final int toStep;
+
+	/**
+	 * A change to the sound of a Note
+	 */
+	private interface NoteTransform {
+
+		/**
+		 * Create the changed Note
+		 * @param channel The channel the Note is on
+		 * @param note The Note, which must not be changed as other steps may share it
+		 * @return The changed copy, or null if the Note is unchanged
+		 */
+		Note apply(int channel, Note note);
+	}
+
+	/**
+	 * Notes copied from a selection, with steps relative to its start
+	 */
+	public static class Clip {
+		private final NoteSelection source;
+		private final EditorNote[][] notes;
+
+		/**
+		 * Create a clip
+		 * @param source The selection the notes were copied from
+		 * @param notes The notes of each channel in the selection
+		 */
+		private Clip(NoteSelection source, EditorNote[][] notes) {
+			this.source = source;
+			this.notes = notes;
+		}
+	}
+
+	/**
+	 * Create a selection between two corners, in either order
+	 * @param channelA The channel of one corner
+	 * @param stepA The step of one corner
+	 * @param channelB The channel of the other corner
+	 * @param stepB The step of the other corner
+	 */
+	public NoteSelection(int channelA, int stepA, int channelB, int stepB) {
+		firstChannel = Math.max(0, Math.min(channelA, channelB));
+		lastChannel = Math.min(Song.CHANNEL_COUNT - 1, Math.max(channelA, channelB));
+		fromStep = Math.max(0, Math.min(stepA, stepB));
+		toStep = Math.max(stepA, stepB) + 1;
+	}
+
+	/**
+	 * Select every note of a song
+	 * @param song The song
+	 * @return The selection
+	 */
+	public static NoteSelection all(Song song) {
+		return new NoteSelection(0, 0, Song.CHANNEL_COUNT - 1, Math.max(song.endStep, song.getMaxStep() + 1) - 1);
+	}
+
+	/**
+	 * Check if a step of a channel is in the selection
+	 * @param channel The channel index
+	 * @param step The step
+	 * @return True if it is selected
+	 */
+	public boolean contains(int channel, int step) {
+		return channel >= firstChannel && channel <= lastChannel && step >= fromStep && step < toStep;
+	}
+
+	/**
+	 * Gather the selected notes of each channel
+	 * @param song The song
+	 * @return An array of the selected notes for each channel, empty for channels outside the selection
+	 */
+	public EditorNote[][] getNotes(Song song) {
+		EditorNote[][] selected = new EditorNote[Song.CHANNEL_COUNT][];
+		for(int i = 0; i < Song.CHANNEL_COUNT; ++i) {
+			if(i < firstChannel || i > lastChannel) {
+				selected[i] = new EditorNote[0];
+			} else {
+				List<EditorNote> notes = song.getTimeline(i).range(fromStep, toStep);
+				selected[i] = notes.toArray(new EditorNote[notes.size()]);
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Count the selected notes
+	 * @param song The song
+	 * @return The number of notes in the selection
+	 */
+	public int getNoteCount(Song song) {
+		int count = 0;
+		for(int i = firstChannel; i <= lastChannel; ++i) {
+			count += song.getTimeline(i).count(fromStep, toStep);
+		}
+		return count;
+	}
+
+	/**
+	 * Change the Notes of the selected notes, working out each new Note once
+	 * however many steps share the old one, and render the new Notes later
+	 * @param song The song
+	 * @param transform The change to make
+	 * @param queue The queue to render the new Notes on
+	 * @return The number of notes changed
+	 */
+	private int transform(Song song, NoteTransform transform, RenderQueue queue) {
+		int changed = 0;
+		for(int i = firstChannel; i <= lastChannel; ++i) {
+			NoteTimeline notes = song.getTimeline(i);
+			Map<Note, Note> changes = new IdentityHashMap<>();
+			for(int k = notes.first(fromStep); k < notes.first(toStep); ++k) {
+				Note oldNote = notes.getNote(k);
+				Note note = changes.get(oldNote);
+				if(note == null && !changes.containsKey(oldNote)) {
+					note = transform.apply(i, oldNote);
+				}
+				if(note != null) {
+					note = notes.setNote(k, note); // The channel's Note with those registers, if it has one
+					++changed;
+				}
+				changes.put(oldNote, note);
+			}
+
+			// A new Note may be one of the old ones, so cancel them all before queueing any
+			for(Map.Entry<Note, Note> change : changes.entrySet()) {
+				if(change.getValue() != null) {
+					queue.cancel(change.getKey());
+				}
+			}
+			for(Note note : changes.values()) {
+				if(note != null) {
+					queue.submit(note, Song.hasSweep(i));
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Raise or lower the pitch of the selected square and wave notes. Notes
+	 * stop at the lowest and highest notes the editor can place.
+	 * @param song The song
+	 * @param semitones The number of semitones to move, negative to lower
+	 * @param queue The queue to render the new Notes on
+	 * @return The number of notes changed
+	 */
+	public int transpose(Song song, final int semitones, RenderQueue queue) {
+		return transform(song, new NoteTransform() {
+			@Override
+			public Note apply(int channel, Note note) {
+				if(!Song.isSquareChannel(channel) && !Song.isWaveChannel(channel)) {
+					return null;
+				}
+				int pitch = note.octave * 12 + note.musicalNote;
+				int newPitch = Math.max(MIN_PITCH, Math.min(MAX_PITCH, pitch + semitones));
+				if(newPitch == pitch) {
+					return null;
+				}
+				Note newNote = note.copy();
+				newNote.octave = newPitch / 12;
+				newNote.musicalNote = newPitch % 12;
+				return newNote;
+			}
+		}, queue);
+	}
+
+	/**
+	 * Give the selected notes the volume and envelope of the notes set up in
+	 * the editor, and the duty cycle for square notes
+	 * @param song The song
+	 * @param settings The Note set up for each channel
+	 * @param queue The queue to render the new Notes on
+	 * @return The number of notes changed
+	 */
+	public int applySettings(Song song, final Note[] settings, RenderQueue queue) {
+		return transform(song, new NoteTransform() {
+			@Override
+			public Note apply(int channel, Note note) {
+				Note s = settings[channel];
+				Note newNote = note.copy();
+				if(Song.isWaveChannel(channel)) {
+					newNote.waveVolume = s.waveVolume;
+				} else {
+					newNote.volume = s.volume;
+					newNote.envelopeStep = s.envelopeStep;
+					newNote.increasingEnvelope = s.increasingEnvelope;
+					if(Song.isSquareChannel(channel)) {
+						newNote.dutyCycle = s.dutyCycle;
+					}
+				}
+				return newNote.getENV() == note.getENV() ? null : newNote;
+			}
+		}, queue);
+	}
+
+	/**
+	 * Move the selected notes along the song, replacing the notes already on
+	 * the steps they move to. Notes can't move before the start of the song,
+	 * and the song is made longer if they move past its end.
+	 * @param song The song
+	 * @param steps The number of steps to move, negative to move earlier
+	 * @param endPadding The space to leave after the last note if the song is made longer
+	 * @return The selection, moved with its notes
+	 */
+	public NoteSelection shift(Song song, int steps, int endPadding) {
+		steps = Math.max(steps, -fromStep);
+		if(steps == 0) {
+			return this;
+		}
+		for(int i = firstChannel; i <= lastChannel; ++i) {
+			NoteTimeline notes = song.getTimeline(i);
+			int from = notes.first(fromStep);
+			int to = notes.first(toStep);
+			BitSet removed = new BitSet();
+			removed.set(from, to);
+			List<EditorNote> added = new ArrayList<>();
+			BitSet targets = new BitSet(); // The steps moved to, from the start of the selection
+			for(int k = from; k < to; ++k) {
+				added.add(new EditorNote(notes.getNote(k), notes.getStep(k) + steps));
+				targets.set(notes.getStep(k) - fromStep);
+			}
+			for(int k = notes.first(fromStep + steps); k < notes.first(toStep + steps); ++k) {
+				if(targets.get(notes.getStep(k) - steps - fromStep)) {
+					removed.set(k);
+				}
+			}
+			song.replaceNotes(i, removed, added);
+		}
+		extendSong(song, endPadding);
+		return new NoteSelection(firstChannel, fromStep + steps, lastChannel, toStep - 1 + steps);
+	}
+
+	/**
+	 * Remove the selected notes
+	 * @param song The song
+	 * @return The number of notes removed
+	 */
+	public int delete(Song song) {
+		int removed = 0;
+		for(int i = firstChannel; i <= lastChannel; ++i) {
+			NoteTimeline notes = song.getTimeline(i);
+			BitSet range = new BitSet();
+			range.set(notes.first(fromStep), notes.first(toStep));
+			song.replaceNotes(i, range, new ArrayList<EditorNote>());
+			removed += range.cardinality();
+		}
+		return removed;
+	}
+
+	/**
+	 * Copy the selected notes. The Notes are shared with the song, as edits
+	 * replace a Note rather than changing it.
+	 * @param song The song
+	 * @return The copied notes
+	 */
+	public Clip copy(Song song) {
+		EditorNote[][] selected = getNotes(song);
+		EditorNote[][] notes = new EditorNote[Song.CHANNEL_COUNT][];
+		for(int i = 0; i < Song.CHANNEL_COUNT; ++i) {
+			notes[i] = new EditorNote[selected[i].length];
+			for(int j = 0; j < notes[i].length; ++j) {
+				notes[i][j] = new EditorNote(selected[i][j].note, selected[i][j].step - fromStep);
+			}
+		}
+		return new Clip(this, notes);
+	}
+
+	/**
+	 * Paste copied notes onto the channels they were copied from, replacing
+	 * the notes on the steps they cover
+	 * @param song The song
+	 * @param clip The copied notes
+	 * @param step The step to paste the start of the clip at
+	 * @param endPadding The space to leave after the last note if the song is made longer
+	 * @return The selection covering the pasted notes
+	 */
+	public static NoteSelection paste(Song song, Clip clip, int step, int endPadding) {
+		NoteSelection target = new NoteSelection(clip.source.firstChannel, step, clip.source.lastChannel,
+				step + clip.source.toStep - clip.source.fromStep - 1);
+		target.delete(song);
+		for(int i = target.firstChannel; i <= target.lastChannel; ++i) {
+			List<EditorNote> added = new ArrayList<>();
+			for(EditorNote edn : clip.notes[i]) {
+				added.add(new EditorNote(edn.note, edn.step + step));
+			}
+			song.replaceNotes(i, new BitSet(), added);
+		}
+		extendSong(song, endPadding);
+		return target;
+	}
+
+	/**
+	 * Make a song longer if it has notes past its end
+	 * @param song The song
+	 * @param endPadding The space to leave after the last note
+	 */
+	private static void extendSong(Song song, int endPadding) {
+		int maxStep = song.getMaxStep();
+		if(maxStep >= song.endStep) {
+			song.endStep = maxStep + endPadding;
+		}
+	}
+}
@@ -0,0 +1,379 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds the notes of a channel, in step order. Each note is one
+ * long, packing its step with the index of its sound in the channel's table
+ * of sounds, so a note costs 8 bytes however long the song is. Notes with the
+ * same registers share one Note in the table, which holds their rendered
+ * buffer, and a note is only seen as an EditorNote when it is asked for.
+ * Each sound counts the notes that play it, and a sound no note plays is
+ * dropped along with its buffer, so its slot can be used by the next new one.
+ *
+ * The notes in any range of steps are found with a binary search and read in
+ * order, in O(log n + k) for k notes. Notes on the same step stay in the
+ * order they were added, which is the order they play in. A note is added or
+ * removed by moving the notes after it along the array.
+ * @author Andrew Wilder
+ */
+public class NoteTimeline implements Iterable<EditorNote> {
+
+	/** Definitions */
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int REBUILD_CHANGES = 64; // Added notes that are quicker to sort in than to insert
+
+	/** The notes, sorted by step, each with its step in the high half and its sound in the low half */
+	private long[] notes = new long[INITIAL_CAPACITY];
+	private int size = 0;
+
+	/**
+	 * The sounds played on the channel, each shared by every note with its
+	 * registers. A Note in the table must not be changed, as an edit to one
+	 * note would change them all; edits give a note a new Note instead.
+	 * Slots of sounds that are no longer played are null until reused.
+	 */
+	private final List<Note> sounds = new ArrayList<>();
+	private final Map<String, Integer> soundsByKey = new HashMap<>();
+	private final Map<Note, Integer> soundsByNote = new IdentityHashMap<>();
+	private int[] uses = new int[INITIAL_CAPACITY]; // The number of notes playing each sound
+	private final BitSet freeSounds = new BitSet();
+
+	/**
+	 * Create an empty timeline
+	 */
+	public NoteTimeline() {
+	}
+
+	/**
+	 * Copy a timeline, sharing its Notes
+	 * @param other The timeline to copy
+	 */
+	public NoteTimeline(NoteTimeline other) {
+		notes = Arrays.copyOf(other.notes, Math.max(other.size, INITIAL_CAPACITY));
+		size = other.size;
+		sounds.addAll(other.sounds);
+		soundsByKey.putAll(other.soundsByKey);
+		soundsByNote.putAll(other.soundsByNote);
+		uses = other.uses.clone();
+		freeSounds.or(other.freeSounds);
+	}
+
+	/**
+	 * Pack a note
+	 * @param step The step
+	 * @param sound The index of its sound
+	 * @return The packed note
+	 */
+	private static long pack(int step, int sound) {
+		return (long) step << 32 | sound;
+	}
+
+	/**
+	 * Get the step of a packed note
+	 * @param note The packed note
+	 * @return The step
+	 */
+	private static int stepOf(long note) {
+		return (int) (note >>> 32);
+	}
+
+	/**
+	 * Get the sound index of a packed note
+	 * @param note The packed note
+	 * @return The index in the table of sounds
+	 */
+	private static int soundOf(long note) {
+		return (int) note;
+	}
+
+	/**
+	 * Find a Note's sound in the table for one more note to play, adding it
+	 * if the table has no Note with its registers
+	 * @param note The Note, which is shared from then on if it is added
+	 * @return The index of the sound
+	 */
+	private int acquire(Note note) {
+		int index = indexOfSound(note);
+		if(index < 0) {
+			index = freeSounds.nextSetBit(0);
+			if(index >= 0) {
+				freeSounds.clear(index);
+				sounds.set(index, note);
+			} else {
+				index = sounds.size();
+				sounds.add(note);
+				if(index == uses.length) {
+					uses = Arrays.copyOf(uses, index * 2);
+				}
+			}
+			soundsByKey.put(Song.getNoteKey(note), index);
+			soundsByNote.put(note, index);
+		}
+		++uses[index];
+		return index;
+	}
+
+	/**
+	 * Let go of a sound for a note that no longer plays it, dropping the
+	 * sound if no other note does
+	 * @param index The index of the sound
+	 */
+	private void release(int index) {
+		if(--uses[index] == 0) {
+			Note note = sounds.set(index, null);
+			soundsByKey.remove(Song.getNoteKey(note));
+			soundsByNote.remove(note);
+			freeSounds.set(index);
+		}
+	}
+
+	/**
+	 * Find the sound with the same registers as a Note, without adding it
+	 * @param note The Note
+	 * @return The index of the sound, or -1 if the channel has no such sound
+	 */
+	public int indexOfSound(Note note) {
+		Integer index = soundsByNote.get(note);
+		if(index == null) {
+			index = soundsByKey.get(Song.getNoteKey(note));
+		}
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Get the sounds played on the channel
+	 * @return The shared Notes, by sound index, with null in the slots of sounds no longer played
+	 */
+	public List<Note> getSounds() {
+		return Collections.unmodifiableList(sounds);
+	}
+
+	/**
+	 * Get the number of notes
+	 * @return The note count
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the step of a note
+	 * @param index The position of the note in step order
+	 * @return The step
+	 */
+	public int getStep(int index) {
+		return stepOf(notes[index]);
+	}
+
+	/**
+	 * Get the sound of a note
+	 * @param index The position of the note in step order
+	 * @return The index of its sound in getSounds
+	 */
+	public int getSound(int index) {
+		return soundOf(notes[index]);
+	}
+
+	/**
+	 * Get the Note of a note, which is shared with the other notes that sound
+	 * the same, so it must not be changed
+	 * @param index The position of the note in step order
+	 * @return The Note
+	 */
+	public Note getNote(int index) {
+		return sounds.get(soundOf(notes[index]));
+	}
+
+	/**
+	 * Get a note by its position in step order
+	 * @param index The position
+	 * @return The note, as a new EditorNote
+	 */
+	public EditorNote get(int index) {
+		return new EditorNote(getNote(index), getStep(index));
+	}
+
+	/**
+	 * Find the position of the first note at or after a step
+	 * @param step The step
+	 * @return The position, or the note count if every note is before the step
+	 */
+	public int first(int step) {
+		int lo = 0, hi = size;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(stepOf(notes[mid]) < step) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Find the note that plays on a step
+	 * @param step The step
+	 * @return The position of the first note added on the step, or -1 if there is none
+	 */
+	public int indexOf(int step) {
+		int i = first(step);
+		return i < size && stepOf(notes[i]) == step ? i : -1;
+	}
+
+	/**
+	 * Count the notes in a range of steps
+	 * @param from The first step
+	 * @param to The step after the last
+	 * @return The note count
+	 */
+	public int count(int from, int to) {
+		return to > from ? first(to) - first(from) : 0;
+	}
+
+	/**
+	 * Get the notes in a range of steps. The list reads the timeline, so it is
+	 * only valid until the channel changes.
+	 * @param from The first step
+	 * @param to The step after the last
+	 * @return The notes, in step order
+	 */
+	public List<EditorNote> range(int from, int to) {
+		final int start = first(from);
+		final int end = Math.max(start, first(to));
+		return new AbstractList<EditorNote>() {
+			@Override
+			public EditorNote get(int index) {
+				return NoteTimeline.this.get(start + index);
+			}
+
+			@Override
+			public int size() {
+				return end - start;
+			}
+		};
+	}
+
+	/**
+	 * Read the notes in step order
+	 * @return An iterator over the notes, each as a new EditorNote
+	 */
+	@Override
+	public Iterator<EditorNote> iterator() {
+		return range(0, Integer.MAX_VALUE).iterator();
+	}
+
+	/**
+	 * Add a note after the notes already on its step
+	 * @param step The step
+	 * @param note The Note, shared from then on
+	 */
+	public void add(int step, Note note) {
+		if(size == notes.length) {
+			notes = Arrays.copyOf(notes, size * 2);
+		}
+		int i = first(step + 1);
+		System.arraycopy(notes, i, notes, i + 1, size - i);
+		notes[i] = pack(step, acquire(note));
+		++size;
+	}
+
+	/**
+	 * Add a note at the end, while loading. The notes are put back in step
+	 * order by sort, if they were added out of order.
+	 * @param step The step
+	 * @param note The Note, shared from then on
+	 */
+	void append(int step, Note note) {
+		if(size == notes.length) {
+			notes = Arrays.copyOf(notes, size * 2);
+		}
+		notes[size++] = pack(step, acquire(note));
+	}
+
+	/**
+	 * Put the notes in step order after appending, keeping the notes on each
+	 * step in the order they were added
+	 */
+	void sort() {
+		for(int i = 1; i < size; ++i) {
+			if(stepOf(notes[i]) < stepOf(notes[i - 1])) {
+
+				// Sort the steps with the positions in the low half, so equal steps keep their order
+				long[] order = new long[size];
+				for(int j = 0; j < size; ++j) {
+					order[j] = pack(stepOf(notes[j]), j);
+				}
+				Arrays.sort(order);
+				long[] sorted = new long[notes.length];
+				for(int j = 0; j < size; ++j) {
+					sorted[j] = notes[soundOf(order[j])];
+				}
+				notes = sorted;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Remove a note
+	 * @param index The position of the note
+	 */
+	public void remove(int index) {
+		release(soundOf(notes[index]));
+		System.arraycopy(notes, index + 1, notes, index, size - index - 1);
+		--size;
+	}
+
+	/**
+	 * Give a note a different sound. Its step doesn't change, so its position doesn't.
+	 * @param index The position of the note
+	 * @param note The new Note, shared from then on
+	 * @return The shared Note the note now plays, which is an earlier Note with the same registers if there is one
+	 */
+	public Note setNote(int index, Note note) {
+		int sound = acquire(note);
+		release(soundOf(notes[index]));
+		notes[index] = pack(stepOf(notes[index]), sound);
+		return sounds.get(sound);
+	}
+
+	/**
+	 * Remove and add many notes in one pass over the notes
+	 * @param removed The positions of the notes to remove
+	 * @param added The notes to add, each after the notes already on its step
+	 */
+	public void replace(BitSet removed, List<EditorNote> added) {
+		if(!removed.isEmpty()) {
+			int kept = 0;
+			for(int i = 0; i < size; ++i) {
+				if(!removed.get(i)) {
+					notes[kept++] = notes[i];
+				} else {
+					release(soundOf(notes[i]));
+				}
+			}
+			size = kept;
+		}
+
+		// Each insertion moves part of the array, so many notes are quicker to sort in
+		if(added.size() > REBUILD_CHANGES) {
+			for(EditorNote edn : added) {
+				append(edn.step, edn.note);
+			}
+			sort();
+		} else {
+			for(EditorNote edn : added) {
+				add(edn.step, edn.note);
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * This class renders Notes in the background after an edit changes many of
+ * them at once. Requests are coalesced: Notes waiting to be rendered are kept
+ * once however many edits ask for them, and a Note an edit replaces is taken
+ * off the queue, so a quick run of edits only renders the Notes that are left
+ * at the end. A Note that is played before it is rendered is rendered then.
+ * @author Andrew Wilder
+ */
+public class RenderQueue {
+
+	/** The Notes waiting to be rendered, and whether each is rendered with sweep */
+	private final Map<Note, Boolean> pending = new IdentityHashMap<>();
+
+	/**
+	 * Create a queue and start its worker thread
+	 */
+	public RenderQueue() {
+		Thread worker = new Thread("Note render") {
+			@Override
+			public void run() {
+				while(true) {
+					try {
+						render();
+					} catch(InterruptedException e) {
+						return;
+					}
+				}
+			}
+		};
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Ask for a Note to be rendered
+	 * @param note The Note
+	 * @param hasSweep Whether the Note is played with sweep
+	 */
+	public synchronized void submit(Note note, boolean hasSweep) {
+		pending.put(note, hasSweep);
+		notify();
+	}
+
+	/**
+	 * Take a Note off the queue, as an edit has replaced it
+	 * @param note The Note
+	 */
+	public synchronized void cancel(Note note) {
+		pending.remove(note);
+	}
+
+	/**
+	 * Wait for Notes to be queued, then render all of them in parallel
+	 * @throws InterruptedException If the worker is interrupted
+	 */
+	private void render() throws InterruptedException {
+		final List<Note> notes = new ArrayList<>();
+		final List<Boolean> sweeps = new ArrayList<>();
+		synchronized(this) {
+			while(pending.isEmpty()) {
+				wait();
+			}
+			for(Map.Entry<Note, Boolean> entry : pending.entrySet()) {
+				notes.add(entry.getKey());
+				sweeps.add(entry.getValue());
+			}
+			pending.clear();
+		}
+		IntStream.range(0, notes.size()).parallel().forEach(i -> notes.get(i).prepareBuf(sweeps.get(i)));
+	}
+}
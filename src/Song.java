@@ -0,0 +1,715 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * This class holds the data of a song: its properties, and the notes placed on
+ * each channel. It has no UI, so songs can be loaded and exported headless.
+ * @author Andrew Wilder
+ */
+public class Song {
+
+	/** Definitions */
+	public static final int CHANNEL_COUNT = 4;
+	public static final int WAVE_CHANNEL = 3;
+	private static final String PATTERN_FORMAT = "patterns";
+
+	/** Columns of an exported row, in the same order as note_t in the export template */
+	public static final int ROW_CH1_SWP = 0;
+	public static final int ROW_CH1_ENV = 1;
+	public static final int ROW_CH1_FRQ = 2;
+	public static final int ROW_CH2_ENV = 3;
+	public static final int ROW_CH2_FRQ = 4;
+	public static final int ROW_CH3_CNT_L = 5;
+	public static final int ROW_CH3_CNT_H = 6;
+	public static final int ROW_CH3_CNT_X = 7;
+	public static final int ROW_CH3_WAVE = 8;
+	public static final int ROW_CH4_ENV = 9;
+	public static final int ROW_CH4_FRQ = 10;
+	public static final int ROW_LEN = 11;
+	public static final int ROW_WIDTH = 12;
+
+	/** Song properties, from the first line of a song file */
+	public String title = "untitled";
+	public String bpm = "150";
+	public boolean looping = true;
+
+	/** The notes of the song */
+	public int endStep = 48;
+	public int loopStep = 0;
+	private NoteTimeline[] timelines = createTimelines();
+
+	/** The steps with a note on any channel, built when first needed */
+	private StepIndex occupiedSteps = null;
+
+	/** Counts the times notes have been added or removed, so views can tell the notes have moved */
+	private int edits = 0;
+
+	/**
+	 * Create an empty timeline for each channel
+	 * @return The timelines
+	 */
+	private static NoteTimeline[] createTimelines() {
+		NoteTimeline[] timelines = new NoteTimeline[CHANNEL_COUNT];
+		for(int i = 0; i < CHANNEL_COUNT; ++i) {
+			timelines[i] = new NoteTimeline();
+		}
+		return timelines;
+	}
+
+	/**
+	 * Check if a channel plays square notes
+	 * @param channel The channel index
+	 * @return True for the square channels, false for the noise and wave channels
+	 */
+	public static boolean isSquareChannel(int channel) {
+		return channel < 2;
+	}
+
+	/**
+	 * Check if a channel plays wave RAM notes
+	 * @param channel The channel index
+	 * @return True for the wave channel
+	 */
+	public static boolean isWaveChannel(int channel) {
+		return channel == WAVE_CHANNEL;
+	}
+
+	/**
+	 * Create an empty Note of the kind played on a channel
+	 * @param channel The channel index
+	 * @return The Note
+	 */
+	public static Note createNote(int channel) {
+		return isWaveChannel(channel) ? Note.createWaveNote() : new Note(isSquareChannel(channel));
+	}
+
+	/**
+	 * Check if a channel can sweep its pitch
+	 * @param channel The channel index
+	 * @return True if notes on the channel are rendered with sweep
+	 */
+	public static boolean hasSweep(int channel) {
+		return channel != 1;
+	}
+
+	/**
+	 * Get the number of values a note on a channel takes in a song file
+	 * @param channel The channel index
+	 * @return The number of csv values, including the step
+	 */
+	public static int getNoteValueCount(int channel) {
+		return isWaveChannel(channel) ? 8 : isSquareChannel(channel) ? 4 : 3;
+	}
+
+	/**
+	 * Load a song from a file
+	 * @param file The song file
+	 * @return The loaded song
+	 * @throws FileNotFoundException If the file can't be opened
+	 */
+	public static Song load(File file) throws FileNotFoundException {
+		return load(file, null);
+	}
+
+	/**
+	 * Load a song from a file, using already rendered Notes where the file has
+	 * a Note with the same registers on the same channel
+	 * @param file The song file
+	 * @param reuse The Notes of each channel by their registers, from getNoteSounds,
+	 * or null to render every new Note. New Notes are added to it.
+	 * @return The loaded song
+	 * @throws FileNotFoundException If the file can't be opened
+	 */
+	public static Song load(File file, List<Map<String, Note>> reuse) throws FileNotFoundException {
+		Scanner sc = new Scanner(file);
+		try {
+			Song song = new Song();
+			song.parseProperties(sc.nextLine());
+			String notes = sc.nextLine();
+			int patternCount = getPatternCount(notes);
+			if(patternCount < 0) {
+				song.parseNotes(notes, reuse);
+			} else {
+				List<String> patternLines = new ArrayList<>();
+				while(patternCount-- > 0) {
+					patternLines.add(sc.nextLine());
+				}
+				song.parsePatterns(notes, patternLines, reuse);
+			}
+			return song;
+		} finally {
+			sc.close();
+		}
+	}
+
+	/**
+	 * Read the song properties from the first line of a song file
+	 * @param csv The csv values
+	 */
+	public void parseProperties(String csv) {
+		Scanner sc = new Scanner(csv);
+		sc.useDelimiter(",");
+		try {
+			title = sc.next();
+			bpm = sc.next();
+			looping = Boolean.parseBoolean(sc.next());
+		} finally {
+			sc.close();
+		}
+	}
+
+	/**
+	 * Read the notes from the second line of a song file, in the format from
+	 * before patterns, where each channel is one timeline. The song is
+	 * unchanged if the line can't be parsed.
+	 * @param csv The csv-format String representation
+	 * @param reuse The Notes to reuse, or null to render every new Note
+	 */
+	public void parseNotes(String csv, List<Map<String, Note>> reuse) {
+		if(reuse == null) {
+			reuse = createNoteSounds();
+		}
+
+		// Scanner used to parse the csv
+		Scanner sc = new Scanner(csv);
+		sc.useDelimiter(",");
+		try {
+			int newEndStep = Integer.parseInt(sc.next());
+			int newLoopStep = Integer.parseInt(sc.next());
+			NoteTimeline[] newTimelines = parseChannels(sc, reuse);
+
+			// If all was successful, now set the values
+			endStep = newEndStep;
+			loopStep = newLoopStep;
+			timelines = newTimelines;
+			occupiedSteps = null;
+		} finally {
+			sc.close();
+		}
+	}
+
+	/**
+	 * Get the number of pattern lines that follow the second line of a song file
+	 * @param csv The second line
+	 * @return The number of patterns, or -1 if the song is in the format from before patterns
+	 */
+	public static int getPatternCount(String csv) {
+		String[] values = csv.split(",", 5);
+		if(values.length > 3 && PATTERN_FORMAT.equals(values[2])) {
+			return Integer.parseInt(values[3]);
+		}
+		return -1;
+	}
+
+	/**
+	 * Read the order list and patterns of a song file. Each pattern's notes are
+	 * created once and shared by every measure that plays the pattern, so they
+	 * are only rendered once. The song is unchanged if the lines can't be parsed.
+	 * @param csv The second line, with the song length, loop and order list
+	 * @param patternLines The lines after it, one per pattern
+	 * @param reuse The Notes to reuse, or null to render every new Note
+	 */
+	public void parsePatterns(String csv, List<String> patternLines, List<Map<String, Note>> reuse) {
+		if(reuse == null) {
+			reuse = createNoteSounds();
+		}
+
+		// Read the patterns
+		List<SongPattern> patterns = new ArrayList<>();
+		for(String line : patternLines) {
+			Scanner sc = new Scanner(line);
+			sc.useDelimiter(",");
+			try {
+				SongPattern pattern = new SongPattern(Integer.parseInt(sc.next()));
+				NoteTimeline[] patternTimelines = parseChannels(sc, reuse);
+				for(int i = 0; i < CHANNEL_COUNT; ++i) {
+					for(EditorNote edn : patternTimelines[i]) {
+						pattern.channels.get(i).add(edn);
+					}
+				}
+				patterns.add(pattern);
+			} finally {
+				sc.close();
+			}
+		}
+
+		// Play the patterns in order to lay out the channels
+		Scanner sc = new Scanner(csv);
+		sc.useDelimiter(",");
+		try {
+			int newEndStep = Integer.parseInt(sc.next());
+			int newLoopStep = Integer.parseInt(sc.next());
+			sc.next(); // Format
+			sc.next(); // Pattern count
+			NoteTimeline[] newTimelines = createTimelines();
+			int orderLength = Integer.parseInt(sc.next());
+			int start = 0;
+			while(orderLength-- > 0) {
+				SongPattern pattern = patterns.get(Integer.parseInt(sc.next()));
+				int repeat = Integer.parseInt(sc.next());
+				while(repeat-- > 0) {
+					for(int i = 0; i < CHANNEL_COUNT; ++i) {
+						for(EditorNote edn : pattern.channels.get(i)) {
+							newTimelines[i].append(start + edn.step, edn.note);
+						}
+					}
+					start += pattern.length;
+				}
+			}
+			for(NoteTimeline timeline : newTimelines) {
+				timeline.sort();
+			}
+
+			// If all was successful, now set the values
+			endStep = newEndStep;
+			loopStep = newLoopStep;
+			timelines = newTimelines;
+			occupiedSteps = null;
+		} finally {
+			sc.close();
+		}
+	}
+
+	/**
+	 * Read the notes of every channel. Notes with the same registers on a
+	 * channel share one Note, so a long song holds and renders each sound once
+	 * and each placed note costs only its place in the timeline.
+	 * @param sc The Scanner, positioned at the note count of the first channel
+	 * @param reuse For each channel, Notes to use in place of new Notes with the
+	 * same registers. Each new Note is added, for the notes after it to share.
+	 * @return The notes of each channel, in step order
+	 */
+	private static NoteTimeline[] parseChannels(Scanner sc, List<Map<String, Note>> reuse) {
+		NoteTimeline[] newTimelines = createTimelines();
+
+		// For each channel... (songs from before the wave channel end after the noise channel)
+		for(int i = 0; i < CHANNEL_COUNT && sc.hasNext(); ++i) {
+			int len = Integer.parseInt(sc.next());
+			int[] registers = new int[getNoteValueCount(i) - 1];
+			while(len-- > 0) {
+
+				// Square notes are SWP, ENV, FRQ, noise notes are ENV, FRQ, and
+				// wave notes are CNT_L, CNT_H, CNT_X and four wave RAM words
+				for(int j = 0; j < registers.length; ++j) {
+					registers[j] = j < 3 ? Integer.parseInt(sc.next()) : Integer.parseUnsignedInt(sc.next());
+				}
+				Note note = Note.fromRegisters(i, registers);
+				String key = getNoteKey(note);
+				Note shared = reuse.get(i).get(key);
+				if(shared != null) {
+					note = shared;
+				} else {
+					note.prepareBuf(hasSweep(i)); // Render notes while loading
+					reuse.get(i).put(key, note);
+				}
+				int step = Integer.parseInt(sc.next());
+				newTimelines[i].append(step, note);
+			}
+			newTimelines[i].sort();
+		}
+		return newTimelines;
+	}
+
+	/**
+	 * Get a key for the sound of a Note, equal for Notes with the same registers
+	 * @param note The Note
+	 * @return The key
+	 */
+	static String getNoteKey(Note note) {
+		return Arrays.toString(note.getRegisters());
+	}
+
+	/**
+	 * Generate a String representation of the notes: the song length, loop
+	 * and order list, then one line for each pattern
+	 * @return The String representation of the notes
+	 */
+	public String generateNotesCSV() {
+		SongStructure structure = getStructure();
+		StringBuilder str = new StringBuilder();
+		str.append(endStep).append(",").append(loopStep).append(",").append(PATTERN_FORMAT);
+		str.append(",").append(structure.getPatterns().size());
+		str.append(",").append(structure.getOrder().size());
+		for(int[] entry : structure.getOrder()) {
+			str.append(",").append(entry[0]).append(",").append(entry[1]);
+		}
+		for(SongPattern pattern : structure.getPatterns()) {
+			str.append("\n").append(pattern.length);
+			appendChannels(str, pattern.channels);
+		}
+		return str.toString();
+	}
+
+	/**
+	 * Write the notes of every channel
+	 * @param str The String being built
+	 * @param noteChannels The notes of each channel
+	 */
+	private static void appendChannels(StringBuilder str, List<List<EditorNote>> noteChannels) {
+		for(int i = 0; i < CHANNEL_COUNT; ++i) {
+			str.append(",").append(noteChannels.get(i).size());
+			for(EditorNote edn : noteChannels.get(i)) {
+				if(isSquareChannel(i) || isWaveChannel(i)) {
+					str.append(",").append(edn.note.getSWP());
+				}
+				str.append(",").append(edn.note.getENV());
+				str.append(",").append(edn.note.getFRQ());
+				if(isWaveChannel(i)) {
+					for(int j = 0; j < 4; ++j) {
+						str.append(",").append(Integer.toUnsignedString(edn.note.getWaveWord(j)));
+					}
+				}
+				str.append(",").append(edn.step);
+			}
+		}
+	}
+
+	/**
+	 * Split the song into patterns and an order list, for saving and exporting
+	 * @return The structure of the song
+	 */
+	public SongStructure getStructure() {
+		return new SongStructure(this);
+	}
+
+	/**
+	 * Copy the song. The copy shares the Notes, which are never changed, and
+	 * can be read on another thread while this one is edited.
+	 * @return The copy
+	 */
+	public Song copy() {
+		Song copy = new Song();
+		copy.title = title;
+		copy.bpm = bpm;
+		copy.looping = looping;
+		copy.endStep = endStep;
+		copy.loopStep = loopStep;
+		for(int i = 0; i < CHANNEL_COUNT; ++i) {
+			copy.timelines[i] = new NoteTimeline(timelines[i]);
+		}
+		return copy;
+	}
+
+	/**
+	 * Remove all the notes
+	 */
+	public void clear() {
+		timelines = createTimelines();
+		occupiedSteps = null;
+		++edits;
+	}
+
+	/**
+	 * Get the number of times notes have been added to or removed from the
+	 * song. Giving a note a new sound doesn't count, as it moves no notes.
+	 * @return The count, which only changes when the notes do
+	 */
+	public int getEditCount() {
+		return edits;
+	}
+
+	/**
+	 * Add a note to a channel, after any note already on its step
+	 * @param channel The channel index
+	 * @param edn The note. Its Note is shared from then on, so it must not be changed.
+	 */
+	public void addNote(int channel, EditorNote edn) {
+		if(!isOccupied(edn.step)) {
+			occupiedSteps.add(edn.step, 1);
+		}
+		timelines[channel].add(edn.step, edn.note);
+		++edits;
+	}
+
+	/**
+	 * Remove the note on a step of a channel
+	 * @param channel The channel index
+	 * @param step The step
+	 * @return True if there was a note to remove
+	 */
+	public boolean removeNote(int channel, int step) {
+		buildIndices();
+		int index = timelines[channel].indexOf(step);
+		if(index >= 0) {
+			timelines[channel].remove(index);
+			++edits;
+			if(!isOccupied(step)) {
+				occupiedSteps.add(step, -1);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Change the sound of the note on a step of a channel. Notes share their
+	 * Notes, so a note is changed by giving it a new Note, never by changing
+	 * the Note it has.
+	 * @param channel The channel index
+	 * @param step The step
+	 * @param note The new Note, shared from then on
+	 * @return The shared Note the note now plays, or null if there is no note on the step
+	 */
+	public Note setNote(int channel, int step, Note note) {
+		int index = timelines[channel].indexOf(step);
+		return index < 0 ? null : timelines[channel].setNote(index, note);
+	}
+
+	/**
+	 * Get the Notes of each channel by their registers, so a new version of the
+	 * song can be loaded without rendering the Notes it has in common with this one
+	 * @return For each channel, a Note for each set of registers used on it
+	 */
+	public List<Map<String, Note>> getNoteSounds() {
+		List<Map<String, Note>> sounds = createNoteSounds();
+		for(int i = 0; i < CHANNEL_COUNT; ++i) {
+			for(Note note : timelines[i].getSounds()) {
+				if(note != null) {
+					sounds.get(i).putIfAbsent(getNoteKey(note), note);
+				}
+			}
+		}
+		return sounds;
+	}
+
+	/**
+	 * Create an empty map of Notes by their registers for each channel
+	 * @return The maps
+	 */
+	private static List<Map<String, Note>> createNoteSounds() {
+		List<Map<String, Note>> sounds = new ArrayList<>();
+		for(int i = 0; i < CHANNEL_COUNT; ++i) {
+			sounds.add(new HashMap<String, Note>());
+		}
+		return sounds;
+	}
+
+	/**
+	 * Change this song to match a new version of it. Notes on the same step
+	 * with the same registers in both are kept as they are, so only the notes
+	 * that changed are removed and added, and the rows are updated for those
+	 * alone.
+	 * @param newer The new version of the song
+	 * @return The number of notes removed and added
+	 */
+	public int update(Song newer) {
+		title = newer.title;
+		bpm = newer.bpm;
+		looping = newer.looping;
+		endStep = newer.endStep;
+		loopStep = newer.loopStep;
+		int changes = 0;
+		for(int i = 0; i < CHANNEL_COUNT; ++i) {
+			NoteTimeline notes = timelines[i];
+			NoteTimeline newNotes = newer.timelines[i];
+
+			// Find each of the new version's sounds among the sounds here, once
+			List<Note> newSounds = newNotes.getSounds();
+			int[] sounds = new int[newSounds.size()];
+			for(int s = 0; s < sounds.length; ++s) {
+				sounds[s] = newSounds.get(s) == null ? -1 : notes.indexOfSound(newSounds.get(s));
+			}
+
+			// Both are in step order, so match the notes a step at a time
+			BitSet removed = new BitSet();
+			BitSet matched = new BitSet();
+			List<EditorNote> added = new ArrayList<>();
+			int k = 0, n = 0;
+			while(k < notes.size() || n < newNotes.size()) {
+				int step = Math.min(k < notes.size() ? notes.getStep(k) : Integer.MAX_VALUE,
+						n < newNotes.size() ? newNotes.getStep(n) : Integer.MAX_VALUE);
+				int end = notes.first(step + 1);
+				for(; n < newNotes.size() && newNotes.getStep(n) == step; ++n) {
+					int sound = sounds[newNotes.getSound(n)];
+					int match = k;
+					while(match < end && (matched.get(match) || notes.getSound(match) != sound)) {
+						++match;
+					}
+					if(match < end) {
+						matched.set(match);
+					} else {
+						added.add(newNotes.get(n));
+					}
+				}
+
+				// Remove the notes left unmatched on the step
+				for(; k < end; ++k) {
+					if(!matched.get(k)) {
+						removed.set(k);
+					}
+				}
+			}
+			changes += removed.cardinality() + added.size();
+			replaceNotes(i, removed, added);
+		}
+		return changes;
+	}
+
+	/**
+	 * Remove and add many notes on a channel in one pass over its notes,
+	 * keeping the rows up to date
+	 * @param channel The channel index
+	 * @param removed The positions of the notes to remove, in the channel's timeline
+	 * @param added The notes to add. Their Notes are shared from then on.
+	 */
+	public void replaceNotes(int channel, BitSet removed, List<EditorNote> added) {
+		buildIndices();
+		List<Integer> changedSteps = new ArrayList<>();
+		for(int k = removed.nextSetBit(0); k >= 0; k = removed.nextSetBit(k + 1)) {
+			changedSteps.add(timelines[channel].getStep(k));
+		}
+		for(EditorNote edn : added) {
+			changedSteps.add(edn.step);
+		}
+		timelines[channel].replace(removed, added);
+		++edits;
+
+		// Update which steps have a note on any channel
+		for(int step : changedSteps) {
+			int occupied = isOccupied(step) ? 1 : 0;
+			if(occupiedSteps.get(step) != occupied) {
+				occupiedSteps.add(step, occupied - occupiedSteps.get(step));
+			}
+		}
+	}
+
+	/**
+	 * Check if any channel has a note on a step
+	 * @param step The step
+	 * @return True if the step has a note
+	 */
+	public boolean isOccupied(int step) {
+		buildIndices();
+		for(NoteTimeline timeline : timelines) {
+			if(timeline.indexOf(step) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the notes of a channel, in step order. The timeline is the song's
+	 * storage for the channel: sounds can be changed through it, but notes are
+	 * added and removed through the song, which keeps its rows up to date.
+	 * @param channel The channel index
+	 * @return The timeline
+	 */
+	public NoteTimeline getTimeline(int channel) {
+		return timelines[channel];
+	}
+
+	/**
+	 * Get the number of rows the player needs for a range of steps, one per step
+	 * with a note on any channel
+	 * @param from The first step
+	 * @param to The step after the last
+	 * @return The row count
+	 */
+	public int getRowCount(int from, int to) {
+		buildIndices();
+		return occupiedSteps.range(from, to);
+	}
+
+	/**
+	 * Find the step a row plays on, where rows count the steps with a note on any channel
+	 * @param row The row, counting from 0
+	 * @return The step, or -1 if there are not that many rows
+	 */
+	public int getRowStep(int row) {
+		buildIndices();
+		return occupiedSteps.find(row);
+	}
+
+	/**
+	 * Build the steps with a note on any channel from the notes, if they haven't been already
+	 */
+	private void buildIndices() {
+		if(occupiedSteps == null) {
+			occupiedSteps = new StepIndex();
+			for(NoteTimeline timeline : timelines) {
+				for(int k = 0; k < timeline.size(); ++k) {
+					int step = timeline.getStep(k);
+					if(occupiedSteps.get(step) == 0) {
+						occupiedSteps.add(step, 1);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the maximum step for the notes currently placed
+	 * @return The maximum step, in 48ths
+	 */
+	public int getMaxStep() {
+		int maxStep = 0;
+		for(NoteTimeline timeline : timelines) {
+			if(timeline.size() > 0) {
+				maxStep = Math.max(maxStep, timeline.getStep(timeline.size() - 1));
+			}
+		}
+		return maxStep;
+	}
+
+	/**
+	 * Get the distinct wave RAM patterns used by the wave channel. Exported
+	 * rows refer to a pattern by its index in this list.
+	 * @return The patterns, each as four wave RAM words
+	 */
+	public List<int[]> getWavePatterns() {
+		List<int[]> patterns = new ArrayList<>();
+		NoteTimeline notes = timelines[WAVE_CHANNEL];
+		boolean[] seen = new boolean[notes.getSounds().size()];
+		for(int k = 0; k < notes.size(); ++k) {
+			if(seen[notes.getSound(k)]) {
+				continue;
+			}
+			seen[notes.getSound(k)] = true;
+			int[] words = new int[4];
+			for(int j = 0; j < words.length; ++j) {
+				words[j] = notes.getNote(k).getWaveWord(j);
+			}
+			if(indexOfPattern(patterns, words) < 0) {
+				patterns.add(words);
+			}
+		}
+		return patterns;
+	}
+
+	/**
+	 * Find the wave RAM pattern of a note
+	 * @param patterns The patterns to search
+	 * @param note The wave Note whose pattern to find
+	 * @return The index of the pattern, or -1 if it isn't in the list
+	 */
+	static int indexOfPattern(List<int[]> patterns, Note note) {
+		int[] words = new int[4];
+		for(int j = 0; j < words.length; ++j) {
+			words[j] = note.getWaveWord(j);
+		}
+		return indexOfPattern(patterns, words);
+	}
+
+	/**
+	 * Find a wave RAM pattern
+	 * @param patterns The patterns to search
+	 * @param words The pattern, as four wave RAM words
+	 * @return The index of the pattern, or -1 if it isn't in the list
+	 */
+	private static int indexOfPattern(List<int[]> patterns, int[] words) {
+		for(int i = 0; i < patterns.size(); ++i) {
+			if(Arrays.equals(patterns.get(i), words)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,274 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This class indexes the song files under a directory. The song properties,
+ * note count and length of every file are kept in an index file keyed by
+ * path, size and modification time, so rescanning only reads the files that
+ * have changed. Songs are read without creating their Notes, so nothing is
+ * rendered.
+ * @author Andrew Wilder
+ */
+public class SongLibrary {
+
+	/** Definitions */
+	private static final String INDEX_DIRECTORY = ".gbatracker";
+	private static final String INDEX_HEADER = "GBATracker library index 1";
+	private static final String SONG_EXTENSION = ".gbt";
+
+	/** The directory being indexed, and where its index is kept */
+	private final File root;
+	private final File indexFile;
+
+	/** The result of the last scan */
+	private List<Entry> entries = new ArrayList<>();
+	private int readCount = 0;
+
+	/**
+	 * The indexed properties of one song file
+	 * @author Andrew Wilder
+	 */
+	public static class Entry {
+
+		/** The file, and its state when it was read */
+		public final String path;
+		public final long size;
+		public final long modified;
+
+		/** The song properties, or an empty title if the file couldn't be read */
+		public final String title;
+		public final int bpm;
+		public final boolean looping;
+		public final int endStep;
+		public final int loopStep;
+		public final int noteCount;
+
+		/**
+		 * Create an index entry
+		 */
+		public Entry(String path, long size, long modified, String title, int bpm, boolean looping, int endStep, int loopStep, int noteCount) {
+			this.path = path;
+			this.size = size;
+			this.modified = modified;
+			this.title = title;
+			this.bpm = bpm;
+			this.looping = looping;
+			this.endStep = endStep;
+			this.loopStep = loopStep;
+			this.noteCount = noteCount;
+		}
+
+		/**
+		 * Get the playing time of the song, without looping
+		 * @return The length in seconds
+		 */
+		public double getSeconds() {
+			return bpm > 0 ? endStep * 5.0 / bpm : 0;
+		}
+	}
+
+	/**
+	 * Create a library for a directory, using its index from an earlier scan if there is one
+	 * @param root The directory to index
+	 */
+	public SongLibrary(File root) {
+		this.root = root.getAbsoluteFile();
+		File indexDirectory = new File(System.getProperty("user.home"), INDEX_DIRECTORY);
+		indexFile = new File(indexDirectory, String.format("library-%08x.idx", this.root.getPath().hashCode()));
+	}
+
+	/**
+	 * Get the indexed directory
+	 * @return The directory
+	 */
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * Get the songs found by the last scan
+	 * @return The index entries, sorted by path
+	 */
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Get the number of files the last scan had to read
+	 * @return The number of new or changed files
+	 */
+	public int getReadCount() {
+		return readCount;
+	}
+
+	/**
+	 * Find all of the songs under the directory, reading the new and changed
+	 * files in parallel, and save the index
+	 * @throws IOException If the directory can't be walked
+	 */
+	public void scan() throws IOException {
+		final Map<String, Entry> cached = readIndex();
+		final AtomicInteger reads = new AtomicInteger();
+		List<Path> paths;
+		try(Stream<Path> walk = Files.walk(root.toPath())) {
+			paths = walk.filter(p -> p.getFileName().toString().endsWith(SONG_EXTENSION)).collect(Collectors.toList());
+		}
+		List<Entry> scanned = paths.parallelStream().map(p -> {
+			try {
+				BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+				if(!attrs.isRegularFile()) {
+					return null;
+				}
+				String path = p.toString();
+				long modified = attrs.lastModifiedTime().toMillis();
+				Entry entry = cached.get(path);
+				if(entry != null && entry.size == attrs.size() && entry.modified == modified) {
+					return entry;
+				}
+				reads.incrementAndGet();
+				return readEntry(p.toFile(), attrs.size(), modified);
+			} catch(IOException e) {
+				return null;
+			}
+		}).filter(e -> e != null).collect(Collectors.toList());
+		Collections.sort(scanned, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				return a.path.compareTo(b.path);
+			}
+		});
+		entries = scanned;
+		readCount = reads.get();
+		writeIndex();
+	}
+
+	/**
+	 * Read the properties of a song file, counting its notes without creating them
+	 * @param file The song file
+	 * @param size The size of the file
+	 * @param modified The modification time of the file
+	 * @return The index entry, with an empty title if the file can't be parsed
+	 */
+	static Entry readEntry(File file, long size, long modified) {
+		try(BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			Song song = new Song();
+			song.parseProperties(reader.readLine());
+			String notes = reader.readLine();
+			int noteCount = 0;
+			int endStep, loopStep;
+			Scanner sc = new Scanner(notes);
+			sc.useDelimiter(",");
+			try {
+				endStep = Integer.parseInt(sc.next());
+				loopStep = Integer.parseInt(sc.next());
+				int patternCount = Song.getPatternCount(notes);
+				if(patternCount < 0) {
+					noteCount = countNotes(sc);
+				} else {
+
+					// Count each pattern's notes once, then multiply by the times it is played
+					int[] patternNotes = new int[patternCount];
+					for(int i = 0; i < patternCount; ++i) {
+						Scanner psc = new Scanner(reader.readLine());
+						psc.useDelimiter(",");
+						psc.next(); // Length
+						patternNotes[i] = countNotes(psc);
+						psc.close();
+					}
+					sc.next(); // Format
+					sc.next(); // Pattern count
+					int orderLength = Integer.parseInt(sc.next());
+					while(orderLength-- > 0) {
+						int pattern = Integer.parseInt(sc.next());
+						noteCount += patternNotes[pattern] * Integer.parseInt(sc.next());
+					}
+				}
+			} finally {
+				sc.close();
+			}
+			return new Entry(file.getPath(), size, modified, song.title, Integer.parseInt(song.bpm), song.looping, endStep, loopStep, noteCount);
+		} catch(Exception e) {
+			return new Entry(file.getPath(), size, modified, "", 0, false, 0, 0, 0);
+		}
+	}
+
+	/**
+	 * Count the notes of every channel, skipping over their values
+	 * @param sc The Scanner, positioned at the note count of the first channel
+	 * @return The number of notes
+	 */
+	private static int countNotes(Scanner sc) {
+		int noteCount = 0;
+		for(int i = 0; i < Song.CHANNEL_COUNT && sc.hasNext(); ++i) {
+			int len = Integer.parseInt(sc.next());
+			noteCount += len;
+			for(int j = len * Song.getNoteValueCount(i); j > 0; --j) {
+				sc.next();
+			}
+		}
+		return noteCount;
+	}
+
+	/**
+	 * Read the index saved by an earlier scan
+	 * @return The entries, keyed by path, or an empty map if there is no usable index
+	 */
+	private Map<String, Entry> readIndex() {
+		Map<String, Entry> cached = new ConcurrentHashMap<>();
+		if(!indexFile.exists()) {
+			return cached;
+		}
+		try {
+			List<String> lines = Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8);
+			if(lines.size() < 2 || !INDEX_HEADER.equals(lines.get(0)) || !root.getPath().equals(lines.get(1))) {
+				return cached;
+			}
+			for(String line : lines.subList(2, lines.size())) {
+				String[] v = line.split("\t", -1);
+				if(v.length == 9) {
+					cached.put(v[0], new Entry(v[0], Long.parseLong(v[1]), Long.parseLong(v[2]), v[3], Integer.parseInt(v[4]),
+							Boolean.parseBoolean(v[5]), Integer.parseInt(v[6]), Integer.parseInt(v[7]), Integer.parseInt(v[8])));
+				}
+			}
+		} catch(IOException | NumberFormatException e) {
+			e.printStackTrace();
+			cached.clear();
+		}
+		return cached;
+	}
+
+	/**
+	 * Save the index for the next scan
+	 */
+	private void writeIndex() {
+		indexFile.getParentFile().mkdirs();
+		try(PrintWriter pw = new PrintWriter(indexFile, "UTF-8")) {
+			pw.println(INDEX_HEADER);
+			pw.println(root.getPath());
+			for(Entry e : entries) {
+				pw.println(e.path + "\t" + e.size + "\t" + e.modified + "\t" + e.title + "\t" + e.bpm + "\t" + e.looping + "\t"
+						+ e.endStep + "\t" + e.loopStep + "\t" + e.noteCount);
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class holds a block of steps across all of the channels. A song's
+ * order list plays patterns one after another, so a section that repeats is
+ * only stored, rendered and exported once.
+ * @author Andrew Wilder
+ */
+public class SongPattern {
+
+	/** The length of the pattern, in 48ths */
+	public final int length;
+
+	/** The notes of each channel, with steps relative to the start of the pattern */
+	public final List<List<EditorNote>> channels = new ArrayList<>();
+
+	/**
+	 * Create an empty pattern
+	 * @param length The length of the pattern, in 48ths
+	 */
+	public SongPattern(int length) {
+		this.length = length;
+		for(int i = 0; i < Song.CHANNEL_COUNT; ++i) {
+			channels.add(new ArrayList<EditorNote>());
+		}
+	}
+
+	/**
+	 * Add a note, unless the channel already has a note on that step
+	 * @param channel The channel index
+	 * @param note The Note
+	 * @param step The step, relative to the start of the pattern
+	 */
+	public void addNote(int channel, Note note, int step) {
+		EditorNote edn = new EditorNote(note, step);
+		List<EditorNote> notes = channels.get(channel);
+		if(!notes.contains(edn)) {
+			int i = notes.size();
+			while(i > 0 && notes.get(i - 1).step > step) {
+				--i;
+			}
+			notes.add(i, edn);
+		}
+	}
+
+	/**
+	 * Get a String that is equal for patterns that sound the same
+	 * @return The key of the pattern
+	 */
+	public String getKey() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(length);
+		for(List<EditorNote> notes : channels) {
+			sb.append(";");
+			for(EditorNote edn : notes) {
+				sb.append(edn.step).append(Arrays.toString(edn.note.getRegisters()));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Generate the rows of note data for exporting. There is a row for each
+	 * step with a note, and the first row is always on the first step, so
+	 * that the rows of a pattern fill its whole length.
+	 * @param wavePatterns The song's wave RAM patterns, for the wave column
+	 * @return The rows of register values, in the order of note_t
+	 */
+	public int[][] getRows(List<int[]> wavePatterns) {
+
+		// Find the notes on each step
+		Note[][] steps = new Note[length][Song.CHANNEL_COUNT];
+		for(int i = 0; i < Song.CHANNEL_COUNT; ++i) {
+			for(EditorNote edn : channels.get(i)) {
+				steps[edn.step][i] = edn.note;
+			}
+		}
+
+		// One row per occupied step, waiting until the next one
+		List<int[]> rows = new ArrayList<>();
+		for(int i = 0; i < length; ++i) {
+			Note[] notes = steps[i];
+			if(i > 0 && notes[0] == null && notes[1] == null && notes[2] == null && notes[Song.WAVE_CHANNEL] == null) {
+				++rows.get(rows.size() - 1)[Song.ROW_LEN];
+				continue;
+			}
+			int[] row = new int[Song.ROW_WIDTH];
+			if(notes[0] != null) {
+				row[Song.ROW_CH1_SWP] = notes[0].getSWP();
+				row[Song.ROW_CH1_ENV] = notes[0].getENV();
+				row[Song.ROW_CH1_FRQ] = notes[0].getFRQ();
+			}
+			if(notes[1] != null) {
+				row[Song.ROW_CH2_ENV] = notes[1].getENV();
+				row[Song.ROW_CH2_FRQ] = notes[1].getFRQ();
+			}
+			Note n = notes[Song.WAVE_CHANNEL];
+			if(n != null) {
+				row[Song.ROW_CH3_CNT_L] = n.getSWP();
+				row[Song.ROW_CH3_CNT_H] = n.getENV();
+				row[Song.ROW_CH3_CNT_X] = n.getFRQ();
+				row[Song.ROW_CH3_WAVE] = Song.indexOfPattern(wavePatterns, n);
+			}
+			if(notes[2] != null) {
+				row[Song.ROW_CH4_ENV] = notes[2].getENV();
+				row[Song.ROW_CH4_FRQ] = notes[2].getFRQ();
+			}
+			row[Song.ROW_LEN] = 1;
+			rows.add(row);
+		}
+		return rows.toArray(new int[rows.size()][]);
+	}
+}
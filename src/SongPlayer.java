@@ -0,0 +1,367 @@
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * This class plays a song in the editor, streaming each channel to its own
+ * line from a SongRenderer layout, mixed a little ahead of the lines. A
+ * looping song is laid out as the first pass and one repeat from the loop
+ * step. The stream runs through the first pass into the repeat, and when it
+ * reaches the end of the repeat it carries on from the start of the repeat,
+ * which starts with the same notes still sounding. So the loop target's notes
+ * are mixed ahead like any others, the wrap from the end step to the loop
+ * step is sample-continuous, and it costs nothing more than an offset.
+ *
+ * When the song changes during playback, it is laid out again and the stream
+ * switches to the new layout at the step it has got to, so notes that are in
+ * both carry on without a break. The step each stretch of the stream plays is
+ * kept until it has been heard, so the step being heard is found across a
+ * switch or a wrap.
+ * @author Andrew Wilder
+ */
+public class SongPlayer {
+
+	/** Definitions */
+	private static final int CHUNK_MS = 10; // Mixed and written to the lines at a time
+	private static final int MAX_LEAD_MS = 250; // How far the stream may get ahead of the clock
+
+	/**
+	 * The song laid out for playback, as the first pass and one repeat if it loops
+	 */
+	private static class Layout {
+
+		/** The mixdown, and the steps and tempo it was laid out with */
+		final SongRenderer renderer;
+		final int bpm;
+		final int endStep, loopStep;
+
+		/** The samples of the layout where the repeat starts and ends, with the end -1 if there is no repeat */
+		final long repeatStart;
+		final long repeatEnd;
+
+		/**
+		 * Lay out a song, rendering any notes that need it
+		 * @param song The song
+		 * @param bpm The tempo
+		 * @param looping Whether to lay out a repeat from the loop step
+		 */
+		Layout(Song song, int bpm, boolean looping) {
+			this.bpm = bpm;
+			endStep = song.endStep;
+			loopStep = song.loopStep;
+			boolean repeat = looping && loopStep < endStep;
+			renderer = new SongRenderer(song, bpm, repeat ? 2 : 1);
+			repeatStart = renderer.stepToSample(endStep, bpm);
+			repeatEnd = repeat ? renderer.stepToSample(2L * endStep - loopStep, bpm) : -1;
+		}
+
+		/**
+		 * Find the sample of the layout that plays at a position
+		 * @param position The position, in samples from the start of the song, counting each repeat
+		 * @return The sample of the layout
+		 */
+		long toLayout(long position) {
+			if(repeatEnd < 0 || position < repeatEnd) {
+				return position;
+			}
+			return repeatStart + (position - repeatStart) % (repeatEnd - repeatStart);
+		}
+
+		/**
+		 * Find the position a step plays at. A step past the end of a song
+		 * that loops plays from the loop step, and one past the end of a song
+		 * that doesn't plays at the end.
+		 * @param step The step, with the fraction of the way through it
+		 * @param inRepeat True for where it plays in the repeat, if it is in the repeat
+		 * @return The position, in samples from the start of the song
+		 */
+		long toPosition(double step, boolean inRepeat) {
+			if(repeatEnd >= 0 && step >= endStep) {
+				step = loopStep;
+				inRepeat = true;
+			} else if(repeatEnd < 0 || step < loopStep) {
+				step = Math.min(step, endStep);
+				inRepeat = false;
+			}
+			return Math.round((inRepeat ? step + endStep - loopStep : step) * 5 * renderer.getSampleRate() / bpm);
+		}
+
+		/**
+		 * Get the step that plays at a sample of the layout
+		 * @param sample The sample
+		 * @return The step, with the fraction of the way through it
+		 */
+		double toStep(long sample) {
+			double step = sample * getStepsPerSample();
+			return repeatEnd < 0 || step < endStep ? step : loopStep + step - endStep;
+		}
+
+		/**
+		 * Get the length of a sample in steps
+		 * @return The fraction of a step
+		 */
+		double getStepsPerSample() {
+			return bpm / (5.0 * renderer.getSampleRate());
+		}
+	}
+
+	/**
+	 * A stretch of the stream that plays the steps of a layout in order,
+	 * without a wrap or a switch in it
+	 */
+	private static class Stretch {
+		final long start; // The first sample of the stream
+		final double step; // The step it starts on
+		final double stepsPerSample;
+		final int repeats; // The times the song has gone back to the loop step by then
+
+		Stretch(long start, double step, double stepsPerSample, int repeats) {
+			this.start = start;
+			this.step = step;
+			this.stepsPerSample = stepsPerSample;
+			this.repeats = repeats;
+		}
+	}
+
+	/** The lines the channels are streamed to, and their sample rate */
+	private final List<Channel> channels;
+	private final int sampleRate;
+
+	/** The layout being streamed, and a newer one to switch to */
+	private Layout layout;
+	private volatile Layout pending = null;
+
+	/** The song and tempo last laid out, and their layout, to lay out again with a repeat */
+	private Song song;
+	private int bpm;
+	private Layout latest;
+
+	/** Where the stream starts, in samples of the layout counting each repeat */
+	private final long startPosition;
+
+	/** The stretches of the stream written but not yet heard, oldest first */
+	private final ArrayDeque<Stretch> stretches = new ArrayDeque<>();
+
+	/** Samples of the stream, counting from its start */
+	private volatile long written = 0;
+	private volatile long end = Long.MAX_VALUE; // Where the notes end, once the stream won't loop again
+	private long played = 0;
+
+	/** Playback state */
+	private volatile boolean looping;
+	private volatile boolean stopped = false;
+	private volatile long startNanos = 0;
+	private double playingStep;
+	private int playingRepeats = 0;
+
+	/**
+	 * Lay out a song for playback, rendering any notes that need it
+	 * @param song The song
+	 * @param bpm The tempo
+	 * @param looping Whether to repeat the song from the loop step
+	 * @param startStep The step to start from
+	 * @param channels The line for each channel
+	 */
+	public SongPlayer(Song song, int bpm, boolean looping, int startStep, List<Channel> channels) {
+		this.channels = channels;
+		this.song = song;
+		this.bpm = bpm;
+		layout = latest = new Layout(song, bpm, looping);
+		this.looping = layout.repeatEnd >= 0;
+		sampleRate = layout.renderer.getSampleRate();
+		if(startStep >= layout.endStep) {
+			startStep = this.looping ? layout.loopStep : layout.endStep;
+		}
+		startPosition = layout.renderer.stepToSample(startStep, bpm);
+		playingStep = startStep;
+	}
+
+	/**
+	 * Start streaming the song
+	 */
+	public void start() {
+		Thread streamer = new Thread("Song playback") {
+			@Override
+			public void run() {
+				stream();
+			}
+		};
+		streamer.setDaemon(true);
+		streamer.start();
+	}
+
+	/**
+	 * Stop the song, silencing the lines
+	 */
+	public void stop() {
+		stopped = true;
+		for(Channel channel : channels) {
+			channel.cancel();
+		}
+	}
+
+	/**
+	 * Turn looping off, so the song ends at the end of the pass being
+	 * played, or back on if it hasn't ended yet. A song laid out without a
+	 * repeat is laid out again with one, and the stream switches to it.
+	 * @param enable True to loop
+	 */
+	public void setLooping(boolean enable) {
+		looping = enable;
+		if(enable && latest.repeatEnd < 0 && latest.loopStep < latest.endStep && !isAtEnd()) {
+			Layout next = new Layout(song, bpm, true);
+			if(next.renderer.getSampleRate() == sampleRate) {
+				pending = latest = next;
+			}
+		}
+	}
+
+	/**
+	 * Lay out a new version of the song, rendering any notes that need it,
+	 * and switch to it at the step the stream has got to
+	 * @param song The song
+	 * @param bpm The tempo
+	 * @return False if the output rate has changed since the song started, so
+	 *         the new version can't be streamed to the lines
+	 */
+	public boolean update(Song song, int bpm) {
+		Layout next = new Layout(song, bpm, looping);
+		if(next.renderer.getSampleRate() != sampleRate) {
+			return false;
+		}
+		this.song = song;
+		this.bpm = bpm;
+		pending = latest = next;
+		return true;
+	}
+
+	/**
+	 * Mix the song a chunk at a time and write each channel's chunk to its
+	 * line, until the song ends or is stopped
+	 */
+	private void stream() {
+		int[] gens = new int[channels.size()];
+		for(int c = 0; c < gens.length; ++c) {
+			gens[c] = channels.get(c).begin();
+		}
+		if(stopped) {
+			return;
+		}
+		startNanos = System.nanoTime();
+		int chunk = sampleRate * CHUNK_MS / 1000;
+		byte[][] bufs = new byte[channels.size()][chunk];
+		long position = startPosition;
+		long streamEnd = Long.MAX_VALUE;
+		int repeats = 0;
+		TrackerMetrics metrics = TrackerMetrics.get();
+		for(long sample = 0; sample < streamEnd; sample += chunk) {
+
+			// Switch to a new layout of the song at the step that has been reached
+			Layout next = pending;
+			if(next != null) {
+				pending = null;
+				long at = layout.toLayout(position);
+				position = next.toPosition(layout.toStep(at), layout.repeatEnd >= 0 && at >= layout.repeatStart);
+				layout = next;
+				end = streamEnd = Long.MAX_VALUE;
+			}
+
+			// A song without a repeat ends at its end step, and its last notes ring out
+			if(streamEnd == Long.MAX_VALUE && layout.repeatEnd < 0) {
+				end = sample + Math.max(0, layout.repeatStart - position);
+				streamEnd = sample + Math.max(0, layout.renderer.getLength() - position);
+			}
+
+			// Once looping is turned back on, carry on past the end of the pass
+			if(streamEnd != Long.MAX_VALUE && looping && layout.repeatEnd >= 0) {
+				end = streamEnd = Long.MAX_VALUE;
+			}
+
+			// Once looping is turned off, finish the pass being played
+			if(streamEnd == Long.MAX_VALUE && !looping) {
+				long at = layout.toLayout(position);
+				end = streamEnd = sample + (at < layout.repeatStart ? layout.repeatStart : layout.repeatEnd) - at;
+			}
+
+			// Mix the chunk a stretch at a time, going back to the start of the repeat at its end
+			int count = (int) Math.min(chunk, streamEnd - sample);
+			for(int done = 0; done < count;) {
+				long at = layout.toLayout(position);
+				int n = count - done;
+				if(layout.repeatEnd >= 0) {
+					n = (int) Math.min(n, (at < layout.repeatStart ? layout.repeatStart : layout.repeatEnd) - at);
+					if(at == layout.repeatStart) {
+						++repeats;
+					}
+				}
+				synchronized(this) {
+					stretches.addLast(new Stretch(sample + done, layout.toStep(at), layout.getStepsPerSample(), repeats));
+				}
+				for(int c = 0; c < bufs.length; ++c) {
+					layout.renderer.mixChannel(c, bufs[c], done, at, n);
+				}
+				done += n;
+				position += n;
+			}
+
+			// Measure how late the chunk is, and keep within reach of the clock if the lines don't hold it back
+			long due = sample * 1000000000L / sampleRate;
+			long now = System.nanoTime() - startNanos;
+			metrics.recordStepLateness(now - due);
+			if(due - now > MAX_LEAD_MS * 1000000L) {
+				try {
+					Thread.sleep((due - now) / 1000000 - MAX_LEAD_MS);
+				} catch(InterruptedException e) {
+					return;
+				}
+			}
+			for(int c = 0; c < bufs.length; ++c) {
+				if(!channels.get(c).append(gens[c], bufs[c], 0, count)) {
+					return;
+				}
+			}
+			written = sample + count;
+		}
+	}
+
+	/**
+	 * Get the step being heard, from what the lines have played
+	 * @return The step, with the fraction of the way through it
+	 */
+	public synchronized double getPlayingStep() {
+		long elapsed = startNanos == 0 ? 0 : (System.nanoTime() - startNanos) * sampleRate / 1000000000L;
+		long heard = Math.min(written - channels.get(0).getQueuedSamples(), elapsed);
+
+		// Never move back, as what was written and what is queued aren't read together
+		played = Math.max(played, heard);
+
+		// Drop the stretches that have been heard, up to the one playing
+		Stretch current = stretches.pollFirst();
+		while(!stretches.isEmpty() && stretches.peekFirst().start <= played) {
+			current = stretches.pollFirst();
+		}
+		if(current != null) {
+			stretches.addFirst(current);
+			playingStep = current.step + (played - current.start) * current.stepsPerSample;
+			playingRepeats = current.repeats;
+		}
+		return playingStep;
+	}
+
+	/**
+	 * Get the number of times the song has gone back to the loop step, as of
+	 * the last call to getPlayingStep
+	 * @return The count
+	 */
+	public synchronized int getRepeats() {
+		return playingRepeats;
+	}
+
+	/**
+	 * Check if the song has been heard to the end step it won't loop from,
+	 * as of the last call to getPlayingStep. Notes may still be ringing out.
+	 * @return True at the end
+	 */
+	public synchronized boolean isAtEnd() {
+		return played >= end;
+	}
+}
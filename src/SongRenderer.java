@@ -0,0 +1,478 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * This class mixes a whole song offline, the way the channels play it: each
+ * note plays its rendered buffer from its step until the next note on the
+ * same channel restarts the channel. Every note is rendered from its own
+ * registers, so the song can be split into segments at note boundaries and
+ * the segments mixed in parallel, giving the same samples as mixing it in one
+ * pass.
+ *
+ * Mixing is written as plain loops over arrays of one element type, which
+ * the JIT compiles to SIMD instructions on its own: each rendered buffer is
+ * widened to 16 bits once, the first time the song is mixed, so the channels
+ * are summed 16 bits at a time, and
+ * samples are converted to bytes with a bulk buffer copy. The scalar mixer the
+ * vector loops replaced is kept as a fallback and for comparison, and must
+ * give the same samples.
+ * @author Andrew Wilder
+ */
+public class SongRenderer {
+
+	/** Definitions */
+	private static final int BATCH_SAMPLES = 1 << 22; // Mixed at a time when streaming
+	private static final int SEGMENTS_PER_THREAD = 4;
+	private static final int HEADROOM_BITS = 2; // The sum of four channels needs two more bits than one
+
+	/** Whether to mix with the vector loops rather than the scalar ones */
+	private static volatile boolean vectorized = !Boolean.getBoolean("gbatracker.scalarMix");
+
+	/** The notes of each channel, as the sample they start on and their rendered buffer */
+	private final long[][] starts = new long[Song.CHANNEL_COUNT][];
+	private final byte[][][] bufs = new byte[Song.CHANNEL_COUNT][][];
+
+	/**
+	 * The rendered buffers widened to 16 bits, shared between the notes that
+	 * share a buffer. They are only needed to mix the channels together, so
+	 * they aren't made until then, and never for playback.
+	 */
+	private volatile short[][][] wideBufs = null;
+
+	/** The length of the mixdown, including notes still sounding at the end */
+	private final long length;
+
+	/** The output format when the song was laid out, which the notes are rendered for */
+	private final int sampleRate;
+	private final int sampleBits;
+
+	/** How far the sum of the 8-bit channels is shifted up to 16 bits */
+	private final int mixShift;
+
+	/**
+	 * Lay out the notes of a song, using the buffers the editor plays
+	 * @param song The song
+	 * @param bpm The tempo
+	 * @param loops The number of times to play the song, where the repeats start at the loop step
+	 */
+	public SongRenderer(Song song, int bpm, int loops) {
+		this(song, bpm, loops, false);
+	}
+
+	/**
+	 * Lay out and render the notes of a song
+	 * @param song The song
+	 * @param bpm The tempo
+	 * @param loops The number of times to play the song, where the repeats start at the loop step
+	 * @param oversampled True to render each note oversampled and filtered for the final mixdown,
+	 *                    false to use the quicker buffers the editor plays
+	 */
+	public SongRenderer(Song song, int bpm, int loops, boolean oversampled) {
+		sampleRate = Channel.getSampleRate();
+		sampleBits = Channel.getSampleBits();
+		mixShift = sampleBits == 8 ? 8 : 8 - HEADROOM_BITS;
+		long end = 0;
+		for(int i = 0; i < Song.CHANNEL_COUNT; ++i) {
+
+			// The first note on a step is the one that plays
+			final NoteTimeline timeline = song.getTimeline(i);
+			int count = timeline.first(song.endStep);
+			int[] playing = new int[count];
+			int playingCount = 0;
+			for(int k = 0; k < count; ++k) {
+				if(k == 0 || timeline.getStep(k) != timeline.getStep(k - 1)) {
+					playing[playingCount++] = k;
+				}
+			}
+
+			// Render each sound once, in parallel
+			final List<Note> sounds = timeline.getSounds();
+			final boolean[] used = new boolean[sounds.size()];
+			for(int j = 0; j < playingCount; ++j) {
+				used[timeline.getSound(playing[j])] = true;
+			}
+			final boolean hasSweep = Song.hasSweep(i);
+			final byte[][] rendered = new byte[sounds.size()][];
+			IntStream.range(0, sounds.size()).parallel().filter(s -> used[s]).forEach(s -> {
+				Note note = sounds.get(s);
+				if(oversampled) {
+					rendered[s] = note.renderOversampled(hasSweep);
+				} else {
+					note.prepareBuf(hasSweep);
+					rendered[s] = note.getBuf();
+				}
+			});
+
+			// Play the notes from the start, then from the loop step for each repeat
+			List<Long> channelStarts = new ArrayList<>();
+			List<byte[]> channelBufs = new ArrayList<>();
+			long passStart = 0;
+			for(int pass = 0; pass < loops; ++pass) {
+				int firstStep = pass == 0 ? 0 : song.loopStep;
+				for(int j = 0; j < playingCount; ++j) {
+					int step = timeline.getStep(playing[j]);
+					if(step >= firstStep) {
+						channelStarts.add(stepToSample(passStart + step - firstStep, bpm));
+						channelBufs.add(rendered[timeline.getSound(playing[j])]);
+					}
+				}
+				passStart += song.endStep - firstStep;
+			}
+			starts[i] = new long[channelStarts.size()];
+			bufs[i] = channelBufs.toArray(new byte[channelBufs.size()][]);
+			for(int j = 0; j < starts[i].length; ++j) {
+				starts[i][j] = channelStarts.get(j);
+			}
+			end = Math.max(end, stepToSample(passStart, bpm));
+			int last = starts[i].length - 1;
+			if(last >= 0) {
+				end = Math.max(end, starts[i][last] + bufs[i][last].length);
+			}
+		}
+		length = end;
+	}
+
+	/**
+	 * Widen each rendered buffer once, however many notes play it, the first
+	 * time they are needed
+	 * @return The widened buffers of each note
+	 */
+	private short[][][] getWideBufs() {
+		short[][][] result = wideBufs;
+		if(result == null) {
+			synchronized(this) {
+				result = wideBufs;
+				if(result == null) {
+					Map<byte[], short[]> wide = Collections.synchronizedMap(new IdentityHashMap<byte[], short[]>());
+					for(byte[][] channelBufs : bufs) {
+						for(byte[] buf : channelBufs) {
+							wide.put(buf, null);
+						}
+					}
+					new ArrayList<>(wide.keySet()).parallelStream().forEach(buf -> wide.put(buf, widen(buf)));
+					result = new short[Song.CHANNEL_COUNT][][];
+					for(int i = 0; i < Song.CHANNEL_COUNT; ++i) {
+						result[i] = new short[bufs[i].length][];
+						for(int j = 0; j < bufs[i].length; ++j) {
+							result[i][j] = wide.get(bufs[i][j]);
+						}
+					}
+					wideBufs = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Choose between the vector and scalar mixing loops, for all renderers.
+	 * Both give the same samples. The default is the vector loops, unless the
+	 * gbatracker.scalarMix system property is true.
+	 * @param v True to use the vector loops
+	 */
+	public static void setVectorized(boolean v) {
+		vectorized = v;
+	}
+
+	/**
+	 * Check which mixing loops are in use
+	 * @return True if the vector loops are
+	 */
+	public static boolean isVectorized() {
+		return vectorized;
+	}
+
+	/**
+	 * Widen a rendered buffer to 16 bits
+	 * @param buf The 8-bit samples
+	 * @return The same samples as shorts
+	 */
+	private static short[] widen(byte[] buf) {
+		short[] wide = new short[buf.length];
+		for(int i = 0; i < buf.length; ++i) {
+			wide[i] = buf[i];
+		}
+		return wide;
+	}
+
+	/**
+	 * Get the sample a step starts on
+	 * @param step The step, counting from the start of the mixdown
+	 * @param bpm The tempo
+	 * @return The sample index
+	 */
+	public long stepToSample(long step, int bpm) {
+		// A 48th lasts 5 / BPM seconds
+		return step * sampleRate * 5 / bpm;
+	}
+
+	/**
+	 * Get the sample rate of the mixdown
+	 * @return The rate in Hz
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Get the length of the mixdown
+	 * @return The number of samples
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Mix a range of samples into 16 bits. For 8-bit output the channels are
+	 * summed at full scale and clipped, as the system mixer does with the
+	 * 8-bit channel lines, so loud passages clip past the range of one
+	 * channel. For 16-bit output the sum is scaled down by the number of
+	 * channels, so it never clips.
+	 * @param out The array to mix into
+	 * @param offset Where in the array to put the first sample
+	 * @param from The first sample of the mixdown to mix
+	 * @param count The number of samples
+	 */
+	public void mix(short[] out, int offset, long from, int count) {
+		if(vectorized) {
+			mixVectorized(out, offset, from, count);
+		} else {
+			mixScalar(out, offset, from, count);
+		}
+	}
+
+	/**
+	 * Mix a range of samples with loops the JIT vectorizes. The channels are
+	 * summed in 16 bits, which can't overflow as four 8-bit channels need 10.
+	 * @param out The array to mix into
+	 * @param offset Where in the array to put the first sample
+	 * @param from The first sample of the mixdown to mix
+	 * @param count The number of samples
+	 */
+	private void mixVectorized(short[] out, int offset, long from, int count) {
+		short[][][] wideBufs = getWideBufs();
+		short[] acc = new short[count];
+		long to = from + count;
+		for(int c = 0; c < Song.CHANNEL_COUNT; ++c) {
+			long[] s = starts[c];
+			int k = Arrays.binarySearch(s, from);
+			if(k < 0) {
+				k = Math.max(0, -k - 2);
+			}
+			for(; k < s.length && s[k] < to; ++k) {
+				short[] buf = wideBufs[c][k];
+				long noteEnd = Math.min(s[k] + buf.length, k + 1 < s.length ? s[k + 1] : Long.MAX_VALUE);
+				long a = Math.max(s[k], from);
+				long b = Math.min(noteEnd, to);
+
+				// An int loop over arrays of the same type, so it is unrolled into vector adds
+				int dst = (int) (a - from), src = (int) (a - s[k]), n = (int) (b - a);
+				for(int i = 0; i < n; ++i) {
+					acc[dst + i] += buf[src + i];
+				}
+			}
+		}
+		for(int i = 0; i < count; ++i) {
+			out[offset + i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, acc[i] << mixShift));
+		}
+	}
+
+	/**
+	 * Mix a range of samples one sample at a time
+	 * @param out The array to mix into
+	 * @param offset Where in the array to put the first sample
+	 * @param from The first sample of the mixdown to mix
+	 * @param count The number of samples
+	 */
+	private void mixScalar(short[] out, int offset, long from, int count) {
+		int[] acc = new int[count];
+		long to = from + count;
+		for(int c = 0; c < Song.CHANNEL_COUNT; ++c) {
+			long[] s = starts[c];
+
+			// Start at the note playing at the first sample, which may have started before it
+			int k = Arrays.binarySearch(s, from);
+			if(k < 0) {
+				k = Math.max(0, -k - 2);
+			}
+			for(; k < s.length && s[k] < to; ++k) {
+				byte[] buf = bufs[c][k];
+				long noteEnd = Math.min(s[k] + buf.length, k + 1 < s.length ? s[k + 1] : Long.MAX_VALUE);
+				long a = Math.max(s[k], from);
+				long b = Math.min(noteEnd, to);
+				for(long t = a; t < b; ++t) {
+					acc[(int) (t - from)] += buf[(int) (t - s[k])];
+				}
+			}
+		}
+		for(int i = 0; i < count; ++i) {
+			out[offset + i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, acc[i] << mixShift));
+		}
+	}
+
+	/**
+	 * Copy a range of the samples one channel plays, for streaming each
+	 * channel to its own line. Samples where the channel is silent are zero.
+	 * @param channel The channel index
+	 * @param out The array to copy into
+	 * @param offset Where in the array to put the first sample
+	 * @param from The first sample of the mixdown to copy
+	 * @param count The number of samples
+	 */
+	public void mixChannel(int channel, byte[] out, int offset, long from, int count) {
+		Arrays.fill(out, offset, offset + count, (byte) 0);
+		long to = from + count;
+		long[] s = starts[channel];
+		int k = Arrays.binarySearch(s, from);
+		if(k < 0) {
+			k = Math.max(0, -k - 2);
+		}
+		for(; k < s.length && s[k] < to; ++k) {
+			byte[] buf = bufs[channel][k];
+			long noteEnd = Math.min(s[k] + buf.length, k + 1 < s.length ? s[k + 1] : Long.MAX_VALUE);
+			long a = Math.max(s[k], from);
+			long b = Math.min(noteEnd, to);
+			if(b > a) {
+				System.arraycopy(buf, (int) (a - s[k]), out, offset + (int) (a - from), (int) (b - a));
+			}
+		}
+	}
+
+	/**
+	 * Mix a range of samples on the common fork-join pool. The range is split
+	 * into segments that start on notes, and each segment is mixed on its own.
+	 * @param out The array to mix into
+	 * @param offset Where in the array to put the first sample
+	 * @param from The first sample of the mixdown to mix
+	 * @param count The number of samples
+	 */
+	public void mixParallel(final short[] out, final int offset, final long from, int count) {
+		int segments = Runtime.getRuntime().availableProcessors() * SEGMENTS_PER_THREAD;
+		final long[] bounds = new long[segments + 1];
+		bounds[0] = from;
+		for(int i = 1; i < segments; ++i) {
+			bounds[i] = Math.max(bounds[i - 1], nextNoteStart(from + (long) count * i / segments, from + count));
+		}
+		bounds[segments] = from + count;
+		if(vectorized) {
+			getWideBufs(); // Before the segments, so they don't wait on each other for it
+		}
+		IntStream.range(0, segments).parallel().forEach(i -> {
+			if(bounds[i + 1] > bounds[i]) {
+				mix(out, offset + (int) (bounds[i] - from), bounds[i], (int) (bounds[i + 1] - bounds[i]));
+			}
+		});
+	}
+
+	/**
+	 * Find the first sample at or after a sample where a note starts on any channel
+	 * @param sample The sample
+	 * @param limit The sample to return if no note starts before it
+	 * @return The start of the note
+	 */
+	private long nextNoteStart(long sample, long limit) {
+		long next = limit;
+		for(long[] s : starts) {
+			int k = Arrays.binarySearch(s, sample);
+			if(k < 0) {
+				k = -k - 1;
+			}
+			if(k < s.length) {
+				next = Math.min(next, s[k]);
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Mix the whole song
+	 * @param parallel Whether to mix segments in parallel
+	 * @return The samples
+	 */
+	public short[] mixAll(boolean parallel) {
+		short[] out = new short[(int) length];
+		if(parallel) {
+			mixParallel(out, 0, 0, out.length);
+		} else {
+			mix(out, 0, 0, out.length);
+		}
+		return out;
+	}
+
+	/**
+	 * Write the mixdown to a WAV file, mixing a batch at a time. The file has
+	 * the output depth. At 16 bits the four channels are summed without
+	 * clipping; at 8 bits the sum is clipped to the range of one channel.
+	 * @param file The file
+	 * @param parallel Whether to mix segments in parallel
+	 * @throws IOException If the file can't be written
+	 */
+	public void writeWav(File file, final boolean parallel) throws IOException {
+		InputStream pcm = new InputStream() {
+			private final short[] batch = new short[BATCH_SAMPLES];
+			private final int sampleBytes = sampleBits / 8;
+			private final byte[] bytes = new byte[BATCH_SAMPLES * sampleBytes];
+			private long mixed = 0;
+			private int pos = 0, available = 0;
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if(pos == available) {
+					int count = (int) Math.min(BATCH_SAMPLES, length - mixed);
+					if(count == 0) {
+						return -1;
+					}
+					if(parallel) {
+						mixParallel(batch, 0, mixed, count);
+					} else {
+						mix(batch, 0, mixed, count);
+					}
+					if(sampleBytes == 1) {
+						for(int i = 0; i < count; ++i) {
+							bytes[i] = (byte) (batch[i] >> 8);
+						}
+					} else if(vectorized) {
+						ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(batch, 0, count);
+					} else {
+						for(int i = 0; i < count; ++i) {
+							bytes[2 * i] = (byte) batch[i];
+							bytes[2 * i + 1] = (byte) (batch[i] >> 8);
+						}
+					}
+					mixed += count;
+					pos = 0;
+					available = count * sampleBytes;
+				}
+				int n = Math.min(len, available - pos);
+				System.arraycopy(bytes, pos, b, off, n);
+				pos += n;
+				return n;
+			}
+		};
+		AudioFormat format = new AudioFormat(sampleRate, sampleBits, 1, true, false);
+		AudioSystem.write(new AudioInputStream(pcm, format, length), AudioFileFormat.Type.WAVE, file);
+	}
+}
@@ -0,0 +1,406 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class splits a song into patterns of one measure and an order list
+ * that plays them. Measures that sound the same share a pattern, and runs of
+ * the same pattern are a single order entry with a repeat count, so the
+ * structure grows with the unique material and the number of notes rather
+ * than with the length of the song.
+ * @author Andrew Wilder
+ */
+public class SongStructure {
+
+	/** Definitions */
+	public static final int PATTERN_LENGTH = 48; // One measure
+	public static final int MAX_REPEAT = 0xFFFF;
+
+	/** The unique patterns, and the order entries that play them as {pattern, repeat} */
+	private final List<SongPattern> patterns = new ArrayList<>();
+	private final List<int[]> order = new ArrayList<>();
+
+	/** Where the player continues after the last order entry */
+	private int loopOrder = -1;
+	private int loopRow = 0;
+
+	/**
+	 * The formatted rows of the last export, by their register values. The
+	 * values include the row's length, so a row is formatted again only if an
+	 * edit changed its notes or the length of the row before the next note.
+	 */
+	private static Map<RowKey, String> formattedRows = new HashMap<>();
+
+	/** Exported data */
+	private final List<int[]> wavePatterns;
+	private final List<int[][]> patternRows = new ArrayList<>();
+
+	/**
+	 * Build the structure of a song
+	 * @param song The song
+	 */
+	public SongStructure(Song song) {
+
+		// Put the notes into the measures that have any, dropping notes past the end
+		TreeMap<Integer, SongPattern> measures = new TreeMap<>();
+		for(int i = 0; i < Song.CHANNEL_COUNT; ++i) {
+			for(EditorNote edn : song.getTimeline(i).range(0, song.endStep)) {
+				int measure = edn.step / PATTERN_LENGTH;
+				SongPattern pattern = measures.get(measure);
+				if(pattern == null) {
+					pattern = new SongPattern(getMeasureLength(song, measure));
+					measures.put(measure, pattern);
+				}
+				pattern.addNote(i, edn.note, edn.step % PATTERN_LENGTH);
+			}
+		}
+
+		// Walk the measures, filling the gaps between occupied ones with empty patterns
+		Map<String, Integer> patternIndices = new LinkedHashMap<>();
+		int measureCount = (song.endStep + PATTERN_LENGTH - 1) / PATTERN_LENGTH;
+		int loopMeasure = song.loopStep / PATTERN_LENGTH;
+		int measure = 0;
+		while(measure < measureCount) {
+			SongPattern pattern = measures.get(measure);
+			int count;
+			if(pattern != null) {
+				count = 1;
+			} else {
+
+				// Empty measures run until the next note, the loop measure or the last measure
+				Integer next = measures.higherKey(measure);
+				int end = next == null ? measureCount : next;
+				if(measure < loopMeasure && loopMeasure < end) {
+					end = loopMeasure;
+				}
+				if(end == measureCount && measureCount - 1 > measure && getMeasureLength(song, measureCount - 1) != PATTERN_LENGTH) {
+					end = measureCount - 1;
+				}
+				pattern = new SongPattern(getMeasureLength(song, measure));
+				count = end - measure;
+			}
+			addOrderEntry(addPattern(pattern, patternIndices), count, measure == loopMeasure);
+			measure += count;
+		}
+
+		// Loop to the first row at or after the loop step
+		wavePatterns = song.getWavePatterns();
+		for(SongPattern pattern : patterns) {
+			patternRows.add(pattern.getRows(wavePatterns));
+		}
+		if(loopOrder >= 0) {
+			int pattern = order.get(loopOrder)[0];
+			loopRow = getRow(song, loopMeasure, song.loopStep % PATTERN_LENGTH);
+			if(loopRow == patternRows.get(pattern).length) {
+				loopRow = 0;
+				loopOrder = loopOrder + 1 < order.size() ? loopOrder + 1 : 0;
+			}
+		} else {
+			loopOrder = 0;
+		}
+	}
+
+	/**
+	 * Get the length of a measure, as the last one may be cut short by the end of the song
+	 * @param song The song
+	 * @param measure The measure
+	 * @return The length in 48ths
+	 */
+	private static int getMeasureLength(Song song, int measure) {
+		return Math.min(PATTERN_LENGTH, song.endStep - measure * PATTERN_LENGTH);
+	}
+
+	/**
+	 * Find the row of a measure's pattern that plays a step, or the first one
+	 * after it. The pattern's first row is always on its first step.
+	 * @param song The song
+	 * @param measure The measure
+	 * @param step The step in the measure
+	 * @return The index of the row
+	 */
+	private static int getRow(Song song, int measure, int step) {
+		int start = measure * PATTERN_LENGTH;
+		return step > 0 ? 1 + song.getRowCount(start + 1, start + step) : 0;
+	}
+
+	/**
+	 * Get the index of a pattern, adding it if no pattern sounds the same
+	 * @param pattern The pattern
+	 * @param patternIndices The indices of the patterns added so far, by key
+	 * @return The index of the pattern
+	 */
+	private int addPattern(SongPattern pattern, Map<String, Integer> patternIndices) {
+		String key = pattern.getKey();
+		Integer index = patternIndices.get(key);
+		if(index == null) {
+			index = patterns.size();
+			patterns.add(pattern);
+			patternIndices.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Play a pattern a number of times, merging with the previous entry if possible.
+	 * The entry the song loops to plays its pattern once, so the player can loop
+	 * into the middle of it.
+	 * @param pattern The index of the pattern
+	 * @param count The number of times to play it
+	 * @param isLoop True if the song loops to the start of this entry
+	 */
+	private void addOrderEntry(int pattern, int count, boolean isLoop) {
+		if(isLoop) {
+			loopOrder = order.size();
+			order.add(new int[] {pattern, 1});
+			--count;
+		}
+		while(count > 0) {
+			int[] last = order.isEmpty() ? null : order.get(order.size() - 1);
+			if(last != null && last[0] == pattern && last[1] < MAX_REPEAT && order.size() - 1 != loopOrder) {
+				int n = Math.min(count, MAX_REPEAT - last[1]);
+				last[1] += n;
+				count -= n;
+			} else {
+				int n = Math.min(count, MAX_REPEAT);
+				order.add(new int[] {pattern, n});
+				count -= n;
+			}
+		}
+	}
+
+	/**
+	 * Get the unique patterns
+	 * @return The patterns, indexed by the order entries
+	 */
+	public List<SongPattern> getPatterns() {
+		return patterns;
+	}
+
+	/**
+	 * Get the order list
+	 * @return The order entries, each as {pattern, repeat}
+	 */
+	public List<int[]> getOrder() {
+		return order;
+	}
+
+	/**
+	 * Get the exported rows of a pattern
+	 * @param pattern The index of the pattern
+	 * @return The rows of register values
+	 */
+	public int[][] getPatternRows(int pattern) {
+		return patternRows.get(pattern);
+	}
+
+	/**
+	 * Get the order entry the player loops to
+	 * @return The index of the order entry
+	 */
+	public int getLoopOrder() {
+		return loopOrder;
+	}
+
+	/**
+	 * Get the row of the loop order entry's pattern the player loops to
+	 * @return The index of the row
+	 */
+	public int getLoopRow() {
+		return loopRow;
+	}
+
+	/**
+	 * Get the number of wave RAM patterns in the exported wave data
+	 * @return The pattern count, at least one so the C array isn't empty
+	 */
+	public int getWaveCount() {
+		return Math.max(wavePatterns.size(), 1);
+	}
+
+	/**
+	 * Get the total number of rows in all of the patterns
+	 * @return The row count
+	 */
+	public int getRowCount() {
+		int rows = 0;
+		for(int[][] r : patternRows) {
+			rows += r.length;
+		}
+		return rows;
+	}
+
+	/**
+	 * Generate formatted pattern tables for exporting
+	 * @return The C arrays of rows, one per pattern
+	 */
+	public String getPatternData() {
+		StringBuilder dataStr = new StringBuilder();
+		try {
+			writePatternData(dataStr);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e); // Appending to a StringBuilder doesn't throw
+		}
+		return dataStr.toString();
+	}
+
+	/**
+	 * Write formatted pattern tables for exporting, a row at a time, so the
+	 * tables don't have to be held in memory as one String
+	 * @param dataStr Where to write the C arrays of rows, one per pattern
+	 * @throws IOException If the tables can't be written
+	 */
+	public void writePatternData(Appendable dataStr) throws IOException {
+		synchronized(SongStructure.class) {
+			Map<RowKey, String> used = new HashMap<>();
+			for(int p = 0; p < patternRows.size(); ++p) {
+				int[][] rows = patternRows.get(p);
+				dataStr.append(String.format("static const note_t pattern_%d[%d] = {\n", p, rows.length));
+				for(int i = 0; i < rows.length; ++i) {
+					RowKey key = new RowKey(rows[i]);
+					String row = used.get(key);
+					if(row == null) {
+						row = formattedRows.get(key);
+						if(row == null) {
+							row = formatRow(rows[i]);
+						}
+						used.put(key, row);
+					}
+					dataStr.append("\t{").append(row).append(i < rows.length - 1 ? "},\n" : "}\n");
+				}
+				dataStr.append("};\n");
+			}
+
+			// Keep only the rows of this export, so rows no edit left in the song are dropped
+			formattedRows = used;
+		}
+	}
+
+	/**
+	 * Format the register values of a row
+	 * @param row The row
+	 * @return The values of the row's note_t, without braces
+	 */
+	private static String formatRow(int[] row) {
+		StringBuilder rowStr = new StringBuilder();
+		for(int j = 0; j < Song.ROW_WIDTH; ++j) {
+			rowStr.append(String.format("0x%04X", row[j]));
+			if(j < Song.ROW_WIDTH - 1) {
+				rowStr.append(",");
+			}
+		}
+		return rowStr.toString();
+	}
+
+	/**
+	 * The register values of a row, compared by value for the cache of formatted rows
+	 */
+	private static final class RowKey {
+		private final int[] row;
+		private final int hash;
+
+		RowKey(int[] row) {
+			this.row = row;
+			hash = Arrays.hashCode(row);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof RowKey && Arrays.equals(row, ((RowKey) o).row);
+		}
+	}
+
+	/**
+	 * Generate the formatted table of patterns for exporting
+	 * @return The entries of the C array of pattern_t
+	 */
+	public String getPatternTable() {
+		StringBuilder dataStr = new StringBuilder();
+		for(int p = 0; p < patternRows.size(); ++p) {
+			dataStr.append(String.format("\t{pattern_%d, %d}", p, patternRows.get(p).length));
+			if(p < patternRows.size() - 1) {
+				dataStr.append(",\n");
+			}
+		}
+		return dataStr.toString();
+	}
+
+	/**
+	 * Generate the formatted order list for exporting
+	 * @return The entries of the C array of order_t
+	 */
+	public String getOrderData() {
+		StringBuilder dataStr = new StringBuilder();
+		for(int i = 0; i < order.size(); ++i) {
+			dataStr.append(String.format("\t{%d, %d}", order.get(i)[0], order.get(i)[1]));
+			if(i < order.size() - 1) {
+				dataStr.append(",\n");
+			}
+		}
+		return dataStr.toString();
+	}
+
+	/**
+	 * Generate formatted wave RAM patterns for exporting
+	 * @return The C array for the wave data
+	 */
+	public String getWaveData() {
+		List<int[]> waves = new ArrayList<>(wavePatterns);
+		if(waves.isEmpty()) {
+			waves.add(new int[4]);
+		}
+		StringBuilder dataStr = new StringBuilder();
+		for(int i = 0; i < waves.size(); ++i) {
+			int[] words = waves.get(i);
+			dataStr.append(String.format("\t{0x%08X,0x%08X,0x%08X,0x%08X}", words[0], words[1], words[2], words[3]));
+			if(i < waves.size() - 1) {
+				dataStr.append(",\n");
+			}
+		}
+		return dataStr.toString();
+	}
+
+	/**
+	 * Get the values of the export template placeholders that come from the
+	 * song, with the pattern data written straight to the file as it is exported
+	 * @param songTitle The title the song is exported under
+	 * @param fileName The name of the song's file
+	 * @param bpm The tempo
+	 * @param looping Whether the exported player may loop
+	 * @return The values, by placeholder name
+	 */
+	public Map<String, ExportTemplate.Value> getExportValues(String songTitle, String fileName, String bpm, boolean looping) {
+		Map<String, ExportTemplate.Value> values = new HashMap<>();
+		values.put("SONGTITLE", ExportTemplate.text(songTitle));
+		values.put("FILENAME", ExportTemplate.text(fileName));
+		values.put("BPM", ExportTemplate.text(bpm));
+		values.put("PATTERNCOUNT", ExportTemplate.text("" + patterns.size()));
+		values.put("PATTERNDATA", new ExportTemplate.Value() {
+			@Override
+			public void write(Writer out) throws IOException {
+				writePatternData(out);
+			}
+		});
+		values.put("PATTERNTABLE", ExportTemplate.text(getPatternTable()));
+		values.put("ORDERLENGTH", ExportTemplate.text("" + order.size()));
+		values.put("ORDERDATA", ExportTemplate.text(getOrderData()));
+		values.put("ORDERLOOP", ExportTemplate.text("" + loopOrder));
+		values.put("ROWLOOP", ExportTemplate.text("" + loopRow));
+		values.put("WAVECOUNT", ExportTemplate.text("" + getWaveCount()));
+		values.put("WAVEDATA", ExportTemplate.text(getWaveData()));
+		values.put("ALLOWLOOPING", ExportTemplate.text(looping ? "1" : "0"));
+		return values;
+	}
+}
@@ -0,0 +1,116 @@
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * This class watches the open song file for changes made by other programs,
+ * and tells the UI thread when the file has been written. Programs often
+ * write a file in several pieces, or write a new file and rename it over the
+ * old one, so events are collected until the file has been quiet for a
+ * moment before the change is reported.
+ * @author Andrew Wilder
+ */
+public class SongWatcher {
+
+	/** Definitions */
+	private static final long SETTLE_MS = 150; // Quiet time before a change is reported
+
+	/** The watch service and the thread waiting on it */
+	private final WatchService service;
+	private final Thread thread;
+
+	/** Run on the UI thread when the file changes */
+	private final Runnable onChange;
+
+	/** The file being watched, and the key for its folder */
+	private volatile Path file = null;
+	private WatchKey key = null;
+
+	/**
+	 * Start a watcher, which watches no file until watch is called
+	 * @param onChange Run on the UI thread each time the file changes
+	 * @throws IOException If the file system can't be watched
+	 */
+	public SongWatcher(Runnable onChange) throws IOException {
+		this.onChange = onChange;
+		service = FileSystems.getDefault().newWatchService();
+		thread = new Thread("Song watcher") {
+			@Override
+			public void run() {
+				try {
+					while(true) {
+						if(isWatchedChange(service.take())) {
+
+							// Wait for the writes to settle before reporting the change
+							WatchKey next;
+							while((next = service.poll(SETTLE_MS, TimeUnit.MILLISECONDS)) != null) {
+								isWatchedChange(next);
+							}
+							SwingUtilities.invokeLater(SongWatcher.this.onChange);
+						}
+					}
+				} catch(InterruptedException | ClosedWatchServiceException e) {
+					// Watcher closed
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Check the events of a key for a change to the watched file, and get the key ready for more events
+	 * @param eventKey The key
+	 * @return True if the watched file was created or modified
+	 */
+	private boolean isWatchedChange(WatchKey eventKey) {
+		boolean changed = false;
+		Path watched = file;
+		for(WatchEvent<?> event : eventKey.pollEvents()) {
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				changed = true;
+			} else if(watched != null && eventKey.watchable().equals(watched.getParent())
+					&& watched.getFileName().equals(event.context())) {
+				changed = true;
+			}
+		}
+		eventKey.reset();
+		return changed && watched != null;
+	}
+
+	/**
+	 * Watch a different file
+	 * @param newFile The file, or null to stop watching
+	 */
+	public synchronized void watch(File newFile) {
+		Path path = newFile == null ? null : newFile.getAbsoluteFile().toPath();
+		if(path != null && path.equals(file)) {
+			return;
+		}
+		if(key != null) {
+			key.cancel();
+			key = null;
+		}
+		file = path;
+		if(path != null && path.getParent() != null) {
+			try {
+				key = path.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+			} catch(IOException e) {
+				e.printStackTrace();
+				file = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,51 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * This class times the phases of starting the application, for the
+ * --startup-report option. Each phase is printed as it finishes, with how
+ * long it took, when it finished after main was entered and the thread it ran
+ * on, so the work done in the background after the window is shown is listed
+ * with the rest. Nothing is printed unless the report is enabled.
+ * @author Andrew Wilder
+ */
+public class StartupReport {
+
+	/** When main was entered, and whether to print phases */
+	private static long start = System.nanoTime();
+	private static volatile boolean enabled = false;
+
+	/**
+	 * Start timing from now, which should be the start of main
+	 * @param enable True to print the phases
+	 */
+	public static void begin(boolean enable) {
+		start = System.nanoTime();
+		enabled = enable;
+		if(enable) {
+			// Only looked up for the report, as it starts the JVM's management classes
+			long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+			System.out.printf("Startup report (JVM start to main: %d ms)%n", System.currentTimeMillis() - jvmStart);
+		}
+	}
+
+	/**
+	 * Get the time to pass to phase as the start of a phase
+	 * @return The time in nanoseconds
+	 */
+	public static long now() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Print a phase that has just finished
+	 * @param name The phase
+	 * @param since When the phase started, from now
+	 */
+	public static void phase(String name, long since) {
+		if(enabled) {
+			long end = System.nanoTime();
+			System.out.printf("  %-24s %5d ms   done at %5d ms on %s%n", name, (end - since) / 1000000,
+					(end - start) / 1000000, Thread.currentThread().getName());
+		}
+	}
+}
@@ -0,0 +1,116 @@
+import java.util.Arrays;
+
+/**
+ * This class counts notes per step in a Fenwick tree, so the number of notes
+ * in any range of steps is found in O(log n), and adding or removing a note
+ * updates it in O(log n). It grows as notes are added past its end.
+ * @author Andrew Wilder
+ */
+public class StepIndex {
+
+	/** Definitions */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** The count on each step, and the tree of partial sums (1-based) */
+	private int[] counts = new int[INITIAL_CAPACITY];
+	private int[] tree = new int[INITIAL_CAPACITY + 1];
+	private int total = 0;
+
+	/**
+	 * Change the count on a step
+	 * @param step The step
+	 * @param delta The amount to add, negative to remove
+	 */
+	public void add(int step, int delta) {
+		if(step >= counts.length) {
+			grow(step + 1);
+		}
+		counts[step] += delta;
+		total += delta;
+		for(int i = step + 1; i < tree.length; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+
+	/**
+	 * Get the count on a step
+	 * @param step The step
+	 * @return The count
+	 */
+	public int get(int step) {
+		return step >= 0 && step < counts.length ? counts[step] : 0;
+	}
+
+	/**
+	 * Get the total count on all steps before a step
+	 * @param step The step
+	 * @return The count on steps 0 to step - 1
+	 */
+	public int prefix(int step) {
+		int sum = 0;
+		for(int i = Math.min(step, counts.length); i > 0; i -= i & -i) {
+			sum += tree[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Get the total count on a range of steps
+	 * @param from The first step
+	 * @param to The step after the last
+	 * @return The count
+	 */
+	public int range(int from, int to) {
+		return to > from ? prefix(to) - prefix(from) : 0;
+	}
+
+	/**
+	 * Get the total count on all steps
+	 * @return The count
+	 */
+	public int total() {
+		return total;
+	}
+
+	/**
+	 * Find the step holding a position of the running count, by walking
+	 * down the tree. With a count of one per occupied step, this finds the
+	 * step of the n-th occupied step.
+	 * @param n The position, counting from 0
+	 * @return The first step where the count up to and including it is more than n,
+	 * or -1 if the total count is not more than n
+	 */
+	public int find(int n) {
+		if(n < 0 || n >= total) {
+			return -1;
+		}
+		int pos = 0;
+		for(int bit = Integer.highestOneBit(counts.length); bit > 0; bit >>= 1) {
+			if(pos + bit < tree.length && tree[pos + bit] <= n) {
+				pos += bit;
+				n -= tree[pos];
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * Make room for more steps, rebuilding the tree from the counts in O(n)
+	 * @param capacity The number of steps needed
+	 */
+	private void grow(int capacity) {
+		int newCapacity = counts.length;
+		while(newCapacity < capacity) {
+			newCapacity *= 2;
+		}
+		counts = Arrays.copyOf(counts, newCapacity);
+		tree = new int[newCapacity + 1];
+		for(int i = 1; i <= newCapacity; ++i) {
+			tree[i] += counts[i - 1];
+			int parent = i + (i & -i);
+			if(parent <= newCapacity) {
+				tree[parent] += tree[i];
+			}
+		}
+	}
+}
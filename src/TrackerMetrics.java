@@ -0,0 +1,279 @@
+import java.lang.management.ManagementFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+/**
+ * This class collects runtime metrics for rendering, playback and painting.
+ * Recording is done with lock-free counters so it can be left on in the audio
+ * and painting paths, and the values are exposed as an MBean.
+ * @author Andrew Wilder
+ */
+public class TrackerMetrics implements TrackerMetricsMBean {
+
+	/** Definitions */
+	private static final String OBJECT_NAME = "GBATracker:type=Metrics";
+	private static final TrackerMetrics instance = new TrackerMetrics();
+
+	/** Note rendering */
+	private final LongAdder renderCacheHits = new LongAdder();
+	private final Histogram renderTime = new Histogram();
+
+	/** Audio output */
+	private volatile int audioBufferFillPercent = 0;
+	private volatile int audioLatencyMillis = 0;
+	private final LongAdder audioUnderruns = new LongAdder();
+	private final Histogram audioWriteBlocked = new Histogram();
+
+	/** Playback scheduling */
+	private final Histogram stepLateness = new Histogram();
+
+	/** Painting */
+	private final Histogram paintTime = new Histogram();
+
+	/**
+	 * Get the metrics shared by the application
+	 * @return The metrics instance
+	 */
+	public static TrackerMetrics get() {
+		return instance;
+	}
+
+	/**
+	 * Register the metrics with the platform MBean server
+	 */
+	public static void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName(OBJECT_NAME));
+		} catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Record the time taken to render a Note's buffer
+	 * @param nanos The render time in nanoseconds
+	 */
+	public void recordRender(long nanos) {
+		renderTime.record(nanos);
+	}
+
+	/**
+	 * Record a render request that was served by an already rendered buffer
+	 */
+	public void recordRenderCacheHit() {
+		renderCacheHits.increment();
+	}
+
+	/**
+	 * Record the state of an audio line on a write
+	 * @param fillPercent How full the line's buffer was before the write
+	 * @param blockedNanos How long the write blocked for
+	 */
+	public void recordAudioWrite(int fillPercent, long blockedNanos) {
+		audioBufferFillPercent = fillPercent;
+		audioWriteBlocked.record(blockedNanos);
+	}
+
+	/**
+	 * Record the latency an audio line was opened with
+	 * @param ms The latency in ms
+	 */
+	public void recordAudioLatency(int ms) {
+		audioLatencyMillis = ms;
+	}
+
+	/**
+	 * Record an audio line running dry while it still had data to play
+	 */
+	public void recordUnderrun() {
+		audioUnderruns.increment();
+	}
+
+	/**
+	 * Record how late a step of playback was started
+	 * @param lateNanos The time after the step was due
+	 */
+	public void recordStepLateness(long lateNanos) {
+		stepLateness.record(Math.max(lateNanos, 0));
+	}
+
+	/**
+	 * Record the time taken to paint the simulation panel
+	 * @param nanos The paint time in nanoseconds
+	 */
+	public void recordPaint(long nanos) {
+		paintTime.record(nanos);
+	}
+
+	/**
+	 * Get a one line summary, for the status bar
+	 * @return The summary text
+	 */
+	public String getSummary() {
+		return String.format("Render %.0f us (%d hits)  Audio %d%% full, %d ms, %d underruns  Step late %.1f ms  Paint %.0f us",
+				getRenderTimeMeanMicros(), getRenderCacheHits(), getAudioBufferFillPercent(), getAudioLatencyMillis(), getAudioUnderruns(),
+				getStepLatenessMeanMillis(), getPaintTimeMeanMicros());
+	}
+
+	@Override
+	public long getRenderCount() {
+		return renderTime.count.sum();
+	}
+
+	@Override
+	public long getRenderCacheHits() {
+		return renderCacheHits.sum();
+	}
+
+	@Override
+	public double getRenderTimeMeanMicros() {
+		return renderTime.meanNanos() / 1000;
+	}
+
+	@Override
+	public long getRenderTimeMaxMicros() {
+		return renderTime.max.get() / 1000;
+	}
+
+	@Override
+	public long[] getRenderTimeHistogram() {
+		return renderTime.snapshot();
+	}
+
+	@Override
+	public int getAudioBufferFillPercent() {
+		return audioBufferFillPercent;
+	}
+
+	@Override
+	public int getAudioLatencyMillis() {
+		return audioLatencyMillis;
+	}
+
+	@Override
+	public long getAudioWriteCount() {
+		return audioWriteBlocked.count.sum();
+	}
+
+	@Override
+	public long getAudioUnderruns() {
+		return audioUnderruns.sum();
+	}
+
+	@Override
+	public double getAudioWriteBlockedMeanMicros() {
+		return audioWriteBlocked.meanNanos() / 1000;
+	}
+
+	@Override
+	public long getStepCount() {
+		return stepLateness.count.sum();
+	}
+
+	@Override
+	public double getStepLatenessMeanMillis() {
+		return stepLateness.meanNanos() / 1000000;
+	}
+
+	@Override
+	public long getStepLatenessMaxMillis() {
+		return stepLateness.max.get() / 1000000;
+	}
+
+	@Override
+	public long getPaintCount() {
+		return paintTime.count.sum();
+	}
+
+	@Override
+	public double getPaintTimeMeanMicros() {
+		return paintTime.meanNanos() / 1000;
+	}
+
+	@Override
+	public long getPaintTimeMaxMicros() {
+		return paintTime.max.get() / 1000;
+	}
+
+	@Override
+	public long[] getPaintTimeHistogram() {
+		return paintTime.snapshot();
+	}
+
+	@Override
+	public void reset() {
+		renderCacheHits.reset();
+		renderTime.reset();
+		audioBufferFillPercent = 0;
+		audioUnderruns.reset();
+		audioWriteBlocked.reset();
+		stepLateness.reset();
+		paintTime.reset();
+	}
+
+	/**
+	 * A histogram of durations, bucketed by powers of two microseconds. Bucket
+	 * n counts durations under 2^n us, and the last bucket counts the rest.
+	 * @author Andrew Wilder
+	 */
+	private static class Histogram {
+
+		/** Definitions */
+		private static final int BUCKETS = 24;
+
+		/** The recorded values */
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+
+		/**
+		 * Record a duration
+		 * @param nanos The duration in nanoseconds
+		 */
+		public void record(long nanos) {
+			int bucket = 64 - Long.numberOfLeadingZeros(nanos / 1000);
+			buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+			count.increment();
+			sum.add(nanos);
+			max.accumulateAndGet(nanos, Math::max);
+		}
+
+		/**
+		 * Get the mean of the recorded durations
+		 * @return The mean in nanoseconds
+		 */
+		public double meanNanos() {
+			long n = count.sum();
+			return n == 0 ? 0 : (double) sum.sum() / n;
+		}
+
+		/**
+		 * Copy the bucket counts
+		 * @return The bucket counts
+		 */
+		public long[] snapshot() {
+			long[] counts = new long[BUCKETS];
+			for(int i = 0; i < BUCKETS; ++i) {
+				counts[i] = buckets.get(i);
+			}
+			return counts;
+		}
+
+		/**
+		 * Clear the recorded values
+		 */
+		public void reset() {
+			for(int i = 0; i < BUCKETS; ++i) {
+				buckets.set(i, 0);
+			}
+			count.reset();
+			sum.reset();
+			max.set(0);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/**
+ * The management interface for the runtime metrics, as exposed over JMX
+ * @author Andrew Wilder
+ */
+public interface TrackerMetricsMBean {
+
+	/** Note rendering */
+	public long getRenderCount();
+	public long getRenderCacheHits();
+	public double getRenderTimeMeanMicros();
+	public long getRenderTimeMaxMicros();
+	public long[] getRenderTimeHistogram();
+
+	/** Audio output */
+	public int getAudioBufferFillPercent();
+	public int getAudioLatencyMillis();
+	public long getAudioWriteCount();
+	public long getAudioUnderruns();
+	public double getAudioWriteBlockedMeanMicros();
+
+	/** Playback scheduling */
+	public long getStepCount();
+	public double getStepLatenessMeanMillis();
+	public long getStepLatenessMaxMillis();
+
+	/** Painting */
+	public long getPaintCount();
+	public double getPaintTimeMeanMicros();
+	public long getPaintTimeMaxMicros();
+	public long[] getPaintTimeHistogram();
+
+	/**
+	 * Clear all of the metrics
+	 */
+	public void reset();
+}
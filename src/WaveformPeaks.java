@@ -0,0 +1,118 @@
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * This class holds the minimum and maximum samples of a rendered buffer at
+ * several resolutions, each level combining pairs of blocks from the one
+ * below it. A range of samples can then be summarized from a few blocks of
+ * the level closest to its size, so drawing a waveform costs the same at any
+ * zoom. Peaks are built once per buffer; a Note that is changed gets a new
+ * buffer, and only that buffer's peaks are built again.
+ * @author Andrew Wilder
+ */
+public class WaveformPeaks {
+
+	/** Definitions */
+	public static final int BASE_BLOCK = 16; // Samples per block of the finest level
+
+	/** Peaks of the buffers in use, dropped when their buffer is no longer referenced */
+	private static final Map<byte[], WaveformPeaks> cache = Collections.synchronizedMap(new WeakHashMap<byte[], WaveformPeaks>());
+
+	/** The length of the buffer, and the minimum and maximum of each block of each level */
+	private final int length;
+	private final byte[][] mins;
+	private final byte[][] maxs;
+
+	/**
+	 * Get the peaks of a buffer, building them if they haven't been already
+	 * @param buf The rendered samples
+	 * @return The peaks
+	 */
+	public static WaveformPeaks get(byte[] buf) {
+		WaveformPeaks peaks = cache.get(buf);
+		if(peaks == null) {
+			peaks = new WaveformPeaks(buf);
+			cache.put(buf, peaks);
+		}
+		return peaks;
+	}
+
+	/**
+	 * Build the peaks of a buffer
+	 * @param buf The rendered samples
+	 */
+	private WaveformPeaks(byte[] buf) {
+		length = buf.length;
+		int levels = 1;
+		for(int blocks = (length + BASE_BLOCK - 1) / BASE_BLOCK; blocks > 1; blocks = (blocks + 1) / 2) {
+			++levels;
+		}
+		mins = new byte[levels][];
+		maxs = new byte[levels][];
+
+		// The finest level comes from the samples
+		int blocks = (length + BASE_BLOCK - 1) / BASE_BLOCK;
+		mins[0] = new byte[blocks];
+		maxs[0] = new byte[blocks];
+		for(int b = 0; b < blocks; ++b) {
+			byte min = Byte.MAX_VALUE, max = Byte.MIN_VALUE;
+			for(int i = b * BASE_BLOCK, end = Math.min(length, i + BASE_BLOCK); i < end; ++i) {
+				min = (byte) Math.min(min, buf[i]);
+				max = (byte) Math.max(max, buf[i]);
+			}
+			mins[0][b] = min;
+			maxs[0][b] = max;
+		}
+
+		// Each coarser level combines pairs of blocks
+		for(int level = 1; level < levels; ++level) {
+			byte[] lowerMin = mins[level - 1], lowerMax = maxs[level - 1];
+			blocks = (lowerMin.length + 1) / 2;
+			mins[level] = new byte[blocks];
+			maxs[level] = new byte[blocks];
+			for(int b = 0; b < blocks; ++b) {
+				int pair = Math.min(2 * b + 1, lowerMin.length - 1);
+				mins[level][b] = (byte) Math.min(lowerMin[2 * b], lowerMin[pair]);
+				maxs[level][b] = (byte) Math.max(lowerMax[2 * b], lowerMax[pair]);
+			}
+		}
+	}
+
+	/**
+	 * Get the length of the buffer
+	 * @return The number of samples
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Get the lowest and highest samples in a range. The range is widened to
+	 * whole blocks of the coarsest level with blocks no larger than the range,
+	 * so only a few blocks are read however long the range is.
+	 * @param from The first sample
+	 * @param to The sample after the last
+	 * @param peak Set to the minimum and maximum
+	 */
+	public void getPeak(int from, int to, int[] peak) {
+		from = Math.max(0, from);
+		to = Math.min(length, to);
+		if(to <= from) {
+			peak[0] = peak[1] = 0;
+			return;
+		}
+		int level = 0;
+		while(level + 1 < mins.length && (BASE_BLOCK << (level + 1)) <= to - from) {
+			++level;
+		}
+		int block = BASE_BLOCK << level;
+		int min = Byte.MAX_VALUE, max = Byte.MIN_VALUE;
+		for(int b = from / block, last = (to - 1) / block; b <= last; ++b) {
+			min = Math.min(min, mins[level][b]);
+			max = Math.max(max, maxs[level][b]);
+		}
+		peak[0] = min;
+		peak[1] = max;
+	}
+}
@@ -0,0 +1,380 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Headless regression check for synthesis and export. Every song under the
+ * given directories is loaded and rendered, and hashes of the rendered PCM, of
+ * the exported C and header files and of the offline mixdown at each output
+ * depth are compared against checked-in golden values. The mixdown is also
+ * mixed in parallel and with the scalar mixing loops, which must give the
+ * same samples. Once that has widened the buffers and warmed up the JIT, the
+ * mixdown is timed with the vector and the scalar loops over a few repeats,
+ * and the fastest pass at each depth is printed for comparison. The step index
+ * behind row counting is checked against counts made the slow way, on
+ * random edits and on each song's rows.
+ *
+ * Run from the repository root, with src/ and test/ compiled together:
+ *   java -Djava.awt.headless=true RenderCheck [--update]
+ * @author Andrew Wilder
+ */
+public class RenderCheck {
+
+	/** Definitions */
+	private static final String GOLDEN_FILE = "test/golden.txt";
+	private static final String[] SONG_DIRECTORIES = {
+		"examples", "test/corpus"
+	};
+	private static final String SONG_EXTENSION = ".gbt";
+	private static final int MIX_LOOPS = 2;
+	private static final long MAX_MIX_SAMPLES = 1 << 24;
+	private static final int MIX_BATCH = 1 << 20;
+	private static final int MIX_REPEATS = 5; // Timed passes of each mixing loop, after the checked pass warms them up
+	private static final String EXPORT_TITLE = "Title $1\\\\ $BPM"; // Template syntax and regex replacement syntax, to be written as they are
+	private static final String EXPORT_DATE = "Today";
+	private static final int INDEX_STEPS = 5000; // Enough to grow the index a few times
+	private static final int INDEX_EDITS = 20000;
+
+	/**
+	 * Check all songs against the golden hashes, or rewrite them with --update
+	 * @param args [--update]
+	 */
+	public static void main(String[] args) throws Exception {
+		boolean update = args.length > 0 && "--update".equals(args[0]);
+		Channel.setFormat(Channel.DEFAULT_SAMPLE_RATE, Channel.DEFAULT_SAMPLE_BITS); // The golden hashes are for the default format
+		Note.generateNoiseWaveform();
+
+		// Find all of the songs
+		List<File> songs = new ArrayList<>();
+		for(String dir : SONG_DIRECTORIES) {
+			findSongs(new File(dir), songs);
+		}
+		Collections.sort(songs);
+
+		// Render and hash each song
+		Map<String, String> golden = readGolden();
+		Map<String, String> results = new TreeMap<>();
+		int failures = 0;
+		for(File file : songs) {
+			String name = file.getPath().replace(File.separatorChar, '/');
+			long start = System.nanoTime();
+			Song song = Song.load(file);
+			MessageDigest pcm = MessageDigest.getInstance("SHA-256");
+			long samples = 0;
+			int notes = 0;
+			for(int i = 0; i < Song.CHANNEL_COUNT; ++i) {
+				for(EditorNote edn : song.getTimeline(i)) {
+					edn.note.prepareBuf(Song.hasSweep(i));
+					byte[] buf = edn.note.getBuf();
+					pcm.update(intBytes(i));
+					pcm.update(intBytes(edn.step));
+					pcm.update(buf);
+					samples += buf.length;
+					++notes;
+				}
+			}
+			long renderNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			SongStructure structure = song.getStructure();
+			String exported = export(structure, file.getName(), song);
+			long exportNanos = System.nanoTime() - start;
+
+			// Mix the start of the song at each depth, checking that mixing in parallel or with the scalar loops gives the same samples
+			MessageDigest mix = MessageDigest.getInstance("SHA-256");
+			short[] sequential = new short[MIX_BATCH];
+			short[] parallel = new short[MIX_BATCH];
+			short[] scalar = new short[MIX_BATCH];
+			boolean parallelMatches = true, scalarMatches = true;
+			StringBuilder mixTimes = new StringBuilder();
+			for(int bits : Channel.SampleBits) {
+				Channel.setFormat(Channel.DEFAULT_SAMPLE_RATE, bits);
+				SongRenderer renderer = new SongRenderer(song, Integer.parseInt(song.bpm), song.looping ? MIX_LOOPS : 1);
+				long mixSamples = Math.min(renderer.getLength(), MAX_MIX_SAMPLES);
+				for(long from = 0; from < mixSamples; from += MIX_BATCH) {
+					int count = (int) Math.min(MIX_BATCH, mixSamples - from);
+					renderer.mix(sequential, 0, from, count);
+					renderer.mixParallel(parallel, 0, from, count);
+					SongRenderer.setVectorized(false);
+					renderer.mix(scalar, 0, from, count);
+					SongRenderer.setVectorized(true);
+					parallelMatches &= Arrays.equals(sequential, parallel);
+					scalarMatches &= Arrays.equals(sequential, scalar);
+					for(int i = 0; i < count; ++i) {
+						mix.update((byte) (sequential[i] >> 8));
+						mix.update((byte) sequential[i]);
+					}
+				}
+				mixTimes.append(String.format(", mix %d-bit %.1f ms (scalar %.1f ms)", bits,
+						timeMix(renderer, mixSamples, sequential, true) / 1e6, timeMix(renderer, mixSamples, scalar, false) / 1e6));
+			}
+			Channel.setFormat(Channel.DEFAULT_SAMPLE_RATE, Channel.DEFAULT_SAMPLE_BITS);
+			String result = hex(pcm.digest()) + " " + hex(sha256(exported)) + " " + hex(mix.digest());
+			results.put(name, result);
+
+			// Compare against the golden values
+			String status;
+			if(!exported.contains(EXPORT_TITLE + "_step") || !exported.contains(file.getName())) {
+				status = "EXPORT";
+				++failures;
+			} else if(!rowsMatch(song)) {
+				status = "ROWS";
+				++failures;
+			} else if(!parallelMatches) {
+				status = "PARALLEL";
+				++failures;
+			} else if(!scalarMatches) {
+				status = "SCALAR";
+				++failures;
+			} else if(update) {
+				status = "updated";
+			} else if(!golden.containsKey(name)) {
+				status = "MISSING";
+				++failures;
+			} else if(!golden.get(name).equals(result)) {
+				status = "CHANGED";
+				++failures;
+			} else {
+				status = "ok";
+			}
+			System.out.printf("%-8s %s%n", status, name);
+			System.out.printf("         %d notes, %d samples, render %.1f ms (%.1f Msamples/s), export %.1f ms%s%n",
+					notes, samples, renderNanos / 1e6, samples * 1e3 / Math.max(renderNanos, 1), exportNanos / 1e6, mixTimes);
+		}
+
+		// Songs that have gone missing are failures too
+		for(String name : golden.keySet()) {
+			if(!results.containsKey(name) && !update) {
+				System.out.printf("%-8s %s%n", "REMOVED", name);
+				++failures;
+			}
+		}
+
+		// Check the step index on random edits
+		boolean indexMatches = stepIndexMatches();
+		System.out.printf("%-8s %s%n", indexMatches ? "ok" : "INDEX", "StepIndex");
+
+		if(update) {
+			PrintWriter pw = new PrintWriter(GOLDEN_FILE, "UTF-8");
+			for(Map.Entry<String, String> e : results.entrySet()) {
+				pw.println(e.getKey() + " " + e.getValue());
+			}
+			pw.close();
+			System.out.println("Wrote " + results.size() + " golden hashes to " + GOLDEN_FILE);
+		} else if(failures > 0) {
+			System.out.println(failures + " of " + results.size() + " songs differ from " + GOLDEN_FILE);
+			System.exit(1);
+		} else if(!indexMatches) {
+			System.out.println("The step index differs from a brute-force count");
+			System.exit(1);
+		} else {
+			System.out.println("All " + results.size() + " songs match " + GOLDEN_FILE);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Time mixing the start of a song, with its buffers already widened and
+	 * the mixing loops already run, so the time is that of the loops alone
+	 * @param renderer The song's renderer
+	 * @param samples The number of samples to mix
+	 * @param out A buffer of MIX_BATCH samples to mix into
+	 * @param vectorized True to time the vector loops, false for the scalar ones
+	 * @return The time of the fastest pass, which is the least disturbed by the JIT and GC threads, in nanoseconds
+	 */
+	private static long timeMix(SongRenderer renderer, long samples, short[] out, boolean vectorized) {
+		SongRenderer.setVectorized(vectorized);
+		long fastest = Long.MAX_VALUE;
+		for(int r = 0; r < MIX_REPEATS; ++r) {
+			long start = System.nanoTime();
+			for(long from = 0; from < samples; from += MIX_BATCH) {
+				renderer.mix(out, 0, from, (int) Math.min(MIX_BATCH, samples - from));
+			}
+			fastest = Math.min(fastest, System.nanoTime() - start);
+		}
+		SongRenderer.setVectorized(true);
+		return fastest;
+	}
+
+	/**
+	 * Export a song through the C and header templates, as the application
+	 * does, with a title holding characters that mean something to templates
+	 * @param structure The song's structure
+	 * @param fileName The name of the song's file
+	 * @param song The song
+	 * @return The header line with the order and loop, then the C file, then the header file
+	 */
+	private static String export(SongStructure structure, String fileName, Song song) throws IOException {
+		Map<String, ExportTemplate.Value> values = structure.getExportValues(EXPORT_TITLE, fileName, song.bpm, song.looping);
+		values.put("APPTITLE", ExportTemplate.text(RenderCheck.class.getName()));
+		values.put("DATE", ExportTemplate.text(EXPORT_DATE)); // So the files are the same on every run
+		StringWriter out = new StringWriter();
+		out.write(structure.getOrder().size() + "," + structure.getLoopOrder() + "," + structure.getLoopRow() + "\n");
+		ExportTemplate.get("res/ExportTemplateC").write(out, values);
+		ExportTemplate.get("res/ExportTemplateH").write(out, values);
+		return out.toString();
+	}
+
+	/**
+	 * Check a song's row lookups against its occupied steps, found by scanning every note
+	 * @param song The song
+	 * @return True if every row is found on the right step
+	 */
+	private static boolean rowsMatch(Song song) {
+		boolean[] occupied = new boolean[song.getMaxStep() + 1];
+		for(int i = 0; i < Song.CHANNEL_COUNT; ++i) {
+			for(EditorNote edn : song.getTimeline(i)) {
+				occupied[edn.step] = true;
+			}
+		}
+		int row = 0;
+		for(int step = 0; step < occupied.length; ++step) {
+			if(song.getRowCount(0, step) != row) {
+				return false;
+			}
+			if(occupied[step] && song.getRowStep(row++) != step) {
+				return false;
+			}
+		}
+		return song.getRowStep(row) == -1;
+	}
+
+	/**
+	 * Make random edits to a StepIndex, growing it past its initial size, and
+	 * check every query against plain counts after each one
+	 * @return True if every query matches
+	 */
+	private static boolean stepIndexMatches() {
+		Random random = new Random(39);
+		StepIndex index = new StepIndex();
+		int[] counts = new int[INDEX_STEPS];
+		int total = 0;
+		for(int edit = 0; edit < INDEX_EDITS; ++edit) {
+
+			// Add or remove a note, reaching further as the edits go on so the index grows
+			int step = random.nextInt(1 + (int) ((long) (INDEX_STEPS - 1) * edit / INDEX_EDITS));
+			int delta = counts[step] > 0 && random.nextBoolean() ? -1 : 1;
+			index.add(step, delta);
+			counts[step] += delta;
+			total += delta;
+
+			// A count, a range and a position of the running count
+			int at = random.nextInt(INDEX_STEPS + 10);
+			int to = random.nextInt(INDEX_STEPS + 10);
+			int from = random.nextInt(to + 1);
+			int n = random.nextInt(total + 2) - 1;
+			int found = -1;
+			for(int s = 0, sum = 0; s < INDEX_STEPS && found < 0; ++s) {
+				sum += counts[s];
+				if(n >= 0 && sum > n) {
+					found = s;
+				}
+			}
+			if(index.total() != total || index.get(at) != (at < INDEX_STEPS ? counts[at] : 0)
+					|| index.range(from, to) != sum(counts, from, to) || index.prefix(to) != sum(counts, 0, to)
+					|| index.find(n) != found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Add up counts the slow way
+	 * @param counts The counts
+	 * @param from The first index
+	 * @param to The index after the last, which may be past the end
+	 * @return The sum
+	 */
+	private static int sum(int[] counts, int from, int to) {
+		int sum = 0;
+		for(int i = from; i < Math.min(to, counts.length); ++i) {
+			sum += counts[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Recursively collect song files
+	 * @param dir The directory to search
+	 * @param songs The list to add songs to
+	 */
+	private static void findSongs(File dir, List<File> songs) {
+		File[] files = dir.listFiles();
+		if(files == null) {
+			return;
+		}
+		for(File f : files) {
+			if(f.isDirectory()) {
+				findSongs(f, songs);
+			} else if(f.getName().endsWith(SONG_EXTENSION)) {
+				songs.add(f);
+			}
+		}
+	}
+
+	/**
+	 * Read the golden hashes, keyed by song path. The song path may contain
+	 * spaces, so the three hashes are taken from the end of the line.
+	 * @return The golden hashes
+	 */
+	private static Map<String, String> readGolden() throws IOException {
+		Map<String, String> golden = new TreeMap<>();
+		File file = new File(GOLDEN_FILE);
+		if(file.exists()) {
+			for(String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+				String[] parts = line.split(" ");
+				if(parts.length >= 4) {
+					String hashes = parts[parts.length - 3] + " " + parts[parts.length - 2] + " " + parts[parts.length - 1];
+					golden.put(line.substring(0, line.length() - hashes.length() - 1), hashes);
+				}
+			}
+		}
+		return golden;
+	}
+
+	/**
+	 * Hash a String
+	 * @param s The String
+	 * @return The SHA-256 of its UTF-8 bytes
+	 */
+	private static byte[] sha256(String s) throws NoSuchAlgorithmException {
+		return MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Get the big-endian bytes of an int
+	 * @param n The int
+	 * @return The bytes
+	 */
+	private static byte[] intBytes(int n) {
+		return new byte[] {(byte) (n >> 24), (byte) (n >> 16), (byte) (n >> 8), (byte) n};
+	}
+
+	/**
+	 * Format bytes as hex
+	 * @param bytes The bytes
+	 * @return The hex String
+	 */
+	private static String hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for(byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+}